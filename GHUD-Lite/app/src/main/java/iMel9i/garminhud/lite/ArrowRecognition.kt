@@ -5,28 +5,17 @@ import android.graphics.Canvas
 import android.graphics.drawable.BitmapDrawable
 import android.graphics.drawable.Drawable
 import android.util.Log
+import sky4s.garminhud.Arrow
+import sky4s.garminhud.ArrowFingerprint
+import sky4s.garminhud.ArrowIndex
+import sky4s.garminhud.ArrowMatcher
+import sky4s.garminhud.ArrowV2
 
 /**
  * Утилиты для работы с изображениями (портировано из GoogleMaps_HUD)
  */
 object ImageUtils {
     
-    fun getGreenAlpha(pixel: Int): Int {
-        val alpha = (pixel shr 24) and 0xff
-        val green = (pixel shr 8) and 0xff
-        return (green * alpha) shr 8
-    }
-    
-    fun toBinaryImage(bitmap: Bitmap, treatAsWhite: Int = 200) {
-        for (h in 0 until bitmap.height) {
-            for (w in 0 until bitmap.width) {
-                val p = bitmap.getPixel(w, h)
-                val greenAlpha = getGreenAlpha(p)
-                bitmap.setPixel(w, h, if (greenAlpha > treatAsWhite) 0xffffffff.toInt() else 0)
-            }
-        }
-    }
-    
     fun drawableToBitmap(drawable: Drawable?): Bitmap? {
         if (drawable == null) return null
         
@@ -47,137 +36,108 @@ object ImageUtils {
 }
 
 /**
- * Класс для распознавания стрелок направления
- * Портировано из GoogleMaps_HUD ArrowImage.java
+ * Отпечаток стрелки 8x8 (64 бита).
+ * Считается общим ArrowFingerprint из arrow-recognition, тем же кодом, что и в GoogleMaps_HUD,
+ * поэтому одинаковые иконки дают ровно те же числа, что лежат в таблицах Arrow/ArrowV2.
+ * Битмап читается один раз через getPixels и не изменяется.
  */
 class ArrowImage(bitmap: Bitmap) {
     
     companion object {
         private const val TAG = "ArrowImage"
-        const val IMAGE_LEN = 8 // 8x8 grid
-        const val CONTENT_LEN = IMAGE_LEN * IMAGE_LEN
-        private const val TREAT_AS_WHITE = 200
-        private const val ALPHA_AS_WHITE = 254
-        private const val STANDARD_IMG_SIZE = 132
     }
     
-    val content = BooleanArray(CONTENT_LEN)
-    var leftValue: Long = 0L
-    var binaryImage: Bitmap? = null
+    val leftValue: Long
     
     init {
-        ImageUtils.toBinaryImage(bitmap, TREAT_AS_WHITE)
-        val resized = resizeImage(bitmap, STANDARD_IMG_SIZE)
-        
-        if (resized != null) {
-            binaryImage = resized
-            calculateHash(resized)
-        }
-    }
-    
-    private fun resizeImage(bitmap: Bitmap, newLength: Int): Bitmap? {
-        if (bitmap.width == newLength && bitmap.height == newLength) {
-            return bitmap
-        }
-        if (bitmap.width != bitmap.height) {
-            Log.w(TAG, "Bitmap is not square: ${bitmap.width}x${bitmap.height}")
-            return null
-        }
-        
-        val orgLength = bitmap.height
-        val config = bitmap.config ?: Bitmap.Config.ARGB_8888
-        val resized = Bitmap.createBitmap(newLength, newLength, config)
-        val ratio = bitmap.height / (newLength * 1.0f)
-        
-        for (h in 0 until newLength) {
-            val h0 = minOf((h * ratio).toInt(), orgLength - 1)
-            for (w in 0 until newLength) {
-                val w0 = minOf((w * ratio).toInt(), orgLength - 1)
-                val pixel = bitmap.getPixel(w0, h0)
-                resized.setPixel(w, h, pixel)
-            }
-        }
-        
-        return resized
-    }
-    
-    private fun calculateHash(resized: Bitmap) {
-        val interval = resized.width / IMAGE_LEN
-        var index = 0
-        leftValue = 0L
-        
-        for (h0 in 0 until IMAGE_LEN) {
-            val h = h0 * interval
-            for (w0 in 0 until IMAGE_LEN) {
-                val w = w0 * interval
-                val p = resized.getPixel(w, h)
-                val greenAlpha = ImageUtils.getGreenAlpha(p)
-                val bit = greenAlpha >= ALPHA_AS_WHITE
-                
-                content[h0 * IMAGE_LEN + w0] = bit
-                val shiftValue = (if (bit) 1L else 0L) shl index
-                leftValue = leftValue or shiftValue
-                index++
-            }
-        }
+        val width = bitmap.width
+        val height = bitmap.height
+        val pixels = IntArray(width * height)
+        bitmap.getPixels(pixels, 0, width, 0, 0, width, height)
+        leftValue = ArrowFingerprint.compute(pixels, 0, width, width, height)
         
         Log.d(TAG, "Arrow hash: $leftValue")
     }
     
-    fun getSAD(magicNumber: Long): Int {
-        var sad = 0
-        val length = if (IMAGE_LEN == 8) CONTENT_LEN - 1 else CONTENT_LEN
-        
-        for (x in 0 until length) {
-            val bit = 1L == ((magicNumber shr x) and 1L)
-            if (content[x] != bit) sad++
-        }
-        
-        return sad
-    }
-    
     fun getArrowValue(): Long = leftValue
 }
 
 /**
- * Enum стрелок направления (из оригинального GoogleMaps_HUD)
+ * Стрелки направления: полный каталог Arrow/ArrowV2 из GoogleMaps_HUD.
+ * Каждая стрелка сразу несёт то, что отправляется на HUD (как updateArrow в GoogleMaps_HUD):
+ * угол, тип (кольцо, флаг финиша, съезд) и угол выезда с кольца.
+ * Простые стрелки без полосы (ArrowOnly), как и раньше в GHUD-Lite.
  */
-enum class ArrowDirection(val value: Long, val hudCode: Int) {
-    STRAIGHT(1157442765411848192L, 0),
-    LEFT(4665941148185659392L, 1),
-    EASY_LEFT(4629771062305364992L, 2),
-    EASY_RIGHT(289360692026306560L, 3),
-    KEEP_LEFT(1157442799634484224L, 4),
-    KEEP_RIGHT(1157442903121879040L, 5),
-    RIGHT(289360692970790912L, 6),
-    SHARP_LEFT(4629771114118135808L, 7),
-    SHARP_RIGHT(289361105548739584L, 8),
-    NONE(0L, 0);
+enum class ArrowDirection(
+    val angle: eOutAngle,
+    val type: eOutType = eOutType.ArrowOnly,
+    val outAngle: eOutAngle = eOutAngle.AsDirection
+) {
+    ARRIVALS(eOutAngle.Straight, eOutType.RightFlag),
+    ARRIVALS_LEFT(eOutAngle.Left, eOutType.RightFlag),
+    ARRIVALS_RIGHT(eOutAngle.Right, eOutType.RightFlag),
+    CONVERGENCE(eOutAngle.AsDirection),
+    EASY_LEFT(eOutAngle.EasyLeft),
+    EASY_RIGHT(eOutAngle.EasyRight),
+    GO_TO(eOutAngle.Straight),
+    KEEP_LEFT(eOutAngle.EasyLeft),
+    KEEP_RIGHT(eOutAngle.EasyRight),
+    LEAVE_ROUNDABOUT(eOutAngle.Left, eOutType.LeftRoundabout, eOutAngle.Left),
+    LEAVE_ROUNDABOUT_AS_U_TURN(eOutAngle.Down, eOutType.LeftRoundabout, eOutAngle.Down),
+    LEAVE_ROUNDABOUT_AS_U_TURN_CC(eOutAngle.Down, eOutType.RightRoundabout, eOutAngle.Down),
+    LEAVE_ROUNDABOUT_CC(eOutAngle.Right, eOutType.RightRoundabout, eOutAngle.Right),
+    LEAVE_ROUNDABOUT_EASY_LEFT(eOutAngle.EasyLeft, eOutType.LeftRoundabout, eOutAngle.EasyLeft),
+    LEAVE_ROUNDABOUT_EASY_LEFT_CC(eOutAngle.EasyLeft, eOutType.RightRoundabout, eOutAngle.EasyLeft),
+    LEAVE_ROUNDABOUT_EASY_RIGHT(eOutAngle.EasyRight, eOutType.LeftRoundabout, eOutAngle.EasyRight),
+    LEAVE_ROUNDABOUT_EASY_RIGHT_CC(eOutAngle.EasyRight, eOutType.RightRoundabout, eOutAngle.EasyRight),
+    LEAVE_ROUNDABOUT_LEFT(eOutAngle.Left, eOutType.LeftRoundabout, eOutAngle.Left),
+    LEAVE_ROUNDABOUT_LEFT_CC(eOutAngle.Left, eOutType.RightRoundabout, eOutAngle.Left),
+    LEAVE_ROUNDABOUT_RIGHT(eOutAngle.Right, eOutType.LeftRoundabout, eOutAngle.Right),
+    LEAVE_ROUNDABOUT_RIGHT_CC(eOutAngle.Right, eOutType.RightRoundabout, eOutAngle.Right),
+    LEAVE_ROUNDABOUT_SHARP_LEFT(eOutAngle.SharpLeft, eOutType.LeftRoundabout, eOutAngle.SharpLeft),
+    LEAVE_ROUNDABOUT_SHARP_LEFT_CC(eOutAngle.SharpLeft, eOutType.RightRoundabout, eOutAngle.SharpLeft),
+    LEAVE_ROUNDABOUT_SHARP_RIGHT(eOutAngle.SharpRight, eOutType.LeftRoundabout, eOutAngle.SharpRight),
+    LEAVE_ROUNDABOUT_SHARP_RIGHT_CC(eOutAngle.SharpRight, eOutType.RightRoundabout, eOutAngle.SharpRight),
+    LEAVE_ROUNDABOUT_STRAIGHT(eOutAngle.Straight, eOutType.LeftRoundabout, eOutAngle.Straight),
+    LEAVE_ROUNDABOUT_STRAIGHT_CC(eOutAngle.Straight, eOutType.RightRoundabout, eOutAngle.Straight),
+    LEFT(eOutAngle.Left),
+    LEFT_DOWN(eOutAngle.LeftDown),
+    LEFT_TO_LEAVE(eOutAngle.EasyLeft, eOutType.LongerLane),
+    RIGHT(eOutAngle.Right),
+    RIGHT_DOWN(eOutAngle.RightDown),
+    RIGHT_TO_LEAVE(eOutAngle.EasyRight, eOutType.LongerLane),
+    SHARP_LEFT(eOutAngle.SharpLeft),
+    SHARP_RIGHT(eOutAngle.SharpRight),
+    STRAIGHT(eOutAngle.Straight),
+    NONE(eOutAngle.AsDirection);
     
     companion object {
         private const val TAG = "ArrowDirection"
         private const val MAX_SAD_THRESHOLD = 10 // Максимальная допустимая разница
         
+        // Таблицы Arrow и ArrowV2 подряд: сначала точное совпадение (двоичный поиск), потом popcount
+        private val index = ArrowIndex(ArrowIndex.concat(Arrow.VALUES_LEFT, ArrowV2.VALUES_LEFT))
+        
+        // Индекс в таблице -> стрелка, по имени константы (LeaveRoundaboutCC -> LEAVE_ROUNDABOUT_CC)
+        private val byTableIndex: Array<ArrowDirection> =
+            (Arrow.values().map { it.name } + ArrowV2.values().map { it.name }).map { fromName(it) }.toTypedArray()
+        
+        fun fromName(name: String): ArrowDirection {
+            val key = name.uppercase()
+            return values().firstOrNull { it.name.replace("_", "") == key } ?: NONE
+        }
+        
         fun recognize(arrowImage: ArrowImage): ArrowDirection {
             val hash = arrowImage.getArrowValue()
-            var bestMatch = NONE
-            var minSAD = Int.MAX_VALUE
-            
-            for (arrow in values()) {
-                if (arrow == NONE) continue
-                
-                val sad = arrowImage.getSAD(arrow.value)
-                if (sad < minSAD) {
-                    minSAD = sad
-                    bestMatch = arrow
-                }
-            }
+            val result = index.match(hash)
+            val sad = ArrowMatcher.getSAD(result)
+            val bestMatch = byTableIndex[ArrowMatcher.getIndex(result)]
             
-            return if (minSAD <= MAX_SAD_THRESHOLD) {
-                Log.d(TAG, "Recognized: $bestMatch (SAD=$minSAD, hash=$hash)")
+            return if (sad <= MAX_SAD_THRESHOLD && bestMatch != NONE) {
+                Log.d(TAG, "Recognized: $bestMatch (SAD=$sad, hash=$hash)")
                 bestMatch
             } else {
-                Log.w(TAG, "No match found (minSAD=$minSAD, hash=$hash)")
+                Log.w(TAG, "No match found (minSAD=$sad, hash=$hash)")
                 NONE
             }
         }
@@ -0,0 +1,124 @@
+package iMel9i.garminhud.lite
+
+import android.graphics.Bitmap
+import android.graphics.ColorSpace
+import android.graphics.HardwareRenderer
+import android.graphics.PixelFormat
+import android.graphics.Rect
+import android.graphics.RenderNode
+import android.hardware.HardwareBuffer
+import android.media.Image
+import android.media.ImageReader
+import android.os.Build
+import androidx.annotation.RequiresApi
+import java.nio.ByteBuffer
+
+/**
+ * Копирует из скриншота (HardwareBuffer) в память только прямоугольник стрелки.
+ *
+ * Bitmap.createBitmap(hardwareBitmap, x, y, w, h) читает из GPU весь экран, обрезает его
+ * и загружает результат обратно в GPU, а getPixels у HARDWARE битмапа не работает вовсе.
+ * Здесь GPU рисует нужный кусок экрана в ImageReader размером со стрелку, и в память
+ * читаются только эти ~100x100 пикселей.
+ *
+ * ImageReader, рендерер и битмап результата живут между кадрами и пересоздаются только
+ * когда меняется размер прямоугольника. Не потокобезопасен: вызывать с одного потока.
+ */
+@RequiresApi(Build.VERSION_CODES.Q)
+class ArrowRoiCapture : AutoCloseable {
+
+    companion object {
+        private const val BYTES_PER_PIXEL = 4 // RGBA_8888
+    }
+
+    private val node = RenderNode("ArrowRoi")
+    private val renderer = HardwareRenderer().apply { setContentRoot(node) }
+    private var reader: ImageReader? = null
+    private var bitmap: Bitmap? = null
+    // Строки плоскости без выравнивания, если rowStride больше ширины
+    private var scratch: ByteBuffer? = null
+
+    /**
+     * @param rect прямоугольник стрелки в координатах экрана, обрезается по границам скриншота
+     * @return программный ARGB_8888 битмап с пикселями стрелки. Тот же объект возвращается
+     * и в следующий раз (при том же размере), поэтому содержимое действительно до следующего
+     * вызова. null, если прямоугольник вне экрана или кадр не получен.
+     */
+    fun copy(buffer: HardwareBuffer, colorSpace: ColorSpace?, rect: Rect): Bitmap? {
+        val left = rect.left.coerceAtLeast(0)
+        val top = rect.top.coerceAtLeast(0)
+        val width = rect.right.coerceAtMost(buffer.width) - left
+        val height = rect.bottom.coerceAtMost(buffer.height) - top
+        if (width <= 0 || height <= 0) return null
+
+        // Обёртка без копирования, пиксели остаются в GPU
+        val screen = Bitmap.wrapHardwareBuffer(buffer, colorSpace) ?: return null
+        try {
+            val reader = obtainReader(width, height)
+            node.setPosition(0, 0, width, height)
+            val canvas = node.beginRecording()
+            try {
+                canvas.drawBitmap(screen, -left.toFloat(), -top.toFloat(), null)
+            } finally {
+                node.endRecording()
+            }
+            renderer.createRenderRequest().setWaitForPresent(true).syncAndDraw()
+            node.discardDisplayList()
+
+            val image = reader.acquireLatestImage() ?: return null
+            image.use { return readPixels(it, width, height) }
+        } finally {
+            screen.recycle()
+        }
+    }
+
+    private fun obtainReader(width: Int, height: Int): ImageReader {
+        reader?.let { if (it.width == width && it.height == height) return it }
+        reader?.close()
+        val created = ImageReader.newInstance(
+            width, height, PixelFormat.RGBA_8888, 2,
+            HardwareBuffer.USAGE_CPU_READ_OFTEN or HardwareBuffer.USAGE_GPU_COLOR_OUTPUT
+        )
+        renderer.setSurface(created.surface)
+        reader = created
+        return created
+    }
+
+    private fun readPixels(image: Image, width: Int, height: Int): Bitmap {
+        val plane = image.planes[0]
+        val source = plane.buffer
+        val rowStride = plane.rowStride
+        val rowBytes = width * BYTES_PER_PIXEL
+
+        val out = bitmap?.takeIf { it.width == width && it.height == height }
+            ?: Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888).also { bitmap = it }
+
+        if (rowStride == rowBytes) {
+            out.copyPixelsFromBuffer(source)
+        } else {
+            val size = rowBytes * height
+            val tight = scratch?.takeIf { it.capacity() >= size }
+                ?: ByteBuffer.allocateDirect(size).also { scratch = it }
+            tight.clear()
+            for (y in 0 until height) {
+                val start = y * rowStride
+                source.limit(start + rowBytes)
+                source.position(start)
+                tight.put(source)
+            }
+            tight.flip()
+            out.copyPixelsFromBuffer(tight)
+        }
+        return out
+    }
+
+    override fun close() {
+        renderer.destroy()
+        node.discardDisplayList()
+        reader?.close()
+        reader = null
+        // Битмап не освобождаем: он может ещё показываться в DebugActivity
+        bitmap = null
+        scratch = null
+    }
+}
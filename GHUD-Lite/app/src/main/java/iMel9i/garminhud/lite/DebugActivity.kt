@@ -101,11 +101,16 @@ class DebugActivity : AppCompatActivity() {
         findViewById<TextView>(R.id.hudSpeedingIcon).text = "Speeding Icon: ${if (HudState.isSpeeding) "ON" else "OFF"}"
         findViewById<TextView>(R.id.hudCameraIcon).text = "Camera Icon: ${if (HudState.cameraDistance != null) "ON" else "OFF"}"
         
-        val arrowInfo = if (HudState.turnIcon != null) "Code ${HudState.turnIcon}" else "none"
+        val arrowInfo = HudState.turnIcon?.let { "${it.name} (angle ${it.angle}, ${it.type})" } ?: "none"
         findViewById<TextView>(R.id.hudDirection).text = "Direction: $arrowInfo"
         findViewById<TextView>(R.id.hudDistance).text = "Distance: ${HudState.distanceToTurnMeters?.let { "${it}m" } ?: "none"}"
         findViewById<TextView>(R.id.hudLastCommand).text = "Navigation: ${if (HudState.isNavigating) "ACTIVE" else "IDLE"}"
-        findViewById<TextView>(R.id.hudUpdateTime).text = "Last Update: ${HudService.hudDebug.lastUpdateTime}"
+        findViewById<TextView>(R.id.hudUpdateTime).text = "Last Update: ${HudService.hudDebug.lastUpdateTime} (unchanged frames skipped: ${HudService.hudDebug.skippedFrames}, " +
+                "BT writes: ${"%.1f".format(HudService.hudDebug.flushesPerSecond)}/s, ${"%.1f".format(HudService.hudDebug.bytesPerFlush)} B/write, " +
+                "queue: ${HudService.hudDebug.writeQueueDepth}, dropped: ${HudService.hudDebug.droppedWrites}, " +
+                "latency p50/p95: ${HudService.hudDebug.writeLatencyP50Ms}/${HudService.hudDebug.writeLatencyP95Ms} ms, " +
+                "received: ${HudService.hudDebug.receivedFrames}, bad crc: ${HudService.hudDebug.receivedChecksumErrors}, " +
+                "reconnect: ${HudService.hudDebug.reconnectMs} ms, first frame: ${HudService.hudDebug.timeToFirstFrameMs} ms)"
         
         // Logs
         val logs = DebugLog.getAll()
@@ -118,19 +123,20 @@ class DebugActivity : AppCompatActivity() {
         
         // Maneuver Details
         val turnIcon = HudState.turnIcon
-        findViewById<TextView>(R.id.maneuverDirection).text = "Direction Code: ${turnIcon ?: "none"}"
-        findViewById<TextView>(R.id.maneuverDirectionName).text = "Direction Name: ${turnIcon ?: "none"}" // Simplified
+        findViewById<TextView>(R.id.maneuverDirection).text = "Direction Code: ${turnIcon?.let { "${it.angle}/${it.type}/${it.outAngle}" } ?: "none"}"
+        findViewById<TextView>(R.id.maneuverDirectionName).text = "Direction Name: ${turnIcon?.name ?: "none"}"
         findViewById<TextView>(R.id.maneuverDistanceMeters).text = "Distance (meters): ${HudState.distanceToTurnMeters ?: "none"}"
         findViewById<TextView>(R.id.maneuverDistanceFormatted).text = "Distance (formatted): ${HudState.distanceToTurn ?: "none"}"
         findViewById<TextView>(R.id.maneuverInstructionText).text = "Instruction: ${HudService.navDebug.parsedInstruction}"
         
         // Arrow Status
-        findViewById<TextView>(R.id.maneuverArrowHash).text = "Arrow Status: ${HudService.navDebug.arrowStatus}"
+        findViewById<TextView>(R.id.maneuverArrowHash).text = "Arrow Status: ${HudService.navDebug.arrowStatus} " +
+                "(copy: ${HudService.navDebug.arrowCopyMs} ms, capture -> recognized: ${HudService.navDebug.arrowLatencyMs} ms)"
         
         val arrowBitmapForHash = HudService.navDebug.lastArrowBitmap
         if (arrowBitmapForHash != null) {
              try {
-                val arrowImage = ArrowImage(arrowBitmapForHash.copy(android.graphics.Bitmap.Config.ARGB_8888, true))
+                val arrowImage = ArrowImage(arrowBitmapForHash)
                 val hash = arrowImage.getArrowValue()
                 val recognized = ArrowDirection.recognize(arrowImage)
                 findViewById<TextView>(R.id.maneuverArrowRecognized).text = "Recognized: ${if (recognized != ArrowDirection.NONE) recognized.name else "NO"} ($hash)"
@@ -147,9 +153,10 @@ class DebugActivity : AppCompatActivity() {
     private fun updateVirtualHud() {
         val vDirection = findViewById<TextView>(R.id.vHudDirection)
         if (HudState.isNavigating && HudState.turnIcon != null) {
-             vDirection.text = when (HudState.turnIcon) {
-                1 -> "↰"
-                6 -> "↱"
+             vDirection.text = when (HudState.turnIcon!!.angle) {
+                eOutAngle.Left, eOutAngle.EasyLeft, eOutAngle.SharpLeft, eOutAngle.LeftDown -> "↰"
+                eOutAngle.Right, eOutAngle.EasyRight, eOutAngle.SharpRight, eOutAngle.RightDown -> "↱"
+                eOutAngle.Down -> "↶"
                 else -> "↑"
             }
             vDirection.setTextColor(android.graphics.Color.GREEN)
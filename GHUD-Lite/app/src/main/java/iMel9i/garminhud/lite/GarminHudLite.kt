@@ -9,6 +9,9 @@ import android.widget.Toast
 import app.akexorcist.bluetotohspp.library.BluetoothSPP
 import app.akexorcist.bluetotohspp.library.BluetoothState
 import app.akexorcist.bluetotohspp.library.DeviceList
+import sky4s.garminhud.protocol.GarminProtocol
+import sky4s.garminhud.protocol.GarminShadowState
+import sky4s.garminhud.protocol.HudTransport
 
 /**
  * Упрощенная реализация протокола Garmin HUD для тестирования
@@ -17,11 +20,29 @@ class GarminHudLite(private val context: Context) {
     
     companion object {
         private const val TAG = "GarminHudLite"
-        private const val DEBUG = true
+        // Шестнадцатеричный дамп каждого кадра, только если включён:
+        // adb shell setprop log.tag.GarminHudLite DEBUG
+        private fun isFrameLogEnabled() = Log.isLoggable(TAG, Log.DEBUG)
+        private val HEX_DIGITS = "0123456789ABCDEF".toCharArray()
+
+        private fun toHex(packet: ByteArray, offset: Int, length: Int): String {
+            val hex = StringBuilder(length * 3)
+            for (i in offset until offset + length) {
+                if (i > offset) hex.append(' ')
+                val b = packet[i].toInt() and 0xFF
+                hex.append(HEX_DIGITS[b ushr 4]).append(HEX_DIGITS[b and 0x0F])
+            }
+            return hex.toString()
+        }
         private const val MAX_UPDATES_PER_SECOND = 6
     }
     
     private var bt: BluetoothSPP? = null
+    // Кодирование кадров и отсев повторов живут в модуле garmin-protocol, общем с GoogleMaps_HUD
+    private val protocol = GarminProtocol(HudTransport { frame, offset, length, type ->
+        sendPacket(frame, offset, length, type)
+    })
+    private val shadowState: GarminShadowState = protocol.shadowState
     private var updateCount = 0
     private var lastUpdateClearTime = System.currentTimeMillis()
     private var connected = false
@@ -30,31 +51,47 @@ class GarminHudLite(private val context: Context) {
     
     var onConnectionStateChanged: ((Boolean, String?) -> Unit)? = null
     
+    /**
+     * Через сколько мс повторять неизменную стрелку (HUD стирает её без данных), 0 = не повторять
+     */
+    var arrowKeepAliveMs: Long = GarminShadowState.DEFAULT_ARROW_KEEP_ALIVE_MS
+        set(value) {
+            field = value
+            shadowState.setRefreshInterval(GarminShadowState.CMD_DIRECTION, value)
+        }
+    
+    /** Сколько кадров не отправлено, потому что HUD уже показывает то же самое */
+    val skippedFrameCount: Int
+        get() = shadowState.skippedCount
+    
     init {
         // Не инициализируем Bluetooth сразу, чтобы избежать ошибок разрешений
     }
     
-    private var isConnecting = false
+    // Адрес, который держит autoConnect(), до disconnect()
+    private var autoConnectAddress: String? = null
     
     fun initBluetooth() {
         if (bt != null) return
         
         bt = BluetoothSPP(context)
+        // HUD отвечает кадрами ACK/статуса в формате DLE, а не текстовыми строками
+        bt?.setFraming(BluetoothState.FRAMING_GARMIN)
         
         bt?.setBluetoothConnectionListener(object : BluetoothSPP.BluetoothConnectionListener {
             override fun onDeviceConnected(name: String, address: String) {
                 Log.d(TAG, "Connected: $name ($address)")
                 connected = true
-                isConnecting = false
                 connectedDeviceName = name
                 connectedDeviceAddress = address
+                // HUD включается пустым, всё нужно отправить заново
+                protocol.invalidate()
                 onConnectionStateChanged?.invoke(true, name)
             }
             
             override fun onDeviceDisconnected() {
                 Log.d(TAG, "Disconnected")
                 connected = false
-                isConnecting = false
                 connectedDeviceName = null
                 connectedDeviceAddress = null
                 onConnectionStateChanged?.invoke(false, null)
@@ -63,7 +100,6 @@ class GarminHudLite(private val context: Context) {
             override fun onDeviceConnectionFailed() {
                 Log.d(TAG, "Connection failed")
                 connected = false
-                isConnecting = false
                 connectedDeviceName = null
                 connectedDeviceAddress = null
                 onConnectionStateChanged?.invoke(false, null)
@@ -76,15 +112,19 @@ class GarminHudLite(private val context: Context) {
         }
     }
     
-    fun connectToDevice(address: String) {
-        if (isConnecting || isConnected()) {
-            Log.d(TAG, "Already connecting or connected, ignoring connect request")
-            return
-        }
+    /**
+     * Держать соединение с устройством до disconnect(): первая попытка сразу, после неудач
+     * с экспоненциальной задержкой и случайным разбросом, после обрыва связи снова сразу.
+     * Можно вызывать и при уже установленном соединении, тогда попытки начнутся после обрыва
+     */
+    fun autoConnect(address: String) {
+        if (address == autoConnectAddress) return
         
         initBluetooth()
-        isConnecting = true
-        bt?.connect(address)
+        // autoConnect() игнорируется, пока активен предыдущий
+        bt?.stopAutoConnect()
+        bt?.autoConnect(null, address)
+        autoConnectAddress = address
     }
     
     fun scanForDevice() {
@@ -123,12 +163,60 @@ class GarminHudLite(private val context: Context) {
     
     fun disconnect() {
         bt?.stopAutoConnect()
+        autoConnectAddress = null
         bt?.stopService()
+        protocol.invalidate()
         connected = false
     }
     
     fun isConnected(): Boolean = connected
     
+    /**
+     * Кадры, отправленные до endBatch(), уходят в HUD одной записью в сокет
+     */
+    fun beginBatch() {
+        bt?.beginBatch()
+    }
+    
+    fun endBatch() {
+        bt?.endBatch()
+    }
+    
+    /** Средний размер одной записи в сокет, байт */
+    val bytesPerFlush: Float
+        get() = bt?.batchBytesPerFlush ?: 0f
+    
+    /** Записей в сокет в секунду */
+    val flushesPerSecond: Float
+        get() = bt?.batchFlushesPerSecond ?: 0f
+    
+    /** Кадров в очереди записи */
+    val writeQueueDepth: Int
+        get() = bt?.writeQueueDepth ?: 0
+    
+    /** Кадров отброшено очередью записи (переполнение или более новый кадр той же команды) */
+    val droppedWriteCount: Long
+        get() = bt?.droppedWriteCount ?: 0L
+    
+    /** Задержка от send() до записи в сокет, мс */
+    fun writeLatencyPercentile(percentile: Int): Long = bt?.getWriteLatencyPercentile(percentile) ?: 0L
+    
+    /** Время от обрыва связи до повторного подключения, мс */
+    val reconnectMs: Long
+        get() = bt?.reconnectMillis ?: 0L
+    
+    /** Время от обрыва связи (или первой попытки) до первого кадра по новому соединению, мс */
+    val timeToFirstFrameMs: Long
+        get() = bt?.timeToFirstFrameMillis ?: 0L
+    
+    /** Кадров получено от HUD (ACK/статус) */
+    val receivedFrameCount: Long
+        get() = bt?.receivedFrameCount ?: 0L
+    
+    /** Кадров от HUD с неверной контрольной суммой */
+    val receivedChecksumErrorCount: Long
+        get() = bt?.receivedChecksumErrorCount ?: 0L
+    
     fun getConnectedDeviceName(): String? = connectedDeviceName
     fun getConnectedDeviceAddress(): String? = connectedDeviceAddress
     
@@ -144,91 +232,32 @@ class GarminHudLite(private val context: Context) {
         return updateCount < MAX_UPDATES_PER_SECOND
     }
     
-    private fun toDigit(n: Int): Char {
-        val digit = n % 10
-        return if (digit == 0) 10.toChar() else digit.toChar()
-    }
-    
-    private fun sendPacket(pBuf: CharArray): Boolean {
+    /**
+     * @param type id команды Garmin: ещё не отправленный кадр той же команды отбрасывается
+     */
+    private fun sendPacket(packet: ByteArray, offset: Int, length: Int, type: Int): Boolean {
         if (!isUpdatable() || bt?.isServiceAvailable != true) {
             return false
         }
         
         updateCount++
         
-        val packet = ByteArray(pBuf.size) { pBuf[it].code.toByte() }
-        
-        if (DEBUG) {
-            Log.d(TAG, "Sending packet: ${packet.joinToString(" ") { "%02X".format(it) }}")
+        if (isFrameLogEnabled()) {
+            Log.d(TAG, "Sending packet: ${toHex(packet, offset, length)}")
         }
         
-        bt?.send(packet, false)
+        // BluetoothSPP копирует кадр в очередь записи, поэтому буфер можно переиспользовать сразу после send()
+        bt?.send(packet, offset, length, type)
         return true
     }
     
-    private fun sendToHud(pBuf: CharArray) {
-        val sendBuf = CharArray(255)
-        var len = 0
-        var stuffingCount = 0
-        
-        // Header
-        sendBuf[len++] = 0x10.toChar()
-        sendBuf[len++] = 0x7b.toChar()
-        sendBuf[len++] = (pBuf.size + 6).toChar()
-        
-        if (pBuf.size == 0x0a) {
-            sendBuf[len++] = 0x10.toChar()
-            stuffingCount++
-        }
-        
-        sendBuf[len++] = pBuf.size.toChar()
-        sendBuf[len++] = 0x00.toChar()
-        sendBuf[len++] = 0x00.toChar()
-        sendBuf[len++] = 0x00.toChar()
-        sendBuf[len++] = 0x55.toChar()
-        sendBuf[len++] = 0x15.toChar()
-        
-        // Data with byte stuffing
-        for (c in pBuf) {
-            sendBuf[len++] = c
-            if (c.code == 0x10) {
-                sendBuf[len++] = 0x10.toChar()
-                stuffingCount++
-            }
-        }
-        
-        // CRC
-        var nCrc = 0
-        for (i in 1 until len) {
-            nCrc += sendBuf[i].code
-        }
-        nCrc -= stuffingCount * 0x10
-        
-        sendBuf[len++] = ((-nCrc) and 0xff).toChar()
-        sendBuf[len++] = 0x10.toChar()
-        sendBuf[len++] = 0x03.toChar()
-        
-        sendPacket(sendBuf.copyOf(len))
-    }
-    
     // ========== Команды HUD ==========
     
     /**
      * Установить время
      */
     fun setTime(hour: Int, minute: Int) {
-        val arr = charArrayOf(
-            0x05.toChar(),              // Command: Time
-            0x00.toChar(),              // Traffic flag
-            toDigit(hour / 10),         // Hour tens
-            toDigit(hour),              // Hour ones
-            0xff.toChar(),              // Colon
-            toDigit(minute / 10),       // Minute tens
-            toDigit(minute),            // Minute ones
-            0x00.toChar(),              // 'h' suffix
-            0x00.toChar()               // Flag
-        )
-        sendToHud(arr)
+        protocol.setTime(hour, minute, false, false, true, false)
     }
     
     /**
@@ -237,36 +266,21 @@ class GarminHudLite(private val context: Context) {
      *               0x08=EasyRight, 0x04=Right, 0x02=SharpRight
      */
     fun setDirection(angle: Int) {
-        val arr = charArrayOf(
-            0x01.toChar(),  // Command: Direction
-            0x80.toChar(),  // Type: ArrowOnly
-            0x00.toChar(),  // Roundabout (unused)
-            angle.toChar()  // Direction angle
-        )
-        sendToHud(arr)
+        protocol.setDirection(angle, GarminProtocol.TYPE_ARROW_ONLY, GarminProtocol.ANGLE_AS_DIRECTION)
+    }
+    
+    /**
+     * Установить стрелку распознанного манёвра: угол, тип (кольцо, финиш, съезд) и выезд с кольца
+     */
+    fun setDirection(direction: ArrowDirection) {
+        protocol.setDirection(direction.angle.value, direction.type.value, direction.outAngle.value)
     }
     
     /**
      * Установить скорость
      */
     fun setSpeed(speed: Int, showIcon: Boolean = true) {
-        val hundredsDigit = if (speed < 10) 0.toChar() else ((speed / 100) % 10).toChar()
-        val tensDigit = if (speed < 10) 0.toChar() else toDigit(speed / 10)
-        val onesDigit = toDigit(speed)
-        
-        val arr = charArrayOf(
-            0x06.toChar(),      // Command: Speed
-            0x00.toChar(),      // Speed hundreds
-            0x00.toChar(),      // Speed tens
-            0x00.toChar(),      // Speed ones
-            0x00.toChar(),      // Slash
-            hundredsDigit,      // Limit hundreds
-            tensDigit,          // Limit tens
-            onesDigit,          // Limit ones
-            0x00.toChar(),      // Speeding
-            if (showIcon) 0xff.toChar() else 0x00.toChar()  // Icon
-        )
-        sendToHud(arr)
+        protocol.setSpeed(speed, showIcon)
     }
     
     /**
@@ -276,59 +290,20 @@ class GarminHudLite(private val context: Context) {
      * @param showSpeedingIcon показывать ли иконку превышения скорости
      */
     fun setSpeedWithLimit(currentSpeed: Int, speedLimit: Int?, showSpeedingIcon: Boolean = false, showCameraIcon: Boolean = false) {
-        val speedHundreds = ((currentSpeed / 100) % 10).toChar()
-        val speedTens = if (currentSpeed < 10) 0.toChar() else toDigit(currentSpeed / 10)
-        val speedOnes = toDigit(currentSpeed)
-        
-        val limitHundreds: Char
-        val limitTens: Char
-        val limitOnes: Char
-        val showSlash: Boolean
-        
-        if (speedLimit != null && speedLimit > 0) {
-            limitHundreds = ((speedLimit / 100) % 10).toChar()
-            limitTens = if (speedLimit < 10) 0.toChar() else toDigit(speedLimit / 10)
-            limitOnes = toDigit(speedLimit)
-            showSlash = true
-        } else {
-            limitHundreds = 0.toChar()
-            limitTens = 0.toChar()
-            limitOnes = 0.toChar()
-            showSlash = false
-        }
-        
-        val arr = charArrayOf(
-            0x06.toChar(),      // Command: Speed
-            speedHundreds,      // Current speed hundreds
-            speedTens,          // Current speed tens
-            speedOnes,          // Current speed ones
-            if (showSlash) 0xff.toChar() else 0x00.toChar(),  // Slash separator
-            limitHundreds,      // Limit hundreds
-            limitTens,          // Limit tens
-            limitOnes,          // Limit ones
-            if (showSpeedingIcon) 0xff.toChar() else 0x00.toChar(),  // Speeding warning icon
-            if (showCameraIcon) 0xff.toChar() else 0x00.toChar()     // Camera icon
-        )
-        sendToHud(arr)
+        protocol.setSpeedAndLimit(currentSpeed, speedLimit ?: 0, showSpeedingIcon, showCameraIcon)
     }
     
-    /**
-     * Установить расстояние
-     */
     /**
      * Установить расстояние (целое число)
      */
     fun setDistance(distance: Int, unit: Int = 1) {
-        val arr = charArrayOf(
-            0x03.toChar(),              // Command: Distance
-            toDigit(distance / 1000),   // Thousands
-            toDigit(distance / 100),    // Hundreds
-            toDigit(distance / 10),     // Tens
-            0x00.toChar(),              // Decimal point (OFF)
-            toDigit(distance),          // Ones
-            unit.toChar()               // Unit (1=km, 2=m)
-        )
-        sendToHud(arr)
+        protocol.setDistanceDigits(
+            GarminProtocol.toDigit(distance / 1000),    // Thousands
+            GarminProtocol.toDigit(distance / 100),     // Hundreds
+            GarminProtocol.toDigit(distance / 10),      // Tens
+            false,                                      // Decimal point (OFF)
+            GarminProtocol.toDigit(distance),           // Ones
+            unit)                                       // Unit
     }
 
     /**
@@ -339,91 +314,56 @@ class GarminHudLite(private val context: Context) {
         // Форматируем число, чтобы оно влезло в 4 цифры с точкой перед последней
         // Формат HUD: [D1][D2][D3].[D4]
         
-        val d1: Char
-        val d2: Char
-        val d3: Char
-        val d4: Char
-        val decimalPoint: Char
+        val d1: Int
+        val d2: Int
+        val d3: Int
+        val d4: Int
+        val decimalPoint: Boolean
         
-        if (distance >= 1000) {
-            // Если больше 1000, показываем как целое (1234)
+        // Больше 999.9 не влезает в формат XXX.Y, показываем как целое (1234)
+        if ((distance * 10).toInt() >= 10000) {
             val i = distance.toInt()
-            d1 = toDigit(i / 1000)
-            d2 = toDigit(i / 100)
-            d3 = toDigit(i / 10)
-            d4 = toDigit(i)
-            decimalPoint = 0x00.toChar()
+            d1 = GarminProtocol.toDigit(i / 1000)
+            d2 = GarminProtocol.toDigit(i / 100)
+            d3 = GarminProtocol.toDigit(i / 10)
+            d4 = GarminProtocol.toDigit(i)
+            decimalPoint = false
         } else {
-            // Если меньше 1000, пробуем показать с десятичной частью
-            // Нам нужно число вида XXX.Y
-            // Умножаем на 10, чтобы получить целые цифры
+            // Формат XXX.Y
+            // 1.2 -> 12 -> 001.2
+            // 12.5 -> 125 -> 012.5
+            // 123.4 -> 1234 -> 123.4
             val val10 = (distance * 10).toInt()
+            val thousands = val10 / 1000
+            val hundreds = (val10 / 100) % 10
+            val tens = (val10 / 10) % 10
+            val ones = val10 % 10
             
-            if (val10 >= 10000) {
-                // Слишком большое для формата XXX.Y (>= 1000.0), показываем как целое
-                val i = distance.toInt()
-                d1 = toDigit(i / 1000)
-                d2 = toDigit(i / 100)
-                d3 = toDigit(i / 10)
-                d4 = toDigit(i)
-                decimalPoint = 0x00.toChar()
-            } else {
-                // Формат XXX.Y
-                // 1.2 -> 12 -> 001.2
-                // 12.5 -> 125 -> 012.5
-                // 123.4 -> 1234 -> 123.4
-                
-                val thousands = val10 / 1000
-                val hundreds = (val10 / 100) % 10
-                val tens = (val10 / 10) % 10
-                val ones = val10 % 10
-                
-                // Используем 0.toChar() для ведущих нулей (пробелов), если число маленькое
-                // Ноль (0) в протоколе это 10 (0x0A)
-                // Пробел (Space) это 0 (0x00)
-                
-                d1 = if (thousands == 0) 0.toChar() else toDigit(thousands)
-                d2 = if (thousands == 0 && hundreds == 0) 0.toChar() else toDigit(hundreds)
-                d3 = toDigit(tens) // Десятки всегда показываем (например 0.5 -> 0.5)
-                d4 = toDigit(ones)
-                decimalPoint = 0xff.toChar() // Decimal point ON
-            }
+            // Используем 0 для ведущих нулей (пробелов), если число маленькое
+            // Ноль (0) в протоколе это 10 (0x0A)
+            // Пробел (Space) это 0 (0x00)
+            
+            d1 = if (thousands == 0) 0 else GarminProtocol.toDigit(thousands)
+            d2 = if (thousands == 0 && hundreds == 0) 0 else GarminProtocol.toDigit(hundreds)
+            d3 = GarminProtocol.toDigit(tens) // Десятки всегда показываем (например 0.5 -> 0.5)
+            d4 = GarminProtocol.toDigit(ones)
+            decimalPoint = true
         }
 
-        val arr = charArrayOf(
-            0x03.toChar(),      // Command: Distance
-            d1,                 // Thousands
-            d2,                 // Hundreds
-            d3,                 // Tens
-            decimalPoint,       // Decimal point
-            d4,                 // Ones
-            unit.toChar()       // Unit
-        )
-        sendToHud(arr)
+        protocol.setDistanceDigits(d1, d2, d3, decimalPoint, d4, unit)
     }
     
     fun clearDistance() {
-        sendToHud(charArrayOf(
-            0x03.toChar(), 0x00.toChar(), 0x00.toChar(), 0x00.toChar(),
-            0x00.toChar(), 0x00.toChar(), 0x00.toChar()
-        ))
+        protocol.clearDistance()
     }
 
     /**
      * Очистить экран
      */
     fun clear() {
-        // Clear direction
-        sendToHud(charArrayOf(0x01.toChar(), 0x00.toChar(), 0x00.toChar(), 0x00.toChar()))
-        
-        // Clear speed
-        sendToHud(charArrayOf(
-            0x06.toChar(), 0x00.toChar(), 0x00.toChar(), 0x00.toChar(), 0x00.toChar(),
-            0x00.toChar(), 0x00.toChar(), 0x00.toChar(), 0x00.toChar(), 0x00.toChar()
-        ))
-        
-        // Clear distance
-        clearDistance()
+        protocol.clearDirection()
+        protocol.clearSpeedAndWarning()
+        protocol.clearDistance()
     }
 
     /**
@@ -431,38 +371,11 @@ class GarminHudLite(private val context: Context) {
      * @param brightness: 0 = Auto, 1-10 = Manual levels
      */
     fun setBrightness(brightness: Int) {
-        // 0x04 = Brightness command
-        // 0x00 = Unused?
-        // 0x00 = Unused?
-        // Level
-        
-        // Note: The exact protocol for brightness might vary. 
-        // Standard observation:
-        // Cmd: 0x04
-        // Data: [0x00, 0x00, Level]
-        // Level: 0x00? for Auto? Or maybe specific bit?
-        // Let's try sending just the level byte.
-        
-        // Based on some reverse engineering:
-        // Packet: 0x04, 0x00, 0x00, Level
-        // Level: 1-10. 
-        // For Auto, it might be a different command or specific value.
-        // Let's assume 0 is Auto for now, but if that fails we might need to investigate.
-        // Actually, often it's just setting it to a value. 
-        // Let's try implementing basic level setting.
-        
-        val level = when {
-            brightness <= 0 -> 0 // Auto? Or min?
-            brightness > 10 -> 10
-            else -> brightness
+        // Яркость - отдельный короткий кадр 0x10 0x0f 0x02 level, авто - своя команда (как в GoogleMaps_HUD)
+        if (brightness <= 0) {
+            protocol.setAutoBrightness()
+        } else {
+            protocol.setBrightness(minOf(brightness, 10))
         }
-        
-        val arr = charArrayOf(
-            0x04.toChar(),
-            0x00.toChar(),
-            0x00.toChar(),
-            level.toChar()
-        )
-        sendToHud(arr)
     }
 }
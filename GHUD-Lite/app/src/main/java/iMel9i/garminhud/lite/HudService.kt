@@ -31,9 +31,11 @@ class HudService : Service(), LocationListener {
         private const val PREFS_NAME = "HudPrefs"
         private const val KEY_DEVICE_ADDRESS = "device_address"
         private const val KEY_DEVICE_NAME = "device_name"
-        private const val RECONNECT_DELAY_MS = 5000L
         private const val ACTION_STOP_SERVICE = "STOP_SERVICE"
         
+        // Период обновления HUD
+        const val UPDATE_INTERVAL_MS = 1000L
+        
         // Debug data for UI
         data class OsmDebugData(
             var lastQuery: String = "",
@@ -54,7 +56,9 @@ class HudService : Service(), LocationListener {
             var parsedDistance: String = "",
             var parsedEta: String = "",
             var lastArrowBitmap: android.graphics.Bitmap? = null,
-            var arrowStatus: String = "Waiting..."
+            var arrowStatus: String = "Waiting...",
+            var arrowCopyMs: Long = 0, // скриншот получен -> пиксели стрелки в памяти
+            var arrowLatencyMs: Long = 0 // запрос скриншота -> стрелка распознана
         )
         
         data class HudDebugData(
@@ -65,7 +69,18 @@ class HudService : Service(), LocationListener {
             var showingCameraIcon: Boolean = false,
             var currentDirection: String = "",
             var currentDistance: String = "",
-            var lastUpdateTime: String = ""
+            var lastUpdateTime: String = "",
+            var skippedFrames: Int = 0,
+            var bytesPerFlush: Float = 0f,
+            var flushesPerSecond: Float = 0f,
+            var writeQueueDepth: Int = 0,
+            var droppedWrites: Long = 0,
+            var writeLatencyP50Ms: Long = 0,
+            var writeLatencyP95Ms: Long = 0,
+            var receivedFrames: Long = 0,
+            var receivedChecksumErrors: Long = 0,
+            var reconnectMs: Long = 0,
+            var timeToFirstFrameMs: Long = 0
         )
         
         val osmDebug = OsmDebugData()
@@ -78,17 +93,10 @@ class HudService : Service(), LocationListener {
     private var currentSpeed: Float = 0f
     private val timeFormat = SimpleDateFormat("HH:mm", Locale.getDefault())
     private var updateTimer: Timer? = null
-    private val reconnectHandler = android.os.Handler(android.os.Looper.getMainLooper())
     private var isServiceRunning = false
     private var isNavigating = false
     private var currentNavigationData: NavigationNotificationListener.NavigationData? = null
     
-    private val reconnectRunnable = Runnable {
-        if (isServiceRunning && !hud.isConnected()) {
-            autoConnectToSavedDevice()
-        }
-    }
-    
     override fun onCreate() {
         super.onCreate()
         Log.d(TAG, "Service created")
@@ -143,9 +151,8 @@ class HudService : Service(), LocationListener {
             if (connected) {
                 updateNotification("Подключено: $deviceName")
                 saveDeviceInfo(hud.getConnectedDeviceName(), hud.getConnectedDeviceAddress())
-                
-                // Stop any pending reconnection attempts
-                reconnectHandler.removeCallbacks(reconnectRunnable)
+                // HUD, выбранный через scanForDevice, тоже переподключается после обрыва
+                hud.getConnectedDeviceAddress()?.let { hud.autoConnect(it) }
                 
                 // Immediately start updates
                 startUpdates()
@@ -157,12 +164,7 @@ class HudService : Service(), LocationListener {
             } else {
                 updateNotification("Отключено. Попытка подключения...")
                 stopUpdates()
-                
-                // Start reconnection loop if service is still running
-                if (isServiceRunning) {
-                    reconnectHandler.removeCallbacks(reconnectRunnable) // Ensure we don't have multiple callbacks
-                    reconnectHandler.postDelayed(reconnectRunnable, RECONNECT_DELAY_MS)
-                }
+                // Повторные попытки делает BluetoothSPP (см. GarminHudLite.autoConnect)
             }
         }
         
@@ -221,7 +223,7 @@ class HudService : Service(), LocationListener {
         
         if (deviceAddress != null) {
             Log.d(TAG, "Connecting to saved device: $deviceName ($deviceAddress)")
-            hud.connectToDevice(deviceAddress)
+            hud.autoConnect(deviceAddress)
         } else {
             updateNotification("Нет сохраненного устройства")
         }
@@ -244,7 +246,7 @@ class HudService : Service(), LocationListener {
             override fun run() {
                 updateHud()
             }
-        }, 0, 1000) // Update every second
+        }, 0, UPDATE_INTERVAL_MS)
     }
     
     private fun stopUpdates() {
@@ -262,6 +264,16 @@ class HudService : Service(), LocationListener {
     private fun updateHud() {
         if (!hud.isConnected()) return
         
+        // Все команды одного тика уходят одной записью
+        hud.beginBatch()
+        try {
+            updateHudSlots()
+        } finally {
+            hud.endBatch()
+        }
+    }
+    
+    private fun updateHudSlots() {
         val prefs = getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
         val gmapsEnabled = prefs.getBoolean("gmaps_integration", false)
         
@@ -283,7 +295,7 @@ class HudService : Service(), LocationListener {
              if (HudState.isNavigating && HudState.turnIcon != null) {
                  hud.setDirection(HudState.turnIcon!!)
              } else {
-                 hud.setDirection(0) // Clear or Straight?
+                 hud.setDirection(ArrowDirection.NONE)
              }
         }
         
@@ -333,6 +345,17 @@ class HudService : Service(), LocationListener {
         hudDebug.showingSpeedingIcon = speeding
         hudDebug.showingCameraIcon = camera
         hudDebug.lastCommand = "Speed: $speedKmh, Limit: $limit, Speeding: $speeding"
+        hudDebug.skippedFrames = hud.skippedFrameCount
+        hudDebug.bytesPerFlush = hud.bytesPerFlush
+        hudDebug.flushesPerSecond = hud.flushesPerSecond
+        hudDebug.writeQueueDepth = hud.writeQueueDepth
+        hudDebug.droppedWrites = hud.droppedWriteCount
+        hudDebug.writeLatencyP50Ms = hud.writeLatencyPercentile(50)
+        hudDebug.writeLatencyP95Ms = hud.writeLatencyPercentile(95)
+        hudDebug.receivedFrames = hud.receivedFrameCount
+        hudDebug.receivedChecksumErrors = hud.receivedChecksumErrorCount
+        hudDebug.reconnectMs = hud.reconnectMs
+        hudDebug.timeToFirstFrameMs = hud.timeToFirstFrameMs
         hudDebug.lastUpdateTime = SimpleDateFormat("HH:mm:ss", Locale.getDefault()).format(Date())
     }
 
@@ -498,7 +521,6 @@ class HudService : Service(), LocationListener {
         Log.d(TAG, "Service destroyed")
         isServiceRunning = false
         stopUpdates()
-        reconnectHandler.removeCallbacks(reconnectRunnable)
         locationManager.removeUpdates(this)
         NavigationNotificationListener.onNavigationUpdate = null
         hud.disconnect()
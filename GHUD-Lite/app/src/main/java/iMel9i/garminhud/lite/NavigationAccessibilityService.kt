@@ -37,6 +37,12 @@ class NavigationAccessibilityService : AccessibilityService() {
     override fun onDestroy() {
         super.onDestroy()
         instance = null
+        destroyed = true
+        arrowExecutor.execute {
+            arrowCapture?.close()
+            arrowCapture = null
+        }
+        arrowExecutor.shutdown()
         DebugLog.w(TAG, "Service destroyed")
     }
 
@@ -183,7 +189,7 @@ class NavigationAccessibilityService : AccessibilityService() {
         
         recognizedArrow?.let { arrow ->
             if (arrow != ArrowDirection.NONE) {
-                HudState.turnIcon = arrow.hudCode
+                HudState.turnIcon = arrow
                 DebugLog.i(TAG, "Set turn icon: ${arrow.name}")
             }
         }
@@ -193,11 +199,29 @@ class NavigationAccessibilityService : AccessibilityService() {
     
     private var lastToastTime = 0L
     private var lastArrowCheckTime = 0L
-    private val ARROW_CHECK_INTERVAL = 1000L
-    private var isProcessingArrow = false
+    // Каждый тик HUD видит стрелку не старше одного тика; чаще 3 раз в секунду
+    // takeScreenshot не даёт (ERROR_TAKE_SCREENSHOT_INTERVAL_TIME_SHORT)
+    private val ARROW_CHECK_INTERVAL = maxOf(HudService.UPDATE_INTERVAL_MS / 2, 334L)
+    @Volatile private var isProcessingArrow = false
+    // Скриншоты разбираются не на главном потоке, по одному
+    private val arrowExecutor = java.util.concurrent.Executors.newSingleThreadExecutor()
+    // Ответ на takeScreenshot может прийти после onDestroy, когда arrowExecutor уже остановлен:
+    // такой скриншот не нужен, отбрасываем его вместо RejectedExecutionException
+    private val screenshotExecutor = java.util.concurrent.Executor { task ->
+        try {
+            arrowExecutor.execute(task)
+        } catch (e: java.util.concurrent.RejectedExecutionException) {
+            DebugLog.w(TAG, "Screenshot after destroy dropped")
+        }
+    }
+    @Volatile private var destroyed = false
+    private var arrowCapture: ArrowRoiCapture? = null
+    // Копия последней стрелки для navDebug.lastArrowBitmap и её хэш
+    private var debugArrowBitmap: android.graphics.Bitmap? = null
+    private var debugArrowHash = 0L
 
     private fun recognizeArrowFrom(imageNode: AccessibilityNodeInfo): ArrowDirection? {
-        val currentTime = System.currentTimeMillis()
+        val currentTime = android.os.SystemClock.elapsedRealtime()
         if (currentTime - lastArrowCheckTime < ARROW_CHECK_INTERVAL) {
             HudService.navDebug.arrowStatus = "Throttled"
             return null
@@ -228,41 +252,34 @@ class NavigationAccessibilityService : AccessibilityService() {
             if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.R) {
                 takeScreenshot(
                     android.view.Display.DEFAULT_DISPLAY,
-                    mainExecutor,
+                    screenshotExecutor,
                     object : android.accessibilityservice.AccessibilityService.TakeScreenshotCallback {
                         override fun onSuccess(screenshot: android.accessibilityservice.AccessibilityService.ScreenshotResult) {
+                            val hardwareBuffer = screenshot.hardwareBuffer
+                            if (destroyed) {
+                                // arrowCapture уже закрыт в onDestroy
+                                hardwareBuffer.close()
+                                return
+                            }
                             try {
-                                val hardwareBuffer = screenshot.hardwareBuffer
-                                val bitmap = android.graphics.Bitmap.wrapHardwareBuffer(hardwareBuffer, screenshot.colorSpace)
+                                val received = android.os.SystemClock.elapsedRealtime()
+                                val capture = arrowCapture ?: ArrowRoiCapture().also { arrowCapture = it }
+                                // Только прямоугольник стрелки, в переиспользуемый битмап
+                                val arrowBitmap = capture.copy(hardwareBuffer, screenshot.colorSpace, rect)
+                                HudService.navDebug.arrowCopyMs = android.os.SystemClock.elapsedRealtime() - received
                                 
-                                if (bitmap != null) {
-                                    // Crop to arrow bounds
-                                    val left = rect.left.coerceAtLeast(0)
-                                    val top = rect.top.coerceAtLeast(0)
-                                    val width = rect.width().coerceAtMost(bitmap.width - left)
-                                    val height = rect.height().coerceAtMost(bitmap.height - top)
-                                    
-                                    if (width > 0 && height > 0) {
-                                        val cropped = android.graphics.Bitmap.createBitmap(bitmap, left, top, width, height)
-                                        bitmap.recycle()
-                                        hardwareBuffer.close()
-                                        
-                                        processArrowBitmap(cropped)
-                                    } else {
-                                        bitmap.recycle()
-                                        hardwareBuffer.close()
-                                        HudService.navDebug.arrowStatus = "Invalid crop"
-                                        isProcessingArrow = false
-                                    }
+                                if (arrowBitmap != null) {
+                                    processArrowBitmap(arrowBitmap, currentTime)
                                 } else {
-                                    hardwareBuffer.close()
-                                    HudService.navDebug.arrowStatus = "Bitmap null"
+                                    HudService.navDebug.arrowStatus = "Invalid crop"
                                     isProcessingArrow = false
                                 }
                             } catch (e: Exception) {
                                 DebugLog.e(TAG, "Screenshot processing error: ${e.message}")
                                 HudService.navDebug.arrowStatus = "Error: ${e.message}"
                                 isProcessingArrow = false
+                            } finally {
+                                hardwareBuffer.close()
                             }
                         }
 
@@ -286,18 +303,27 @@ class NavigationAccessibilityService : AccessibilityService() {
         return null
     }
     
-    private fun processArrowBitmap(bitmap: android.graphics.Bitmap) {
+    /**
+     * @param requestTime elapsedRealtime запроса скриншота, для задержки в navDebug
+     */
+    private fun processArrowBitmap(bitmap: android.graphics.Bitmap, requestTime: Long) {
         try {
-            HudService.navDebug.lastArrowBitmap?.recycle()
-            HudService.navDebug.lastArrowBitmap = bitmap
-            
             val arrowImg = ArrowImage(bitmap)
             val hash = arrowImg.getArrowValue()
             DebugLog.i(TAG, "Arrow Hash: $hash")
+
+            // Битмап переиспользуется следующим кадром на этом потоке, а DebugActivity рисует
+            // navDebug.lastArrowBitmap на главном: отдаём ей копию, новую только для новой стрелки
+            if (hash != debugArrowHash || HudService.navDebug.lastArrowBitmap !== debugArrowBitmap) {
+                debugArrowBitmap = bitmap.copy(android.graphics.Bitmap.Config.ARGB_8888, false)
+                debugArrowHash = hash
+            }
+            HudService.navDebug.lastArrowBitmap = debugArrowBitmap
             
             val recognized = ArrowDirection.recognize(arrowImg)
+            HudService.navDebug.arrowLatencyMs = android.os.SystemClock.elapsedRealtime() - requestTime
             if (recognized != ArrowDirection.NONE) {
-                HudState.turnIcon = recognized.hudCode
+                HudState.turnIcon = recognized
                 HudService.navDebug.arrowStatus = "Recognized: ${recognized.name} ($hash)"
                 HudState.notifyUpdate()
             } else {
@@ -416,19 +442,19 @@ class NavigationAccessibilityService : AccessibilityService() {
         return DistanceFormatter.parseDistance(distanceText)?.first
     }
 
-    private fun parseTurnDirection(instruction: String): Int {
+    private fun parseTurnDirection(instruction: String): ArrowDirection {
         val instr = instruction.lowercase()
         return when {
-            "sharp left" in instr || "резко налево" in instr -> 7
-            "sharp right" in instr || "резко направо" in instr -> 8
-            "turn left" in instr || "поверните налево" in instr || "налево" in instr -> 1
-            "turn right" in instr || "поверните направо" in instr || "направо" in instr -> 6
-            "keep left" in instr || "левее" in instr || "держаться левее" in instr -> 4
-            "keep right" in instr || "правее" in instr || "держаться правее" in instr -> 5
-            "easy left" in instr || "плавно налево" in instr -> 2
-            "easy right" in instr || "плавно направо" in instr -> 3
-            "straight" in instr || "прямо" in instr -> 0
-            else -> 0
+            "sharp left" in instr || "резко налево" in instr -> ArrowDirection.SHARP_LEFT
+            "sharp right" in instr || "резко направо" in instr -> ArrowDirection.SHARP_RIGHT
+            "turn left" in instr || "поверните налево" in instr || "налево" in instr -> ArrowDirection.LEFT
+            "turn right" in instr || "поверните направо" in instr || "направо" in instr -> ArrowDirection.RIGHT
+            "keep left" in instr || "левее" in instr || "держаться левее" in instr -> ArrowDirection.KEEP_LEFT
+            "keep right" in instr || "правее" in instr || "держаться правее" in instr -> ArrowDirection.KEEP_RIGHT
+            "easy left" in instr || "плавно налево" in instr -> ArrowDirection.EASY_LEFT
+            "easy right" in instr || "плавно направо" in instr -> ArrowDirection.EASY_RIGHT
+            "straight" in instr || "прямо" in instr -> ArrowDirection.STRAIGHT
+            else -> ArrowDirection.NONE
         }
     }
     
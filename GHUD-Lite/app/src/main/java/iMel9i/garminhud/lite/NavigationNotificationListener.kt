@@ -207,7 +207,7 @@ class NavigationNotificationListener : NotificationListenerService() {
             
             val arrow = ArrowDirection.recognize(arrowImage)
             if (arrow != ArrowDirection.NONE) {
-                HudState.turnIcon = arrow.hudCode
+                HudState.turnIcon = arrow
                 HudService.navDebug.arrowStatus = "Recognized: ${arrow.name} ($hash)"
                 Log.d(TAG, "Recognized arrow: $arrow")
             } else {
@@ -220,7 +220,7 @@ class NavigationNotificationListener : NotificationListenerService() {
             if (instruction != null) {
                 val arrow = parseTextToArrow(instruction)
                 if (arrow != ArrowDirection.NONE) {
-                    HudState.turnIcon = arrow.hudCode
+                    HudState.turnIcon = arrow
                     Log.d(TAG, "Parsed arrow from text '$instruction': $arrow")
                 }
             }
@@ -44,6 +44,19 @@ public enum Arrow {
     public final long valueLeft;
     public final long valueRight;
 
+    /**
+     * valueLeft of every constant, in values() order, the table searched by ArrowMatcher
+     */
+    public static final long[] VALUES_LEFT;
+
+    static {
+        final Arrow[] arrows = values();
+        VALUES_LEFT = new long[arrows.length];
+        for (int i = 0; i < arrows.length; i++) {
+            VALUES_LEFT[i] = arrows[i].valueLeft;
+        }
+    }
+
     Arrow(long value) {
         this.valueLeft = value;
         this.valueRight = 0;
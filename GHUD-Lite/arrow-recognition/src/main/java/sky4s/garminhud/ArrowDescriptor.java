@@ -0,0 +1,107 @@
+package sky4s.garminhud;
+
+/**
+ * Shape descriptor of an arrow icon that doesn't depend on its size: a polar histogram of the
+ * white pixels around their centroid.
+ * <p>
+ * Distances are divided by the RMS radius of the white pixels, so the same arrow rendered at
+ * another DPI gives (nearly) the same histogram. The angle is split between the two nearest
+ * sectors, so a slightly rotated or restyled arrow moves weight between neighbouring bins
+ * instead of jumping to another one. It is deliberately not rotation invariant: Left and
+ * Right are the same shape rotated.
+ * <p>
+ * Large icons are sampled on a grid of at most 64 x 64
+ * pixels, which keeps one descriptor in the tens of microseconds.
+ */
+public final class ArrowDescriptor {
+    public static final int RINGS = 4;
+    public static final int SECTORS = 16;
+    public static final int LENGTH = RINGS * SECTORS;
+    /**
+     * sum of all bins of a descriptor, so the L1 distance of two is in [0, 2 * MASS]
+     */
+    public static final int MASS = 1024;
+
+    private static final int SAMPLE_SIZE = 64;
+    // outer edges of the inner rings, in RMS radii; the last ring takes the rest
+    private static final float[] RING_EDGES = {0.5f, 1.0f, 1.5f};
+    private static final int SPLIT = 256;
+
+    private ArrowDescriptor() {
+    }
+
+    /**
+     * @param pixels ARGB, pixel (x, y) at offset + y * stride + x; white as in
+     *               {@link ArrowFingerprint#isWhite(int)}
+     * @param out    at least {@link #LENGTH}
+     * @return false if there is no white pixel, out is all 0 then
+     */
+    public static boolean compute(int[] pixels, int offset, int stride, int width, int height, int[] out) {
+        for (int i = 0; i < LENGTH; i++) {
+            out[i] = 0;
+        }
+        final int step = Math.max(1, Math.max(width, height) / SAMPLE_SIZE);
+
+        // centroid and RMS radius
+        long count = 0;
+        long sumX = 0;
+        long sumY = 0;
+        long sumSquares = 0;
+        for (int y = 0; y < height; y += step) {
+            final int row = offset + y * stride;
+            for (int x = 0; x < width; x += step) {
+                if (ArrowFingerprint.isWhite(pixels[row + x])) {
+                    count++;
+                    sumX += x;
+                    sumY += y;
+                    sumSquares += x * x + y * y;
+                }
+            }
+        }
+        if (0 == count) {
+            return false;
+        }
+        final float cx = sumX / (float) count;
+        final float cy = sumY / (float) count;
+        final float variance = sumSquares / (float) count - cx * cx - cy * cy;
+        final float radius = variance > 0 ? (float) Math.sqrt(variance) : 1;
+
+        final float sectorScale = SECTORS / (float) (2 * Math.PI);
+        for (int y = 0; y < height; y += step) {
+            final int row = offset + y * stride;
+            final float dy = y - cy;
+            for (int x = 0; x < width; x += step) {
+                if (!ArrowFingerprint.isWhite(pixels[row + x])) {
+                    continue;
+                }
+                final float dx = x - cx;
+                final float r = (float) Math.sqrt(dx * dx + dy * dy) / radius;
+                int ring = 0;
+                while (ring < RING_EDGES.length && r >= RING_EDGES[ring]) {
+                    ring++;
+                }
+
+                final float a = (float) (Math.atan2(dy, dx) + Math.PI) * sectorScale;
+                final int floor = (int) a;
+                final int next = (int) ((a - floor) * SPLIT);
+                final int sector = floor % SECTORS;
+                out[ring * SECTORS + sector] += SPLIT - next;
+                out[ring * SECTORS + (sector + 1) % SECTORS] += next;
+            }
+        }
+
+        final long total = count * SPLIT;
+        for (int i = 0; i < LENGTH; i++) {
+            out[i] = (int) (out[i] * (long) MASS / total);
+        }
+        return true;
+    }
+
+    public static int getDistance(int[] a, int[] b) {
+        int distance = 0;
+        for (int i = 0; i < LENGTH; i++) {
+            distance += Math.abs(a[i] - b[i]);
+        }
+        return distance;
+    }
+}
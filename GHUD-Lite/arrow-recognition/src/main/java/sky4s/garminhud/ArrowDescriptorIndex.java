@@ -0,0 +1,58 @@
+package sky4s.garminhud;
+
+/**
+ * Nearest neighbour lookup of {@link ArrowDescriptor}s, built from the reference arrows (the
+ * arrow3 assets) at startup instead of hard coded fingerprints.
+ * <p>
+ * There are a few dozen references of 64 bins each, a linear L1 scan is a couple of thousand
+ * additions, so there is no tree. Not thread safe, keeps scratch state.
+ */
+public final class ArrowDescriptorIndex {
+    private final int[][] mDescriptors;
+    private final int[] mDescriptor = new int[ArrowDescriptor.LENGTH];
+
+    /**
+     * @param referencePixels ARGB of the reference arrows, row by row, any size; references
+     *                        without white pixels are never matched
+     */
+    public ArrowDescriptorIndex(int[][] referencePixels, int[] widths, int[] heights) {
+        mDescriptors = new int[referencePixels.length][];
+        for (int i = 0; i < referencePixels.length; i++) {
+            final int[] descriptor = new int[ArrowDescriptor.LENGTH];
+            if (ArrowDescriptor.compute(referencePixels[i], 0, widths[i], widths[i], heights[i], descriptor)) {
+                mDescriptors[i] = descriptor;
+            }
+        }
+    }
+
+    public int size() {
+        return mDescriptors.length;
+    }
+
+    /**
+     * @param pixels ARGB of the icon, pixel (x, y) at offset + y * stride + x, any size
+     * @return the nearest reference, sad is the L1 distance of the descriptors
+     */
+    public TemplateMatch nearest(int[] pixels, int offset, int stride, int width, int height) {
+        if (!ArrowDescriptor.compute(pixels, offset, stride, width, height, mDescriptor)) {
+            return new TemplateMatch(-1, Integer.MAX_VALUE, Integer.MAX_VALUE);
+        }
+        int minIndex = -1;
+        int minDistance = Integer.MAX_VALUE;
+        int secondDistance = Integer.MAX_VALUE;
+        for (int i = 0; i < mDescriptors.length; i++) {
+            if (null == mDescriptors[i]) {
+                continue;
+            }
+            final int distance = ArrowDescriptor.getDistance(mDescriptor, mDescriptors[i]);
+            if (distance < minDistance) {
+                secondDistance = minDistance;
+                minDistance = distance;
+                minIndex = i;
+            } else if (distance < secondDistance) {
+                secondDistance = distance;
+            }
+        }
+        return new TemplateMatch(minIndex, minDistance, secondDistance);
+    }
+}
@@ -0,0 +1,78 @@
+package sky4s.garminhud;
+
+/**
+ * 8x8 arrow fingerprint straight from ARGB pixels, see {@link ArrowMatcher}.
+ * <p>
+ * The result is the same as the original three pass pipeline: threshold the whole image
+ * (green * alpha above {@link #TREAT_AS_WHITE} is white), nearest neighbour resize it to
+ * {@link #STANDARD_IMG_SIZE} x {@link #STANDARD_IMG_SIZE}, then take every 16th pixel. Only the 64
+ * sampled source pixels are looked at, nothing is allocated and the source is not modified.
+ */
+public final class ArrowFingerprint {
+    public static final int IMAGE_LEN = 8; //4x4 cannot has valid recognize
+    public static final int TREAT_AS_WHITE = 200;
+    public static final int STANDARD_IMG_SIZE = 132;
+
+    private static final int INTERVAL = STANDARD_IMG_SIZE / IMAGE_LEN;
+
+    private ArrowFingerprint() {
+    }
+
+    public static int getGreenAlpha(int pixel) {
+        final int alpha = (pixel >> 24) & 0xff;
+        final int green = ((pixel >> 8) & 0xff);
+        final int green_alpha = (green * alpha) >> 8;
+        return green_alpha;
+    }
+
+    public static boolean isWhite(int pixel) {
+        return getGreenAlpha(pixel) > TREAT_AS_WHITE;
+    }
+
+    /**
+     * @param pixels ARGB, pixel (x, y) at offset + y * stride + x
+     * @return bit (h * 8 + w) set when the sampled pixel is white
+     */
+    public static long compute(int[] pixels, int offset, int stride, int width, int height) {
+        long value = 0;
+        int index = 0;
+        for (int h0 = 0; h0 < IMAGE_LEN; h0++) {
+            final int row = offset + sourceIndex(h0 * INTERVAL, height) * stride;
+            for (int w0 = 0; w0 < IMAGE_LEN; w0++) {
+                if (isWhite(pixels[row + sourceIndex(w0 * INTERVAL, width)])) {
+                    value |= 1L << index;
+                }
+                index++;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * The thresholded STANDARD_IMG_SIZE x STANDARD_IMG_SIZE image the fingerprint is sampled
+     * from, white 0xffffffff and black 0, only needed to show it for debugging.
+     *
+     * @param out at least STANDARD_IMG_SIZE * STANDARD_IMG_SIZE
+     */
+    public static void toBinaryImage(int[] pixels, int offset, int stride, int width, int height, int[] out) {
+        for (int h = 0; h < STANDARD_IMG_SIZE; h++) {
+            final int row = offset + sourceIndex(h, height) * stride;
+            for (int w = 0; w < STANDARD_IMG_SIZE; w++) {
+                out[h * STANDARD_IMG_SIZE + w] = isWhite(pixels[row + sourceIndex(w, width)]) ? 0xffffffff : 0;
+            }
+        }
+    }
+
+    /**
+     * Source row or column nearest neighbour resizing takes for position x of the
+     * STANDARD_IMG_SIZE image.
+     */
+    private static int sourceIndex(int x, int length) {
+        if (length == STANDARD_IMG_SIZE) {
+            return x;
+        }
+        final float ratio = length / (STANDARD_IMG_SIZE * 1.0f);
+        final int x0 = Math.round(x * ratio);
+        return (x0 >= length) ? length - 1 : x0;
+    }
+}
@@ -0,0 +1,78 @@
+package sky4s.garminhud;
+
+/**
+ * Finds the arrow whose 8x8 fingerprint is closest to an image fingerprint.
+ * <p>
+ * A fingerprint is a long, bit (h * 8 + w) is the pixel at row h, column w. The SAD of two
+ * binary fingerprints is the number of differing bits, i.e. Long.bitCount(a ^ b), so a whole
+ * table is compared with one xor and one popcount per entry instead of a loop over 63 bits.
+ */
+public final class ArrowMatcher {
+    /**
+     * 8x8 uses 63 bits only, the sign bit is never compared
+     */
+    public static final long FINGERPRINT_MASK = 0x7fffffffffffffffL;
+
+    private static final int INDEX_BITS = 16;
+    private static final int INDEX_MASK = (1 << INDEX_BITS) - 1;
+
+    private ArrowMatcher() {
+    }
+
+    public static int getSAD(long fingerprint, long magicNumber) {
+        return Long.bitCount((fingerprint ^ magicNumber) & FINGERPRINT_MASK);
+    }
+
+    /**
+     * Same result as the old per-bit loop: the first entry with the smallest SAD, stopping at
+     * the first exact match.
+     *
+     * @param table e.g. {@link Arrow#VALUES_LEFT}, must not be empty
+     * @return index and SAD packed into an int, read them with {@link #getIndex(int)} and
+     * {@link #getSAD(int)}; packed so the hot path doesn't allocate a result object
+     */
+    public static int match(long[] table, long fingerprint) {
+        int minSad = Integer.MAX_VALUE;
+        int minIndex = 0;
+        for (int i = 0; i < table.length; i++) {
+            final int sad = getSAD(fingerprint, table[i]);
+            if (sad < minSad) {
+                minSad = sad;
+                minIndex = i;
+                if (0 == sad) {
+                    break;
+                }
+            }
+        }
+        return (minSad << INDEX_BITS) | minIndex;
+    }
+
+    /**
+     * Like {@link #match(long[], long)}, but scans the whole table to also find the runner-up,
+     * for the confidence of the result.
+     */
+    public static TemplateMatch rank(long[] table, long fingerprint) {
+        int minSad = Integer.MAX_VALUE;
+        int secondSad = Integer.MAX_VALUE;
+        int minIndex = -1;
+        for (int i = 0; i < table.length; i++) {
+            final int sad = getSAD(fingerprint, table[i]);
+            if (sad < minSad) {
+                secondSad = minSad;
+                minSad = sad;
+                minIndex = i;
+            } else if (sad < secondSad) {
+                secondSad = sad;
+            }
+        }
+        return new TemplateMatch(minIndex, minSad, secondSad);
+    }
+
+    public static int getIndex(int result) {
+        return result & INDEX_MASK;
+    }
+
+    public static int getSAD(int result) {
+        return result >>> INDEX_BITS;
+    }
+}
@@ -45,6 +45,19 @@ public enum ArrowV2 {
     public final long valueLeft;
     public final long valueRight;
 
+    /**
+     * valueLeft of every constant, in values() order, the table searched by ArrowMatcher
+     */
+    public static final long[] VALUES_LEFT;
+
+    static {
+        final ArrowV2[] arrows = values();
+        VALUES_LEFT = new long[arrows.length];
+        for (int i = 0; i < arrows.length; i++) {
+            VALUES_LEFT[i] = arrows[i].valueLeft;
+        }
+    }
+
     ArrowV2(long value) {
         this.valueLeft = value;
         this.valueRight = 0;
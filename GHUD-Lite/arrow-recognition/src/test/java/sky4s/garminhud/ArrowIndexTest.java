@@ -0,0 +1,85 @@
+package sky4s.garminhud;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class ArrowIndexTest {
+
+    /**
+     * The old per-bit loop: first entry with the smallest number of differing bits, sign bit
+     * ignored. Packed like {@link ArrowMatcher#match(long[], long)}.
+     */
+    private static int bruteForce(long[] table, long fingerprint) {
+        int minSad = Integer.MAX_VALUE;
+        int minIndex = 0;
+        for (int i = 0; i < table.length; i++) {
+            int sad = 0;
+            for (int bit = 0; bit < 63; bit++) {
+                if (((fingerprint >> bit) & 1) != ((table[i] >> bit) & 1)) {
+                    sad++;
+                }
+            }
+            if (sad < minSad) {
+                minSad = sad;
+                minIndex = i;
+            }
+        }
+        return (minSad << 16) | minIndex;
+    }
+
+    private static void assertSameAsBruteForce(long[] table, long seed) {
+        final ArrowIndex index = new ArrowIndex(table);
+        final Random random = new Random(seed);
+        for (int n = 0; n < 20000; n++) {
+            long fingerprint;
+            switch (n % 4) {
+            case 0:
+                // exact, sometimes with the unused sign bit set
+                fingerprint = table[random.nextInt(table.length)] | (random.nextBoolean() ? Long.MIN_VALUE : 0);
+                break;
+            case 1:
+                // a few bits off
+                fingerprint = table[random.nextInt(table.length)];
+                for (int flips = 1 + random.nextInt(4); flips > 0; flips--) {
+                    fingerprint ^= 1L << random.nextInt(64);
+                }
+                break;
+            default:
+                fingerprint = random.nextLong();
+            }
+            final int expected = bruteForce(table, fingerprint);
+            final int actual = index.match(fingerprint);
+            assertEquals(Long.toHexString(fingerprint) + " index", ArrowMatcher.getIndex(expected),
+                    ArrowMatcher.getIndex(actual));
+            assertEquals(Long.toHexString(fingerprint) + " sad", ArrowMatcher.getSAD(expected),
+                    ArrowMatcher.getSAD(actual));
+        }
+    }
+
+    @Test
+    public void arrowTable() {
+        assertSameAsBruteForce(Arrow.VALUES_LEFT, 1);
+    }
+
+    @Test
+    public void concatenatedTables() {
+        final long[] all = ArrowIndex.concat(Arrow.VALUES_LEFT, ArrowV2.VALUES_LEFT);
+        assertEquals(Arrow.VALUES_LEFT.length + ArrowV2.VALUES_LEFT.length, all.length);
+        assertEquals(ArrowV2.VALUES_LEFT[0], all[Arrow.VALUES_LEFT.length]);
+        assertSameAsBruteForce(all, 2);
+    }
+
+    @Test
+    public void duplicatesGoToTheFirstEntry() {
+        // equal once the sign bit is masked off, like the zeros of unknown arrows
+        final long[] table = {0x1234L, 0x55L, 0x1234L | Long.MIN_VALUE, 0x55L, 0};
+        final ArrowIndex index = new ArrowIndex(table);
+        assertEquals(0, ArrowMatcher.getIndex(index.match(0x1234L)));
+        assertEquals(1, ArrowMatcher.getIndex(index.match(0x55L)));
+        assertEquals(4, ArrowMatcher.getIndex(index.match(Long.MIN_VALUE)));
+        assertSameAsBruteForce(table, 3);
+    }
+}
@@ -0,0 +1,81 @@
+package sky4s.garminhud;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ArrowVoteTest {
+    private static final String NONE = "None";
+    private static final String LEFT = "Left";
+    private static final String KEEP_LEFT = "KeepLeft";
+    private static final String EASY_LEFT = "EasyLeft";
+
+    @Test
+    public void startsWithNone() {
+        assertEquals(NONE, new ArrowVote<>(3, NONE).get());
+    }
+
+    @Test
+    public void sureIsTakenAtOnce() {
+        final ArrowVote<String> vote = new ArrowVote<>(5, NONE);
+        assertEquals(LEFT, vote.vote(LEFT, true));
+        assertEquals(KEEP_LEFT, vote.vote(KEEP_LEFT, true));
+        assertEquals(KEEP_LEFT, vote.get());
+    }
+
+    @Test
+    public void singleUnsureOutlierIsOutvoted() {
+        final ArrowVote<String> vote = new ArrowVote<>(3, NONE);
+        assertEquals(KEEP_LEFT, vote.vote(KEEP_LEFT, true));
+        assertEquals(KEEP_LEFT, vote.vote(EASY_LEFT, false));
+        assertEquals(KEEP_LEFT, vote.vote(KEEP_LEFT, false));
+    }
+
+    @Test
+    public void unsureNeedsMajorityOfWindow() {
+        final ArrowVote<String> vote = new ArrowVote<>(3, NONE);
+        // also when nothing is shown yet
+        assertEquals(NONE, vote.vote(EASY_LEFT, false));
+        assertEquals(EASY_LEFT, vote.vote(EASY_LEFT, false));
+        assertEquals(EASY_LEFT, vote.vote(KEEP_LEFT, false));
+        assertEquals(KEEP_LEFT, vote.vote(KEEP_LEFT, false));
+    }
+
+    @Test
+    public void oldVotesLeaveTheWindow() {
+        final ArrowVote<String> vote = new ArrowVote<>(3, NONE);
+        vote.vote(LEFT, false);
+        vote.vote(LEFT, false);
+        assertEquals(LEFT, vote.get());
+        vote.vote(KEEP_LEFT, false);
+        vote.vote(EASY_LEFT, false);
+        // window is KEEP_LEFT, EASY_LEFT, KEEP_LEFT: the first LEFTs are gone
+        assertEquals(KEEP_LEFT, vote.vote(KEEP_LEFT, false));
+    }
+
+    @Test
+    public void unusableVotesForNone() {
+        final ArrowVote<String> vote = new ArrowVote<>(3, NONE);
+        assertEquals(LEFT, vote.vote(LEFT, true));
+        // sure is ignored for null / none, they need the majority too
+        assertEquals(LEFT, vote.vote(null, true));
+        assertEquals(NONE, vote.vote(NONE, true));
+    }
+
+    @Test
+    public void resetForgetsWindowAndCurrent() {
+        final ArrowVote<String> vote = new ArrowVote<>(3, NONE);
+        vote.vote(LEFT, false);
+        vote.vote(LEFT, false);
+        vote.reset();
+        assertEquals(NONE, vote.get());
+        assertEquals(NONE, vote.vote(LEFT, false));
+    }
+
+    @Test
+    public void windowOfOneFollowsEveryVote() {
+        final ArrowVote<String> vote = new ArrowVote<>(0, NONE);
+        assertEquals(LEFT, vote.vote(LEFT, false));
+        assertEquals(NONE, vote.vote(null, false));
+    }
+}
@@ -0,0 +1,66 @@
+package sky4s.garminhud;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+public class RecognitionCacheTest {
+
+    @Test
+    public void leastRecentlyUsedIsEvicted() {
+        final RecognitionCache<String> cache = new RecognitionCache<>(2);
+        cache.put(1, "a");
+        cache.put(2, "b");
+        // touching 1 makes 2 the eldest
+        assertEquals("a", cache.get(1));
+        cache.put(3, "c");
+        assertNull(cache.get(2));
+        assertEquals("a", cache.get(1));
+        assertEquals("c", cache.get(3));
+    }
+
+    @Test
+    public void putReplacesWithoutEviction() {
+        final RecognitionCache<String> cache = new RecognitionCache<>(2);
+        cache.put(1, "a");
+        cache.put(2, "b");
+        cache.put(1, "A");
+        assertEquals("A", cache.get(1));
+        assertEquals("b", cache.get(2));
+    }
+
+    @Test
+    public void countsHitsAndMisses() {
+        final RecognitionCache<String> cache = new RecognitionCache<>(4);
+        assertEquals(0, cache.getHitRate(), 0);
+        assertNull(cache.get(1));
+        cache.put(1, "a");
+        cache.get(1);
+        cache.get(1);
+        cache.get(1);
+        assertEquals(3, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0.75f, cache.getHitRate(), 0);
+
+        cache.clear();
+        assertNull(cache.get(1));
+        // counters survive clear
+        assertEquals(3, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void hashCoversSizeAndEveryPixel() {
+        final int[] pixels = new int[12];
+        final long hash = RecognitionCache.hashPixels(pixels, 4, 3);
+        assertEquals(hash, RecognitionCache.hashPixels(pixels.clone(), 4, 3));
+        assertNotEquals(hash, RecognitionCache.hashPixels(pixels, 3, 4));
+        for (int i = 0; i < pixels.length; i++) {
+            final int[] changed = pixels.clone();
+            changed[i] = 1;
+            assertNotEquals("pixel " + i, hash, RecognitionCache.hashPixels(changed, 4, 3));
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2014 Akexorcist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.akexorcist.bluetotohspp.library;
+
+// Splits the received byte stream into frames without allocating.
+// - BluetoothState.FRAMING_LINE : frames end with CR, LF is dropped
+// - BluetoothState.FRAMING_GARMIN : frames are 0x10 <id> ... 0x10 0x03 with 0x10 doubled
+//   inside, the delivered frame is unstuffed and has neither the leading 0x10 nor the trailer
+// Frames are handed to the callback as slices of an internal buffer (or of the read buffer
+// itself), they are only valid during the callback. Used by the reader thread only.
+class BluetoothFrameParser {
+    interface Callback {
+        void onFrame(byte[] buffer, int offset, int length);
+    }
+
+    private static final int MAX_FRAME_SIZE = 1024;
+    private static final byte LF = 0x0A;
+    private static final byte CR = 0x0D;
+    private static final byte DLE = 0x10;
+    private static final byte ETX = 0x03;
+
+    // Garmin states
+    private static final int IDLE = 0;
+    private static final int START = 1;
+    private static final int DATA = 2;
+    private static final int ESCAPE = 3;
+
+    private final int mFraming;
+    private final byte[] mFrame = new byte[MAX_FRAME_SIZE];
+    private int mFrameLength = 0;
+    private int mState = IDLE;
+    private boolean mOverflow = false;
+
+    private volatile long mFrameCount = 0;
+    private volatile long mChecksumErrorCount = 0;
+    private volatile long mDroppedFrameCount = 0;
+
+    BluetoothFrameParser(int framing) {
+        mFraming = framing;
+    }
+
+    void parse(byte[] data, int offset, int length, Callback callback) {
+        if (mFraming == BluetoothState.FRAMING_GARMIN)
+            parseGarmin(data, offset, length, callback);
+        else
+            parseLines(data, offset, length, callback);
+    }
+
+    // Frames delivered to the callback
+    long getFrameCount() {
+        return mFrameCount;
+    }
+
+    // Garmin frames whose bytes did not sum up to zero
+    long getChecksumErrorCount() {
+        return mChecksumErrorCount;
+    }
+
+    // Frames lost to overflow or broken framing
+    long getDroppedFrameCount() {
+        return mDroppedFrameCount;
+    }
+
+    private void parseLines(byte[] data, int offset, int length, Callback callback) {
+        final int end = offset + length;
+        int start = offset;
+        for (int i = offset; i < end; i++) {
+            final byte b = data[i];
+            if (b == LF) {
+                append(data, start, i - start);
+                start = i + 1;
+            } else if (b == CR) {
+                if (mFrameLength == 0 && !mOverflow) {
+                    // The whole line is in the read buffer, hand it out in place
+                    deliver(data, start, i - start, callback);
+                } else {
+                    append(data, start, i - start);
+                    deliverFrame(callback);
+                }
+                start = i + 1;
+            }
+        }
+        append(data, start, end - start);
+    }
+
+    private void parseGarmin(byte[] data, int offset, int length, Callback callback) {
+        final int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            final byte b = data[i];
+            switch (mState) {
+            case IDLE:
+                if (b == DLE) mState = START;
+                break;
+            case START:
+                // 0x10 0x10 keeps looking for a start, 0x10 0x03 is a stray trailer
+                if (b == ETX) mState = IDLE;
+                else if (b != DLE) {
+                    resetFrame();
+                    appendByte(b);
+                    mState = DATA;
+                }
+                break;
+            case DATA:
+                if (b == DLE) mState = ESCAPE;
+                else appendByte(b);
+                break;
+            case ESCAPE:
+                if (b == DLE) {
+                    appendByte(b);
+                    mState = DATA;
+                } else if (b == ETX) {
+                    if (!mOverflow && checksumOk()) {
+                        deliverFrame(callback);
+                    } else {
+                        if (!mOverflow) mChecksumErrorCount++;
+                        mDroppedFrameCount++;
+                        resetFrame();
+                    }
+                    mState = IDLE;
+                } else {
+                    // Unescaped 0x10 starts a new frame, the current one is broken
+                    mDroppedFrameCount++;
+                    resetFrame();
+                    appendByte(b);
+                    mState = DATA;
+                }
+                break;
+            }
+        }
+    }
+
+    private boolean checksumOk() {
+        int sum = 0;
+        for (int i = 0; i < mFrameLength; i++) sum += mFrame[i];
+        return (sum & 0xff) == 0;
+    }
+
+    private void append(byte[] data, int offset, int length) {
+        if (length <= 0) return;
+        if (mFrameLength + length > MAX_FRAME_SIZE) {
+            mOverflow = true;
+            return;
+        }
+        System.arraycopy(data, offset, mFrame, mFrameLength, length);
+        mFrameLength += length;
+    }
+
+    private void appendByte(byte b) {
+        if (mFrameLength == MAX_FRAME_SIZE) {
+            mOverflow = true;
+            return;
+        }
+        mFrame[mFrameLength++] = b;
+    }
+
+    private void deliverFrame(Callback callback) {
+        if (mOverflow) mDroppedFrameCount++;
+        else deliver(mFrame, 0, mFrameLength, callback);
+        resetFrame();
+    }
+
+    private void deliver(byte[] buffer, int offset, int length, Callback callback) {
+        mFrameCount++;
+        callback.onFrame(buffer, offset, length);
+    }
+
+    private void resetFrame() {
+        mFrameLength = 0;
+        mOverflow = false;
+    }
+}
@@ -16,7 +16,7 @@
 
 package app.akexorcist.bluetotohspp.library;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Set;
 
 import android.annotation.SuppressLint;
@@ -36,6 +36,8 @@ public class BluetoothSPP {
     private OnDataReceivedListener mDataReceivedListener = null;
     private BluetoothConnectionListener mBluetoothConnectionListener = null;
     private AutoConnectionListener mAutoConnectionListener = null;
+    private OnRawDataReceivedListener mRawDataReceivedListener = null;
+    private int mFraming = BluetoothState.FRAMING_LINE;
     
     // Context from activity which call this class
     private Context mContext;
@@ -61,7 +63,8 @@ public class BluetoothSPP {
 
     // This is where we store the callback if AutoConnection is enabled
     private BluetoothConnectionListener mBluetoothConnectionListenerSecondary = null;
-    private int c = 0;
+    private final BluetoothReconnectPolicy mReconnectPolicy = new BluetoothReconnectPolicy();
+    private String mLastConnectedAddress = null;
     
     public BluetoothSPP(Context context) {
         mContext = context;
@@ -76,6 +79,11 @@ public class BluetoothSPP {
         public void onDataReceived(byte[] data, String message);
     }
     
+    // Called on the Bluetooth reader thread, data is only valid during the call
+    public interface OnRawDataReceivedListener {
+        public void onRawDataReceived(byte[] data, int offset, int length);
+    }
+    
     public interface BluetoothConnectionListener {
         public void onDeviceConnected(String name, String address);
         public void onDeviceDisconnected();
@@ -123,6 +131,25 @@ public class BluetoothSPP {
     
     public void setupService() {
         mChatService = new BluetoothService(mContext, mHandler);
+        mChatService.setFraming(mFraming);
+        mChatService.setRawDataListener(mRawDataReceivedListener);
+        mChatService.setPostReadMessages(mDataReceivedListener != null);
+    }
+    
+    // How received bytes are split into frames, BluetoothState.FRAMING_LINE (default) or
+    // BluetoothState.FRAMING_GARMIN. Takes effect on the next connection
+    public void setFraming(int framing) {
+        mFraming = framing;
+        if(mChatService != null)
+            mChatService.setFraming(framing);
+    }
+    
+    public long getReceivedFrameCount() {
+        return mChatService != null ? mChatService.getReceivedFrameCount() : 0;
+    }
+    
+    public long getReceivedChecksumErrorCount() {
+        return mChatService != null ? mChatService.getChecksumErrorCount() : 0;
     }
     
     public BluetoothAdapter getBluetoothAdapter() {
@@ -184,6 +211,7 @@ public class BluetoothSPP {
             case BluetoothState.MESSAGE_DEVICE_NAME:
                 mDeviceName = msg.getData().getString(BluetoothState.DEVICE_NAME);
                 mDeviceAddress = msg.getData().getString(BluetoothState.DEVICE_ADDRESS);
+                mLastConnectedAddress = mDeviceAddress;
                 if(mBluetoothConnectionListener != null)
                     mBluetoothConnectionListener.onDeviceConnected(mDeviceName, mDeviceAddress);
                 isConnected = true;
@@ -196,13 +224,9 @@ public class BluetoothSPP {
                 if(mBluetoothStateListener != null)
                     mBluetoothStateListener.onServiceStateChanged(msg.arg1);
                 if(isConnected && msg.arg1 != BluetoothState.STATE_CONNECTED) {
+                    isConnected = false;
                     if(mBluetoothConnectionListener != null)
                         mBluetoothConnectionListener.onDeviceDisconnected();
-                    if(isAutoConnectionEnabled) {
-                        isAutoConnectionEnabled = false;
-                        autoConnect(keyword);
-                    }
-                    isConnected = false;
                     mDeviceName = null;
                     mDeviceAddress = null;
                 }
@@ -224,6 +248,8 @@ public class BluetoothSPP {
     public void stopAutoConnect() {
         if (isAutoConnectionEnabled) {
             isAutoConnectionEnabled = false;
+            isAutoConnecting = false;
+            mHandler.removeCallbacks(mAutoConnectRunnable);
             // Restore the previous callback
             mBluetoothConnectionListener = mBluetoothConnectionListenerSecondary;
         }
@@ -257,6 +283,15 @@ public class BluetoothSPP {
     
     public void setOnDataReceivedListener (OnDataReceivedListener listener) {
         mDataReceivedListener = listener;
+        // Frames are only copied for the Handler when somebody listens
+        if(mChatService != null)
+            mChatService.setPostReadMessages(listener != null);
+    }
+    
+    public void setOnRawDataReceivedListener (OnRawDataReceivedListener listener) {
+        mRawDataReceivedListener = listener;
+        if(mChatService != null)
+            mChatService.setRawDataListener(listener);
     }
     
     public void setBluetoothConnectionListener (BluetoothConnectionListener listener) {
@@ -291,6 +326,84 @@ public class BluetoothSPP {
         }
     }
     
+    // Send length bytes of data starting at offset.
+    // The bytes are copied into the write queue before returning, so the caller may reuse data.
+    public void send(byte[] data, int offset, int length) {
+        send(data, offset, length, -1);
+    }
+    
+    // Same as send(data, offset, length), a queued packet of the same type (0..255) that was
+    // not written yet is dropped in favor of this one. -1 never drops
+    public void send(byte[] data, int offset, int length, int type) {
+        if(mChatService.getState() == BluetoothState.STATE_CONNECTED) {
+            mChatService.write(data, offset, length, type);
+        }
+    }
+    
+    // Collect everything sent until endBatch() into a single write, see BluetoothService.beginBatch()
+    public void beginBatch() {
+        if(mChatService != null)
+            mChatService.beginBatch();
+    }
+    
+    public void endBatch() {
+        if(mChatService != null)
+            mChatService.endBatch();
+    }
+    
+    public long getBatchFlushCount() {
+        return mChatService != null ? mChatService.getFlushCount() : 0;
+    }
+    
+    public float getBatchBytesPerFlush() {
+        return mChatService != null ? mChatService.getBytesPerFlush() : 0;
+    }
+    
+    public float getBatchFlushesPerSecond() {
+        return mChatService != null ? mChatService.getFlushesPerSecond() : 0;
+    }
+    
+    public int getWriteQueueDepth() {
+        return mChatService != null ? mChatService.getWriteQueueDepth() : 0;
+    }
+    
+    public long getDroppedWriteCount() {
+        return mChatService != null
+                ? mChatService.getOverflowDropCount() + mChatService.getSupersededDropCount() : 0;
+    }
+    
+    // percentile : 0..100, result in milliseconds
+    public long getWriteLatencyPercentile(int percentile) {
+        return mChatService != null ? mChatService.getWriteLatencyPercentile(percentile) : 0;
+    }
+    
+    // Same as above over the newest lastSamples packets only
+    public long getWriteLatencyPercentile(int percentile, int lastSamples) {
+        return mChatService != null
+                ? mChatService.getWriteLatencyPercentile(percentile, lastSamples) : 0;
+    }
+    
+    // See BluetoothService.getWriteLatencyHistogram()
+    public void getWriteLatencyHistogram(long[] boundsMs, long[] counts) {
+        if(mChatService != null)
+            mChatService.getWriteLatencyHistogram(boundsMs, counts);
+        else
+            Arrays.fill(counts, 0);
+    }
+    
+    public long getQueuedWriteCount() {
+        return mChatService != null ? mChatService.getQueuedPacketCount() : 0;
+    }
+    
+    public long getWrittenWriteCount() {
+        return mChatService != null ? mChatService.getWrittenPacketCount() : 0;
+    }
+    
+    // Packets the socket refused, not counted as written
+    public long getFailedWriteCount() {
+        return mChatService != null ? mChatService.getFailedPacketCount() : 0;
+    }
+    
     public void send(String data, boolean CRLF) {
         if(mChatService.getState() == BluetoothState.STATE_CONNECTED) {
             if(CRLF) 
@@ -330,22 +443,28 @@ public class BluetoothSPP {
     }
     
     
+    // Keep connecting to the last known good device or the paired devices whose name contains
+    // keywordName, see BluetoothReconnectPolicy for the order and the backoff between rounds
     public void autoConnect(String keywordName) {
+        autoConnect(keywordName, mLastConnectedAddress);
+    }
+    
+    // keywordName : null to only try preferredAddress
+    // preferredAddress : tried first, null to use the keyword only
+    public void autoConnect(String keywordName, String preferredAddress) {
         if(!isAutoConnectionEnabled) {
             keyword = keywordName;
+            mReconnectPolicy.setCandidates(preferredAddress, getPairedDeviceName()
+                    , getPairedDeviceAddress(), keywordName);
+            if(mReconnectPolicy.isEmpty()) {
+                Toast.makeText(mContext, 
+                        mContext.getResources().getString(R.string.message_device_name_mismatch)
+                        , Toast.LENGTH_SHORT).show();
+                return;
+            }
             isAutoConnectionEnabled = true;
             if(mAutoConnectionListener != null)
                 mAutoConnectionListener.onAutoConnectionStarted();
-            final ArrayList<String> arr_filter_address = new ArrayList<String>();
-            final ArrayList<String> arr_filter_name = new ArrayList<String>();
-            String[] arr_name = getPairedDeviceName();
-            String[] arr_address = getPairedDeviceAddress();
-            for(int i = 0 ; i < arr_name.length ; i++) {
-                if(arr_name[i].contains(keywordName)) {
-                    arr_filter_address.add(arr_address[i]);
-                    arr_filter_name.add(arr_name[i]);
-                }
-            }
 
             // Save the previously existing callback
             mBluetoothConnectionListenerSecondary = mBluetoothConnectionListener;
@@ -353,6 +472,7 @@ public class BluetoothSPP {
             mBluetoothConnectionListener = new BluetoothConnectionListener() {
                 public void onDeviceConnected(String name, String address) {
                     isAutoConnecting = false;
+                    mReconnectPolicy.setPreferred(address, name);
                     // Run the secondary callback
                     if(mBluetoothConnectionListenerSecondary != null) {
                         mBluetoothConnectionListenerSecondary.onDeviceConnected(name,address);
@@ -360,25 +480,21 @@ public class BluetoothSPP {
                 }
     
                 public void onDeviceDisconnected() {
+                    // The link just dropped, the device is most likely still around
+                    if(isAutoConnectionEnabled) {
+                        mReconnectPolicy.reset();
+                        scheduleAutoConnect(0);
+                    }
                     // Run the secondary callback
                     if(mBluetoothConnectionListenerSecondary != null) {
                         mBluetoothConnectionListenerSecondary.onDeviceDisconnected();
                     }
-
                 }
+                
                 public void onDeviceConnectionFailed() {
-                	Log.e("CHeck", "Failed");
                     if(isServiceRunning) {
                         if(isAutoConnectionEnabled) {
-                            c++;
-                            if(c >= arr_filter_address.size())
-                                c = 0;
-                            isAutoConnecting = true;
-                            connect(arr_filter_address.get(c));
-                            Log.e("CHeck", "Connect");
-                            if(mAutoConnectionListener != null)
-                                mAutoConnectionListener.onNewConnection(arr_filter_name.get(c)
-                                    , arr_filter_address.get(c));
+                            scheduleAutoConnect(mReconnectPolicy.next());
                         } else {
                             isAutoConnecting = false;
                         }
@@ -392,20 +508,49 @@ public class BluetoothSPP {
                 }
             };
 
-            c = 0;
-            if (arr_filter_address.size() > 0) {
-                if (!isConnected) {
-                    // Connect() breaks when it's already connected
-                    if(mAutoConnectionListener != null)
-                        mAutoConnectionListener.onNewConnection(arr_name[c], arr_address[c]);
-                    isAutoConnecting = true;
-                    connect(arr_filter_address.get(c));
-                }
-            } else { 
-                Toast.makeText(mContext, 
-                        mContext.getResources().getString(R.string.message_device_name_mismatch)
-                        , Toast.LENGTH_SHORT).show();
+            if (!isConnected) {
+                // Connect() breaks when it's already connected
+                scheduleAutoConnect(0);
             }
         }
     }
+    
+    // Address of the device of the last successful connection, tried first by autoConnect()
+    public String getLastConnectedAddress() {
+        return mLastConnectedAddress;
+    }
+    
+    // Set the last known good address, e.g. restored from preferences
+    public void setLastConnectedAddress(String address) {
+        mLastConnectedAddress = address;
+    }
+    
+    // Time from losing the link until the next connection was up, in milliseconds
+    public long getReconnectMillis() {
+        return mChatService != null ? mChatService.getReconnectMillis() : 0;
+    }
+    
+    // Time from losing the link (or the first connection attempt) until the first packet was
+    // written over the new connection, in milliseconds
+    public long getTimeToFirstFrameMillis() {
+        return mChatService != null ? mChatService.getTimeToFirstFrameMillis() : 0;
+    }
+    
+    private void scheduleAutoConnect(long delayMs) {
+        mHandler.removeCallbacks(mAutoConnectRunnable);
+        isAutoConnecting = true;
+        // Posted even without delay, the service restarts listening right after a drop
+        mHandler.postDelayed(mAutoConnectRunnable, Math.max(0, delayMs));
+    }
+    
+    private final Runnable mAutoConnectRunnable = new Runnable() {
+        public void run() {
+            if(!isAutoConnectionEnabled || isConnected || mChatService == null)
+                return;
+            final String address = mReconnectPolicy.getAddress();
+            if(mAutoConnectionListener != null)
+                mAutoConnectionListener.onNewConnection(mReconnectPolicy.getName(), address);
+            connect(address);
+        }
+    };
 }
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2014 Akexorcist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.akexorcist.bluetotohspp.library;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Bounded lock-free queue of outgoing packets, based on Dmitry Vyukov's bounded MPMC queue.
+// Each slot owns a reusable buffer, so offer() copies the packet and never allocates once
+// the slots are warmed up. Producers never block:
+// - a packet with a type is dropped when a newer packet of the same type is queued behind it
+// - when the queue is full, the oldest packet is dropped to make room
+class BluetoothWriteQueue {
+    static final int TYPE_NONE = -1;
+    static final int TYPE_COUNT = 256;
+
+    private static final int SLOT_SIZE = 64;
+
+    // A dequeued packet, reused by the consumer
+    static final class Packet {
+        byte[] data = new byte[SLOT_SIZE];
+        int length;
+        int type;
+        long enqueueTime;
+        long position;
+    }
+
+    private final int mCapacity;
+    private final int mMask;
+    private final AtomicLongArray mSequences;
+    private final byte[][] mBuffers;
+    private final int[] mLengths;
+    private final int[] mTypes;
+    private final long[] mEnqueueTimes;
+    private final AtomicLong mTail = new AtomicLong();
+    private final AtomicLong mHead = new AtomicLong();
+    // Queue position of the newest packet of each type
+    private final AtomicLongArray mLatestOfType = new AtomicLongArray(TYPE_COUNT);
+
+    private final AtomicLong mOverflowDrops = new AtomicLong();
+    private final AtomicLong mSupersededDrops = new AtomicLong();
+
+    // capacity : rounded up to a power of two
+    BluetoothWriteQueue(int capacity) {
+        int size = 1;
+        while (size < capacity) size <<= 1;
+        mCapacity = size;
+        mMask = size - 1;
+        mSequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) mSequences.set(i, i);
+        mBuffers = new byte[size][];
+        mLengths = new int[size];
+        mTypes = new int[size];
+        mEnqueueTimes = new long[size];
+        for (int i = 0; i < TYPE_COUNT; i++) mLatestOfType.set(i, -1);
+    }
+
+    // Copy a packet into the queue. Safe to call from any thread
+    void offer(byte[] data, int offset, int length, int type, long now) {
+        while (true) {
+            final long pos = mTail.get();
+            final int index = (int) (pos & mMask);
+            final long dif = mSequences.get(index) - pos;
+            if (dif == 0) {
+                if (mTail.compareAndSet(pos, pos + 1)) {
+                    byte[] buffer = mBuffers[index];
+                    if (buffer == null || buffer.length < length) {
+                        buffer = new byte[Math.max(length, SLOT_SIZE)];
+                        mBuffers[index] = buffer;
+                    }
+                    System.arraycopy(data, offset, buffer, 0, length);
+                    mLengths[index] = length;
+                    mTypes[index] = type;
+                    mEnqueueTimes[index] = now;
+                    if (type >= 0) markLatest(type & (TYPE_COUNT - 1), pos);
+                    // Publish the slot to the consumer
+                    mSequences.set(index, pos + 1);
+                    return;
+                }
+            } else if (dif < 0) {
+                // Full, drop the oldest packet to make room
+                if (dequeue(null)) mOverflowDrops.incrementAndGet();
+            }
+        }
+    }
+
+    // Move the oldest live packet into out, skipping superseded ones.
+    // Return false when the queue is empty
+    boolean poll(Packet out) {
+        while (dequeue(out)) {
+            if (out.type < 0 || mLatestOfType.get(out.type & (TYPE_COUNT - 1)) <= out.position) {
+                return true;
+            }
+            mSupersededDrops.incrementAndGet();
+        }
+        return false;
+    }
+
+    boolean isEmpty() {
+        return getDepth() == 0;
+    }
+
+    int getDepth() {
+        return (int) Math.max(0, mTail.get() - mHead.get());
+    }
+
+    int getCapacity() {
+        return mCapacity;
+    }
+
+    long getOverflowDrops() {
+        return mOverflowDrops.get();
+    }
+
+    long getSupersededDrops() {
+        return mSupersededDrops.get();
+    }
+
+    // Drop every queued packet
+    void clear() {
+        while (dequeue(null)) { }
+    }
+
+    private void markLatest(int type, long pos) {
+        long current;
+        while ((current = mLatestOfType.get(type)) < pos
+                && !mLatestOfType.compareAndSet(type, current, pos)) { }
+    }
+
+    // Take the oldest packet, copying it into out unless out is null
+    private boolean dequeue(Packet out) {
+        while (true) {
+            final long pos = mHead.get();
+            final int index = (int) (pos & mMask);
+            final long dif = mSequences.get(index) - (pos + 1);
+            if (dif == 0) {
+                if (mHead.compareAndSet(pos, pos + 1)) {
+                    if (out != null) {
+                        final int length = mLengths[index];
+                        if (out.data.length < length) out.data = new byte[length];
+                        System.arraycopy(mBuffers[index], 0, out.data, 0, length);
+                        out.length = length;
+                        out.type = mTypes[index];
+                        out.enqueueTime = mEnqueueTimes[index];
+                        out.position = pos;
+                    }
+                    // Hand the slot back to the producers
+                    mSequences.set(index, pos + mCapacity);
+                    return true;
+                }
+            } else if (dif < 0) {
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package app.akexorcist.bluetotohspp.library;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class BluetoothFrameParserTest {
+
+    // Collects the delivered frames as hex, they are only valid during the callback
+    private static class Frames implements BluetoothFrameParser.Callback {
+        final List<String> frames = new ArrayList<>();
+
+        @Override
+        public void onFrame(byte[] buffer, int offset, int length) {
+            StringBuilder hex = new StringBuilder();
+            for (int i = offset; i < offset + length; i++) {
+                if (hex.length() > 0) hex.append(' ');
+                hex.append(String.format("%02x", buffer[i] & 0xff));
+            }
+            frames.add(hex.toString());
+        }
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] data = new byte[values.length];
+        for (int i = 0; i < values.length; i++) data[i] = (byte) values[i];
+        return data;
+    }
+
+    // Feed data in chunks of the given size
+    private static void parse(BluetoothFrameParser parser, byte[] data, int chunk, Frames frames) {
+        for (int offset = 0; offset < data.length; offset += chunk) {
+            parser.parse(data, offset, Math.min(chunk, data.length - offset), frames);
+        }
+    }
+
+    @Test
+    public void linesEndWithCrAndDropLf() {
+        final byte[] data = "OK\r\nHUD 1\r\n\r\npart".getBytes();
+        for (int chunk = 1; chunk <= data.length; chunk++) {
+            BluetoothFrameParser parser = new BluetoothFrameParser(BluetoothState.FRAMING_LINE);
+            Frames frames = new Frames();
+            parse(parser, data, chunk, frames);
+            assertEquals("chunk " + chunk, "[4f 4b, 48 55 44 20 31, ]", frames.frames.toString());
+            assertEquals(3, parser.getFrameCount());
+
+            // the unterminated tail is kept for the next read
+            parser.parse("s\r".getBytes(), 0, 2, frames);
+            assertEquals("70 61 72 74 73", frames.frames.get(3));
+        }
+    }
+
+    @Test
+    public void overlongLineIsDropped() {
+        BluetoothFrameParser parser = new BluetoothFrameParser(BluetoothState.FRAMING_LINE);
+        Frames frames = new Frames();
+        byte[] line = new byte[2000];
+        java.util.Arrays.fill(line, (byte) 'a');
+        parse(parser, line, 100, frames);
+        parser.parse("\rok\r".getBytes(), 0, 4, frames);
+        assertEquals("[6f 6b]", frames.frames.toString());
+        assertEquals(1, parser.getDroppedFrameCount());
+    }
+
+    @Test
+    public void garminFramesAreUnstuffed() {
+        // two frames, the first with a stuffed 0x10, noise before and between them
+        final byte[] data = bytes(0x55, 0x10, 0x7b, 0x10, 0x10, 0x75, 0x10, 0x03, 0x00,
+                0x10, 0x0f, 0x02, 0x05, 0x00, 0xea, 0x10, 0x03);
+        for (int chunk = 1; chunk <= data.length; chunk++) {
+            BluetoothFrameParser parser = new BluetoothFrameParser(BluetoothState.FRAMING_GARMIN);
+            Frames frames = new Frames();
+            parse(parser, data, chunk, frames);
+            assertEquals("chunk " + chunk, "[7b 10 75, 0f 02 05 00 ea]", frames.frames.toString());
+            assertEquals(2, parser.getFrameCount());
+            assertEquals(0, parser.getDroppedFrameCount());
+        }
+    }
+
+    @Test
+    public void garminChecksumErrorIsDropped() {
+        BluetoothFrameParser parser = new BluetoothFrameParser(BluetoothState.FRAMING_GARMIN);
+        Frames frames = new Frames();
+        byte[] data = bytes(0x10, 0x0f, 0x02, 0x05, 0x00, 0xeb, 0x10, 0x03);
+        parser.parse(data, 0, data.length, frames);
+        assertEquals(0, frames.frames.size());
+        assertEquals(1, parser.getChecksumErrorCount());
+        assertEquals(1, parser.getDroppedFrameCount());
+    }
+
+    @Test
+    public void garminUnescapedDleStartsNewFrame() {
+        BluetoothFrameParser parser = new BluetoothFrameParser(BluetoothState.FRAMING_GARMIN);
+        Frames frames = new Frames();
+        byte[] data = bytes(0x10, 0x7b, 0x01, 0x10, 0x0f, 0x02, 0x05, 0x00, 0xea, 0x10, 0x03);
+        parser.parse(data, 0, data.length, frames);
+        assertEquals("[0f 02 05 00 ea]", frames.frames.toString());
+        assertEquals(1, parser.getDroppedFrameCount());
+        assertEquals(0, parser.getChecksumErrorCount());
+    }
+
+    @Test
+    public void garminStrayTrailerIsIgnored() {
+        BluetoothFrameParser parser = new BluetoothFrameParser(BluetoothState.FRAMING_GARMIN);
+        Frames frames = new Frames();
+        byte[] data = bytes(0x10, 0x03, 0x10, 0x10, 0x0f, 0x02, 0x05, 0x00, 0xea, 0x10, 0x03);
+        parser.parse(data, 0, data.length, frames);
+        assertEquals("[0f 02 05 00 ea]", frames.frames.toString());
+        assertEquals(0, parser.getDroppedFrameCount());
+    }
+}
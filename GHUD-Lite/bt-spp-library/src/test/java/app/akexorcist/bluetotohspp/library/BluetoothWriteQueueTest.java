@@ -0,0 +1,154 @@
+package app.akexorcist.bluetotohspp.library;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+public class BluetoothWriteQueueTest {
+
+    private static byte[] packet(int... bytes) {
+        byte[] data = new byte[bytes.length];
+        for (int i = 0; i < bytes.length; i++) data[i] = (byte) bytes[i];
+        return data;
+    }
+
+    private static byte[] payload(BluetoothWriteQueue.Packet packet) {
+        return Arrays.copyOf(packet.data, packet.length);
+    }
+
+    @Test
+    public void capacityIsRoundedUpToPowerOfTwo() {
+        assertEquals(8, new BluetoothWriteQueue(5).getCapacity());
+        assertEquals(8, new BluetoothWriteQueue(8).getCapacity());
+        assertEquals(1, new BluetoothWriteQueue(1).getCapacity());
+    }
+
+    @Test
+    public void packetsComeOutInOrderAsCopies() {
+        BluetoothWriteQueue queue = new BluetoothWriteQueue(4);
+        byte[] data = packet(0xff, 1, 2, 3, 0xff);
+        queue.offer(data, 1, 3, BluetoothWriteQueue.TYPE_NONE, 10);
+        data[1] = 9;
+        queue.offer(packet(4), 0, 1, 0x01, 20);
+        assertEquals(2, queue.getDepth());
+
+        BluetoothWriteQueue.Packet out = new BluetoothWriteQueue.Packet();
+        assertTrue(queue.poll(out));
+        assertArrayEquals(packet(1, 2, 3), payload(out));
+        assertEquals(BluetoothWriteQueue.TYPE_NONE, out.type);
+        assertEquals(10, out.enqueueTime);
+        assertTrue(queue.poll(out));
+        assertArrayEquals(packet(4), payload(out));
+        assertEquals(0x01, out.type);
+        assertFalse(queue.poll(out));
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void packetsLongerThanSlotGrowBuffers() {
+        BluetoothWriteQueue queue = new BluetoothWriteQueue(2);
+        byte[] data = new byte[200];
+        for (int i = 0; i < data.length; i++) data[i] = (byte) i;
+        queue.offer(data, 0, data.length, BluetoothWriteQueue.TYPE_NONE, 0);
+
+        BluetoothWriteQueue.Packet out = new BluetoothWriteQueue.Packet();
+        assertTrue(queue.poll(out));
+        assertArrayEquals(data, payload(out));
+    }
+
+    @Test
+    public void newerPacketOfSameTypeSupersedesOlder() {
+        BluetoothWriteQueue queue = new BluetoothWriteQueue(8);
+        queue.offer(packet(1), 0, 1, 0x01, 0);
+        queue.offer(packet(2), 0, 1, 0x03, 0);
+        queue.offer(packet(3), 0, 1, 0x01, 0);
+        queue.offer(packet(4), 0, 1, BluetoothWriteQueue.TYPE_NONE, 0);
+        queue.offer(packet(5), 0, 1, BluetoothWriteQueue.TYPE_NONE, 0);
+
+        BluetoothWriteQueue.Packet out = new BluetoothWriteQueue.Packet();
+        StringBuilder order = new StringBuilder();
+        while (queue.poll(out)) order.append(out.data[0]);
+        // typeless packets are never superseded
+        assertEquals("2345", order.toString());
+        assertEquals(1, queue.getSupersededDrops());
+        assertEquals(0, queue.getOverflowDrops());
+    }
+
+    @Test
+    public void fullQueueDropsOldest() {
+        BluetoothWriteQueue queue = new BluetoothWriteQueue(4);
+        for (int i = 1; i <= 6; i++) {
+            queue.offer(packet(i), 0, 1, BluetoothWriteQueue.TYPE_NONE, 0);
+        }
+        assertEquals(4, queue.getDepth());
+        assertEquals(2, queue.getOverflowDrops());
+
+        BluetoothWriteQueue.Packet out = new BluetoothWriteQueue.Packet();
+        StringBuilder order = new StringBuilder();
+        while (queue.poll(out)) order.append(out.data[0]);
+        assertEquals("3456", order.toString());
+    }
+
+    @Test
+    public void clearDropsEverything() {
+        BluetoothWriteQueue queue = new BluetoothWriteQueue(4);
+        queue.offer(packet(1), 0, 1, BluetoothWriteQueue.TYPE_NONE, 0);
+        queue.offer(packet(2), 0, 1, 0x01, 0);
+        queue.clear();
+        assertTrue(queue.isEmpty());
+        assertFalse(queue.poll(new BluetoothWriteQueue.Packet()));
+    }
+
+    // Every packet offered by concurrent producers is either polled once or counted as dropped,
+    // and each producer's packets come out in the order they went in
+    @Test
+    public void concurrentProducersLoseNothingUncounted() throws InterruptedException {
+        final int producers = 4;
+        final int perProducer = 20000;
+        final BluetoothWriteQueue queue = new BluetoothWriteQueue(16);
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final int id = p;
+            threads[p] = new Thread(() -> {
+                byte[] data = new byte[5];
+                for (int i = 0; i < perProducer; i++) {
+                    data[0] = (byte) id;
+                    data[1] = (byte) (i >> 24);
+                    data[2] = (byte) (i >> 16);
+                    data[3] = (byte) (i >> 8);
+                    data[4] = (byte) i;
+                    queue.offer(data, 0, data.length, BluetoothWriteQueue.TYPE_NONE, 0);
+                }
+            });
+            threads[p].start();
+        }
+
+        int[] last = new int[producers];
+        Arrays.fill(last, -1);
+        long received = 0;
+        BluetoothWriteQueue.Packet out = new BluetoothWriteQueue.Packet();
+        boolean running = true;
+        while (running) {
+            running = false;
+            for (Thread thread : threads) running |= thread.isAlive();
+            while (queue.poll(out)) {
+                assertEquals(5, out.length);
+                final int id = out.data[0];
+                final int i = ((out.data[1] & 0xff) << 24) | ((out.data[2] & 0xff) << 16)
+                        | ((out.data[3] & 0xff) << 8) | (out.data[4] & 0xff);
+                assertTrue("producer " + id + " packet " + i + " after " + last[id], i > last[id]);
+                last[id] = i;
+                received++;
+            }
+        }
+        for (Thread thread : threads) thread.join();
+
+        assertEquals((long) producers * perProducer, received + queue.getOverflowDrops());
+        assertEquals(0, queue.getSupersededDrops());
+    }
+}
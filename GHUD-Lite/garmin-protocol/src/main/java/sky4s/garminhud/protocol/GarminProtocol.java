@@ -0,0 +1,329 @@
+package sky4s.garminhud.protocol;
+
+/**
+ * Garmin HUD commands, shared by every app talking to the HUD.
+ * <p>
+ * Payloads are built into a {@link GarminFrameEncoder}, checked against a
+ * {@link GarminShadowState} so a payload already on the HUD is not sent again, and handed to a
+ * {@link HudTransport}. Nothing here depends on Android, the whole send path runs on a plain JVM.
+ * All commands are synchronized, the encoder is shared.
+ */
+public class GarminProtocol {
+    // ===========================================================================================
+    // units, same values as eUnits
+    // ===========================================================================================
+    public static final int UNIT_NONE = 0;
+    public static final int UNIT_METRES = 1;
+    public static final int UNIT_KILOMETRES = 3;
+    public static final int UNIT_MILES = 5;
+    public static final int UNIT_FOOT = 8;
+
+    // ===========================================================================================
+    // arrow type and angle, same values as eOutType / eOutAngle
+    // ===========================================================================================
+    public static final int TYPE_OFF = 0x00;
+    public static final int TYPE_LANE = 0x01;
+    public static final int TYPE_LONGER_LANE = 0x02;
+    public static final int TYPE_LEFT_ROUNDABOUT = 0x04;
+    public static final int TYPE_RIGHT_ROUNDABOUT = 0x08;
+    public static final int TYPE_ARROW_ONLY = 0x80;
+
+    public static final int ANGLE_AS_DIRECTION = 0x00;
+    public static final int ANGLE_LEFT_DOWN = 0x81;
+    public static final int ANGLE_RIGHT_DOWN = 0x82;
+
+    private static final byte[] AUTO_BRIGHTNESS_COMMAND = { 0x10, 0x7B, 0x0E, 0x08, 0x00, 0x00, 0x00, 0x56, 0x15,
+            0x02, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x02, 0x10, 0x03 };
+
+    private final HudTransport mTransport;
+    private final GarminFrameEncoder mEncoder = new GarminFrameEncoder();
+    private final GarminShadowState mShadowState = new GarminShadowState();
+    private boolean mSendResult = false;
+
+    public GarminProtocol(HudTransport transport) {
+        mTransport = transport;
+    }
+
+    /**
+     * @return digit code of the last decimal digit of n, the HUD shows 0 as 10 (0 is blank)
+     */
+    public static int toDigit(int n) {
+        n = n % 10;
+        if (n == 0)
+            return 10;
+        else
+            return n;
+    }
+
+    public GarminShadowState getShadowState() {
+        return mShadowState;
+    }
+
+    /**
+     * Forget what the HUD shows, call when the link is (re)established.
+     */
+    public void invalidate() {
+        mShadowState.invalidate();
+    }
+
+    /**
+     * @return false if the last command was refused by the transport
+     */
+    public synchronized boolean getSendResult() {
+        return mSendResult;
+    }
+
+    /**
+     * Encode the payload accumulated in mEncoder and send it, unless the HUD already shows it.
+     * Callers must hold the lock of this object.
+     */
+    private void sendToHud() {
+        final long now = System.currentTimeMillis();
+        final byte[] payload = mEncoder.getPayload();
+        final int payloadLength = mEncoder.getPayloadLength();
+        if (!mShadowState.isChanged(payload, payloadLength, now)) {
+            mSendResult = true;
+            return;
+        }
+        final int len = mEncoder.encode();
+        mSendResult = mTransport.send(mEncoder.getFrame(), 0, len, mEncoder.getCommand());
+        if (mSendResult) {
+            mShadowState.markSent(payload, payloadLength, now);
+        }
+    }
+
+    // ===========================================================================================
+    // time
+    // ===========================================================================================
+    public synchronized void setTime(int nH, int nM, boolean bFlag, boolean bTraffic, boolean bColon, boolean bH) {
+        mEncoder.begin(0x05)
+                .put(bTraffic)
+                .put(toDigit(nH / 10)).put(toDigit(nH)) // hour
+                .put(bColon) // :
+                .put(toDigit(nM / 10)).put(toDigit(nM)) // minute
+                .put(bH) // post-fix 'h'
+                .put(bFlag);
+        sendToHud();
+    }
+
+    public synchronized void setRemainTime(int nH, int nM, boolean bTraffic) {
+        final boolean bH = false;
+        final boolean bFlag = true;
+
+        boolean noHour = 0 == nH;
+        boolean minLessThen10 = noHour && nM < 10;
+        mEncoder.begin(0x05)
+                .put(bTraffic)
+                .put(noHour ? 0 : toDigit(nH / 10)) // hour n_
+                .put(noHour ? 0 : toDigit(nH)) // hour _n
+                .put(noHour ? 0 : 0xff) // :
+                .put(minLessThen10 ? 0 : toDigit(nM / 10)) // minute n_
+                .put(toDigit(nM)) // minute _n
+                .put(bH) // post-fix 'h'
+                .put(bFlag);
+        sendToHud();
+    }
+
+    public synchronized void clearTime() {
+        mEncoder.begin(0x05)
+                .put(0x00)
+                .put(0).put(0)
+                .put(0x00)
+                .put(0).put(0)
+                .put(0x00);
+        sendToHud();
+    }
+
+    // ===========================================================================================
+    // distance
+    // ===========================================================================================
+
+    /**
+     * @param unit one of UNIT_*, kilometres and miles below 10 are shown with one decimal
+     */
+    public synchronized void setDistance(float nDist, int unit) {
+        int distance = (int) nDist;
+        boolean hasDecimal = ((UNIT_KILOMETRES == unit) || (UNIT_MILES == unit)) && nDist < 10;
+        if (hasDecimal) {
+            distance = (int) (nDist * 10.0);
+        }
+        int d1 = toDigit(distance / 1000), d2 = toDigit(distance / 100), d3 = toDigit(distance / 10);
+
+        if (d1 == 0xa) {
+            d1 = 0;
+            if (d2 == 0xa) {
+                d2 = 0;
+                if (d3 == 0xa) {
+                    d3 = 0;
+                }
+            }
+        }
+        if (hasDecimal && (distance / 10) == 0) {
+            // Show leding zero for decimals
+            d3 = 0xa;
+        }
+
+        setDistanceDigits(d1, d2, d3, hasDecimal, toDigit(distance), unit);
+    }
+
+    /**
+     * Raw distance field: digit codes (see {@link #toDigit(int)}, 0 is blank) shown as
+     * d1 d2 d3 [.] d4 followed by the unit.
+     */
+    public synchronized void setDistanceDigits(int d1, int d2, int d3, boolean decimal, int d4, int unit) {
+        mEncoder.begin(0x03)
+                .put(d1).put(d2).put(d3)
+                .put(decimal).put(d4).put(unit);
+        sendToHud();
+    }
+
+    public synchronized void clearDistance() {
+        setDistanceDigits(0, 0, 0, false, 0, UNIT_NONE);
+    }
+
+    public synchronized void setAlphabet(char a, char b, char c, char d) {
+        if (a == 0xa) {
+            a = 0;
+            if (b == 0xa) {
+                b = 0;
+                if (c == 0xa) {
+                    c = 0;
+                }
+            }
+        }
+        setDistanceDigits(a, b, c, false, d, UNIT_NONE);
+    }
+
+    // ===========================================================================================
+    // direction
+    // ===========================================================================================
+    /*
+     * byte0: header 0x01
+     *
+     * byte1: Line 箭頭長度, eOutAngle
+     * 0x00 Off
+     * 0x01 Lane
+     * 0x02 LongerLane
+     * 0x04 LeftRoundabout
+     * 0x08 RightRoundabout
+     * 0x10 LeftDown*
+     * 0x20 RightDown*
+     * 0x40 RightFlag
+     * 0x80 ArrowOnly
+     *
+     * byte2: When Roundabout, eOutAngle:nRoundaboutOut or eOutType:nType
+     *
+     * byte3: When not LeftDown/RightDown, 箭頭方向: eOutAngle
+     */
+
+    /**
+     * @param nDir           箭頭, ANGLE_* / eOutAngle value
+     * @param nType          圓環方向, TYPE_* / eOutType value
+     * @param nRoundaboutOut 圓環out, ANGLE_AS_DIRECTION to use nDir
+     */
+    public synchronized void setDirection(int nDir, int nType, int nRoundaboutOut) {
+        final boolean down = nDir == ANGLE_LEFT_DOWN || nDir == ANGLE_RIGHT_DOWN;
+        mEncoder.begin(0x01)
+                .put((nDir == ANGLE_LEFT_DOWN) ? 0x10
+                        : ((nDir == ANGLE_RIGHT_DOWN) ? 0x20 : nType))
+                .put((nType == TYPE_RIGHT_ROUNDABOUT || nType == TYPE_LEFT_ROUNDABOUT)
+                        ? ((nRoundaboutOut == ANGLE_AS_DIRECTION) ? nDir : nRoundaboutOut)
+                        : 0x00)
+                .put(down ? 0x00 : nDir);
+        sendToHud();
+    }
+
+    public synchronized void clearDirection() {
+        setDirection(ANGLE_AS_DIRECTION, TYPE_OFF, ANGLE_AS_DIRECTION);
+    }
+
+    public synchronized void setLanes(char nArrow, char nOutline) {
+        mEncoder.begin(0x02).put(nOutline).put(nArrow);
+        sendToHud();
+    }
+
+    // ===========================================================================================
+    // speed
+    // ===========================================================================================
+    public synchronized void setSpeed(int nSpeed, boolean bIcon) {
+        final boolean bSlash = false;
+        final boolean bSpeeding = false;
+
+        int hundredsDigit, tensDigit, onesDigit;
+        if (nSpeed < 10) {
+            // Delete leading zeros
+            hundredsDigit = 0x00;
+            tensDigit = 0x00;
+        } else {
+            hundredsDigit = (nSpeed / 100) % 10;
+            tensDigit = toDigit(nSpeed / 10);
+        }
+        onesDigit = toDigit(nSpeed);
+
+        mEncoder.begin(0x06)
+                .put(0x00).put(0x00).put(0x00).put(bSlash)
+                .put(hundredsDigit).put(tensDigit).put(onesDigit).put(bSpeeding)
+                .put(bIcon);
+        sendToHud();
+    }
+
+    public synchronized void setSpeedWarning(int nSpeed, int nLimit, boolean bSpeeding, boolean bIcon, boolean bSlash) {
+        mEncoder.begin(0x06)
+                .put((nSpeed / 100) % 10).put(toDigit(nSpeed / 10)).put(toDigit(nSpeed)).put(bSlash)
+                .put((nLimit / 100) % 10).put(toDigit(nLimit / 10)).put(toDigit(nLimit))
+                .put(bSpeeding)
+                .put(bIcon);
+        sendToHud();
+    }
+
+    /**
+     * Speed with the limit behind a slash, leading zeros blanked.
+     *
+     * @param nLimit 0 or less shows the speed alone
+     */
+    public synchronized void setSpeedAndLimit(int nSpeed, int nLimit, boolean bSpeeding, boolean bIcon) {
+        final boolean hasLimit = nLimit > 0;
+        mEncoder.begin(0x06)
+                .put((nSpeed / 100) % 10).put(nSpeed < 10 ? 0 : toDigit(nSpeed / 10)).put(toDigit(nSpeed))
+                .put(hasLimit)
+                .put(hasLimit ? (nLimit / 100) % 10 : 0)
+                .put(hasLimit && nLimit >= 10 ? toDigit(nLimit / 10) : 0)
+                .put(hasLimit ? toDigit(nLimit) : 0)
+                .put(bSpeeding)
+                .put(bIcon);
+        sendToHud();
+    }
+
+    public synchronized void clearSpeedAndWarning() {
+        mEncoder.begin(0x06)
+                .put(0x00).put(0x00).put(0x00).put(0x00)
+                .put(0x00).put(0x00).put(0x00).put(0x00)
+                .put(0x00);
+        sendToHud();
+    }
+
+    // ===========================================================================================
+    // icons
+    // ===========================================================================================
+    public synchronized void setCameraIcon(boolean visible) {
+        mEncoder.begin(0x04).put(visible ? 1 : 0);
+        sendToHud();
+    }
+
+    public synchronized void setGpsLabel(boolean visible) {
+        mEncoder.begin(0x07).put(visible ? 1 : 0);
+        sendToHud();
+    }
+
+    // ===========================================================================================
+    // brightness, never deduplicated
+    // ===========================================================================================
+    public synchronized void setAutoBrightness() {
+        mSendResult = mTransport.send(AUTO_BRIGHTNESS_COMMAND, 0, AUTO_BRIGHTNESS_COMMAND.length, -1);
+    }
+
+    public synchronized void setBrightness(int brightness) {
+        final int len = mEncoder.encodeBrightness(brightness);
+        mSendResult = mTransport.send(mEncoder.getFrame(), 0, len, -1);
+    }
+}
@@ -0,0 +1,68 @@
+package sky4s.garminhud;
+
+public enum Arrow {
+    Arrivals(1157442937613201408L,4046528486445154304L),
+    ArrivalsLeft(6363696276412435456L,6962811590942668288L),
+    ArrivalsRight(3896836613252079616L,872024924438452224L),
+    Convergence(5505712186103173120L,1168701902593477632L),
+    EasyLeft(4629771062305364992L,8084009726888903680L),
+    EasyRight(289360692026306560L,1745259480771215360L),
+    GoTo(4521708150063104L,4565550505132032L),
+    KeepLeft(1157442799634484224L,6944586016205312000L),
+    KeepRight(1157442903121879040L,868077693257650176L),
+    LeaveRoundabout(145254316953307136L,2319389131530076160L),
+    LeaveRoundaboutAsUTurn(2916124912268359680L,4056701099174275072L),
+    LeaveRoundaboutAsUTurnCC(2898110788634687488L,4056701099711145984L),
+    LeaveRoundaboutCC(54148887965868032L,583229380445472256L),
+    LeaveRoundaboutEasyLeft(1155177719848633856L,4665835043026898960L),
+    LeaveRoundaboutEasyLeftCC(3485997768784610816L,4681531420908982288L),
+    LeaveRoundaboutEasyRight(1732766580090650624L,468031866602008624L),
+    LeaveRoundaboutEasyRightCC(1180013747616399360L,436299425289613360L),
+    LeaveRoundaboutLeft(4629806193895014400L,18278659459386380L),
+    LeaveRoundaboutLeftCC(4629771630155329536L,2230093555979521036L),
+    LeaveRoundaboutRight(868082327036763648L,8115098127117074496L),
+    LeaveRoundaboutRightCC(868082369943306240L,1159110208798784L),
+    LeaveRoundaboutSharpLeft(2315463993654771712L,35703930492952L),
+    LeaveRoundaboutSharpLeftCC(2318839754340726784L,4334191466156394504L),
+    LeaveRoundaboutSharpRight(641983038844451840L,8685412231126851616L),
+    LeaveRoundaboutSharpRightCC(1772404188400058368L,258438340640L),
+    LeaveRoundaboutStraight(1732773254121656320L,1168737361977159696L),
+    LeaveRoundaboutStraightCC(3485856686759481344L,1168701798770022416L),
+    Left(4665941148185659392L,2340785505991656448L),
+    LeftDown(19224197586223104L,15838345884336128L),
+    LeftToLeave(4665799858519281664L,2337429830863422464L),
+    Right(289360692970790912L,647613176627642368L),
+    RightDown(19216045738295296L,15837701638979584L),
+    RightToLeave(289360727665278976L,1737325404873605120L),
+    SharpLeft(4629771114118135808L,296239648412532736L),
+    SharpRight(289361105548739584L,4638809167476293632L),
+    Straight(1157442765411848192L,1168701764477652992L),
+
+
+    None(0);
+
+    public final long valueLeft;
+    public final long valueRight;
+
+    /**
+     * valueLeft of every constant, in values() order, the table searched by ArrowMatcher
+     */
+    public static final long[] VALUES_LEFT;
+
+    static {
+        final Arrow[] arrows = values();
+        VALUES_LEFT = new long[arrows.length];
+        for (int i = 0; i < arrows.length; i++) {
+            VALUES_LEFT[i] = arrows[i].valueLeft;
+        }
+    }
+
+    Arrow(long value) {
+        this.valueLeft = value;
+        this.valueRight = 0;
+    }
+    Arrow(long valueLeft, long valueRight) {
+        this.valueLeft = valueLeft;
+        this.valueRight = valueRight;
+    }
+}
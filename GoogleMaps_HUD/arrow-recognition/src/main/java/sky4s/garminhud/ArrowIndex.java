@@ -0,0 +1,92 @@
+package sky4s.garminhud;
+
+/**
+ * Fingerprint table prepared for lookups. Navigation apps draw the same icon every time, so
+ * most fingerprints are in the table exactly: that is a binary search over the sorted
+ * fingerprints. Anything else falls back to the popcount scan of {@link ArrowMatcher}.
+ * <p>
+ * Immutable after construction, can be shared between threads.
+ */
+public final class ArrowIndex {
+    private final long[] mTable;
+    // masked fingerprints ascending, ties in table order, and where they are in mTable
+    private final long[] mSortedKeys;
+    private final int[] mSortedIndices;
+
+    /**
+     * @param table e.g. {@link Arrow#VALUES_LEFT}, must not be empty; not copied, don't modify
+     */
+    public ArrowIndex(long[] table) {
+        mTable = table;
+        mSortedKeys = new long[table.length];
+        mSortedIndices = new int[table.length];
+        // insertion sort, a few dozen entries once; stable, so the first entry wins like in match
+        for (int i = 0; i < table.length; i++) {
+            final long key = table[i] & ArrowMatcher.FINGERPRINT_MASK;
+            int j = i;
+            for (; j > 0 && mSortedKeys[j - 1] > key; j--) {
+                mSortedKeys[j] = mSortedKeys[j - 1];
+                mSortedIndices[j] = mSortedIndices[j - 1];
+            }
+            mSortedKeys[j] = key;
+            mSortedIndices[j] = i;
+        }
+    }
+
+    /**
+     * Concatenate tables, e.g. Arrow and ArrowV2, indices of the second start after the first.
+     */
+    public static long[] concat(long[]... tables) {
+        int length = 0;
+        for (long[] table : tables) {
+            length += table.length;
+        }
+        long[] all = new long[length];
+        int offset = 0;
+        for (long[] table : tables) {
+            System.arraycopy(table, 0, all, offset, table.length);
+            offset += table.length;
+        }
+        return all;
+    }
+
+    public int size() {
+        return mTable.length;
+    }
+
+    /**
+     * @return the same as {@link ArrowMatcher#match(long[], long)} on the table, read it with
+     * {@link ArrowMatcher#getIndex(int)} and {@link ArrowMatcher#getSAD(int)}
+     */
+    public int match(long fingerprint) {
+        final int exact = find(fingerprint & ArrowMatcher.FINGERPRINT_MASK);
+        if (-1 != exact) {
+            // SAD 0 packs to the index alone
+            return exact;
+        }
+        return ArrowMatcher.match(mTable, fingerprint);
+    }
+
+    /**
+     * @return table index of the first entry equal to key, -1 if there is none
+     */
+    private int find(long key) {
+        int low = 0;
+        int high = mSortedKeys.length - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            if (mSortedKeys[mid] < key) {
+                low = mid + 1;
+            } else if (mSortedKeys[mid] > key) {
+                high = mid - 1;
+            } else {
+                int first = mid;
+                while (first > 0 && mSortedKeys[first - 1] == key) {
+                    first--;
+                }
+                return mSortedIndices[first];
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,68 @@
+package sky4s.garminhud;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Labelled 8x8 fingerprints in a small binary file, written by the arrow trainer and searched
+ * with {@link ArrowMatcher#match(long[], long)} like {@link Arrow#VALUES_LEFT}.
+ * <p>
+ * Format, big endian: "ARRW", version (int), count (int), then per entry the label
+ * (modified UTF-8, as DataOutput.writeUTF) and the fingerprint (long).
+ */
+public final class ArrowTable {
+    private static final int MAGIC = 0x41525257; // ARRW
+    private static final int VERSION = 1;
+
+    public final String[] labels;
+    public final long[] fingerprints;
+
+    public ArrowTable(String[] labels, long[] fingerprints) {
+        if (labels.length != fingerprints.length) {
+            throw new IllegalArgumentException("labels: " + labels.length + " fingerprints: " + fingerprints.length);
+        }
+        this.labels = labels;
+        this.fingerprints = fingerprints;
+    }
+
+    public int size() {
+        return labels.length;
+    }
+
+    public void write(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(labels.length);
+        for (int i = 0; i < labels.length; i++) {
+            data.writeUTF(labels[i]);
+            data.writeLong(fingerprints[i]);
+        }
+        data.flush();
+    }
+
+    public static ArrowTable read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (MAGIC != data.readInt()) {
+            throw new IOException("not an arrow table");
+        }
+        final int version = data.readInt();
+        if (VERSION != version) {
+            throw new IOException("unsupported arrow table version " + version);
+        }
+        final int count = data.readInt();
+        if (count < 0) {
+            throw new IOException("bad arrow table size " + count);
+        }
+        String[] labels = new String[count];
+        long[] fingerprints = new long[count];
+        for (int i = 0; i < count; i++) {
+            labels[i] = data.readUTF();
+            fingerprints[i] = data.readLong();
+        }
+        return new ArrowTable(labels, fingerprints);
+    }
+}
@@ -0,0 +1,69 @@
+package sky4s.garminhud;
+
+public enum ArrowV2 {
+    Arrivals(1157442937613201408L,4046528486445154304L),
+    ArrivalsLeft(5832403693740229120L,22536296108785664L),
+    ArrivalsRight(1593841627717214208L,149764895379816448L),
+    Convergence(4611730069626290176L,1166520333813940224L),
+    EasyLeft(4629770923388966912L,8097560125369483264L),
+    EasyRight(289356311766790144L,4037494796640583680L),
+    GoTo(1157425174968008704L,1166520333138657280L),
+    KeepLeft(68921072640L,8088500183848976384L),
+    KeepRight(69260570624L,2021012391736639488L),
+    LeaveRoundabout(288239241236320256L,1168701764749230080L),
+    LeaveRoundaboutAsUTurn(590050750921447424L,3479039508842283008L),
+    LeaveRoundaboutAsUTurnCC(2312638129720799232L,4035269385776529408L),
+    LeaveRoundaboutCC(4629735671374286848L,1168701764342644736L),
+    LeaveRoundaboutEasyLeft(2319353808163707904L,8097560228919771136L),
+    LeaveRoundaboutEasyLeftCC(2332935251338468352L,8088526520656068608L),
+    LeaveRoundaboutEasyRight(578716968287236096L,2021118152085078016L),
+    LeaveRoundaboutEasyRightCC(583216428237221888L,2021012323017162752L),
+    LeaveRoundaboutLeft(4629810376723136512L,18278832331292672L),
+    LeaveRoundaboutLeftCC(4629775744258539520L,21658739530792960L),
+    LeaveRoundaboutRight(289431603381010432L,64209848052482048L),
+    LeaveRoundaboutRightCC(289440390849757184L,1159040952434688L),
+    LeaveRoundaboutSharpLeft(2018751795827834880L,69395283968L),
+    LeaveRoundaboutSharpLeftCC(6648522583932141568L,5647178160668672L),
+    LeaveRoundaboutSharpRight(8088500201332670464L,22676672688160768L),
+    LeaveRoundaboutSharpRightCC(8088500183848976384L,68921065472L),
+    LeaveRoundaboutStraight(1159685734772772864L,3483587088332357632L),
+    LeaveRoundaboutStraightCC(1166432441200021504L,3483560734545149952L),
+    Left(36178899649953792L,18291758941208576L),
+    LeftDown(38452707048554496L,1739551297968799744L),
+    LeftToLeave(4665799858519281664L,2337429830863422464L),
+    Right(144680624752427008L,1265007463497728L),
+    RightDown(153811377933516800L,2326259327859949568L),
+    RightToLeave(289360727665278976L,1737325404873605120L),
+    SharpLeft(40117376378732544L,3536719810920448L),
+    SharpRight(207942534155730944L,27180513777156096L),
+    Straight(1157442767154053120L,1166520333408141312L),
+
+
+
+    None(0);
+
+    public final long valueLeft;
+    public final long valueRight;
+
+    /**
+     * valueLeft of every constant, in values() order, the table searched by ArrowMatcher
+     */
+    public static final long[] VALUES_LEFT;
+
+    static {
+        final ArrowV2[] arrows = values();
+        VALUES_LEFT = new long[arrows.length];
+        for (int i = 0; i < arrows.length; i++) {
+            VALUES_LEFT[i] = arrows[i].valueLeft;
+        }
+    }
+
+    ArrowV2(long value) {
+        this.valueLeft = value;
+        this.valueRight = 0;
+    }
+    ArrowV2(long valueLeft, long valueRight) {
+        this.valueLeft = valueLeft;
+        this.valueRight = valueRight;
+    }
+}
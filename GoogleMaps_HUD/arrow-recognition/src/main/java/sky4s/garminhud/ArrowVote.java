@@ -0,0 +1,70 @@
+package sky4s.garminhud;
+
+/**
+ * Small voting window over the arrows recognized for consecutive notifications, so a single
+ * misrecognized icon (e.g. KeepLeft, EasyLeft, KeepLeft) never reaches the HUD.
+ * <ul>
+ * <li>a sure recognition is taken at once, real maneuver changes aren't delayed</li>
+ * <li>an unsure one is taken once it holds the majority of the window, also when no arrow is
+ * shown yet (the first icons of a route are often the misrecognized ones)</li>
+ * <li>nothing usable recognized (null or the none value) is a vote for none: an icon the tables
+ * don't know clears the arrow once it holds the majority, instead of keeping the last one</li>
+ * </ul>
+ * One per navigation session, {@link #reset()} when it ends. Not thread safe.
+ */
+public class ArrowVote<T> {
+    private final T mNone;
+    private final Object[] mWindow;
+    private int mNext = 0;
+    private T mCurrent;
+
+    /**
+     * @param window how many recognitions are kept
+     * @param none   the "no arrow" value, returned before anything was recognized
+     */
+    public ArrowVote(int window, T none) {
+        mWindow = new Object[Math.max(1, window)];
+        mNone = none;
+        mCurrent = none;
+    }
+
+    /**
+     * @param candidate what was recognized for the latest icon, null if nothing usable
+     * @param sure      the recognition is unambiguous, ignored for null / none
+     * @return the arrow to show
+     */
+    public T vote(T candidate, boolean sure) {
+        if (null == candidate) {
+            candidate = mNone;
+        }
+        mWindow[mNext] = candidate;
+        mNext = (mNext + 1) % mWindow.length;
+
+        if (sure && mNone != candidate) {
+            mCurrent = candidate;
+            return mCurrent;
+        }
+        int votes = 0;
+        for (Object vote : mWindow) {
+            if (candidate == vote) {
+                votes++;
+            }
+        }
+        if (votes > mWindow.length / 2) {
+            mCurrent = candidate;
+        }
+        return mCurrent;
+    }
+
+    public T get() {
+        return mCurrent;
+    }
+
+    public void reset() {
+        for (int i = 0; i < mWindow.length; i++) {
+            mWindow[i] = null;
+        }
+        mNext = 0;
+        mCurrent = mNone;
+    }
+}
@@ -0,0 +1,156 @@
+package sky4s.garminhud;
+
+/**
+ * Full resolution template matching on the green channel, used for the ArrowV2 templates.
+ * <p>
+ * Templates and input are packed into one byte per pixel, so matching is a plain loop over
+ * two byte[]s. Most of the templates are given up early:
+ * <ol>
+ * <li>coarse pass: SAD of every 8th row for all templates</li>
+ * <li>the template with the smallest coarse SAD is finished first, its full SAD is the bound</li>
+ * <li>every other template continues from its coarse SAD with the remaining rows, interleaved
+ * so that the whole arrow is covered quickly, and is dropped as soon as it exceeds the bound</li>
+ * </ol>
+ * The result is the same as computing every SAD in full: the first template with the smallest
+ * SAD wins. Not thread safe, keeps scratch state.
+ */
+public final class GreenTemplateMatcher {
+    private static final int ROW_STEP = 8;
+
+    private final byte[][] mTemplates;
+    private final int mWidth;
+    private final int mHeight;
+    private final int[] mSad;
+
+    /**
+     * @param templates green of the templates, see {@link #extractGreen(int[], int, byte[])}; all
+     *                  width * height bytes, others are never matched
+     */
+    public GreenTemplateMatcher(byte[][] templates, int width, int height) {
+        mTemplates = templates;
+        mWidth = width;
+        mHeight = height;
+        mSad = new int[templates.length];
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @param argb  pixels, e.g. from Bitmap.getPixels
+     * @param green receives (argb >> 8) & 0xff of the first length pixels
+     */
+    public static void extractGreen(int[] argb, int length, byte[] green) {
+        for (int i = 0; i < length; i++) {
+            green[i] = (byte) (argb[i] >> 8);
+        }
+    }
+
+    /**
+     * @param input green of the input, scaled to the template size
+     * @return index and SAD packed into a long, read them with {@link #getIndex(long)} and
+     * {@link #getSAD(long)}; index -1 if the input or no template has the right size
+     */
+    public long match(byte[] input) {
+        final int length = mWidth * mHeight;
+        final int count = mTemplates.length;
+        if (input.length < length) {
+            return pack(Integer.MAX_VALUE, -1);
+        }
+
+        // coarse pass, pick the candidate for the bound
+        int candidate = -1;
+        for (int t = 0; t < count; t++) {
+            if (mTemplates[t].length != length) {
+                mSad[t] = -1;
+                continue;
+            }
+            mSad[t] = addRows(input, mTemplates[t], 0, 0, Integer.MAX_VALUE);
+            if (-1 == candidate || mSad[t] < mSad[candidate]) {
+                candidate = t;
+            }
+        }
+        if (-1 == candidate) {
+            return pack(Integer.MAX_VALUE, -1);
+        }
+
+        int minIndex = candidate;
+        int minSad = finish(input, candidate, Integer.MAX_VALUE);
+        for (int t = 0; t < count; t++) {
+            if (t == candidate || -1 == mSad[t] || mSad[t] > minSad) {
+                continue;
+            }
+            final int sad = finish(input, t, minSad);
+            // ties go to the lower index, like a plain scan
+            if (sad < minSad || (sad == minSad && t < minIndex)) {
+                minSad = sad;
+                minIndex = t;
+            }
+        }
+        return pack(minSad, minIndex);
+    }
+
+    /**
+     * SAD of the input and one template, rows interleaved like in {@link #match(byte[])}.
+     *
+     * @return the full SAD, or a partial one above bound; -1 if the template has a different size
+     */
+    public int getSAD(byte[] input, int template, int bound) {
+        if (mTemplates[template].length != mWidth * mHeight || input.length < mWidth * mHeight) {
+            return -1;
+        }
+        int sad = 0;
+        for (int phase = 0; phase < ROW_STEP && sad <= bound; phase++) {
+            sad = addRows(input, mTemplates[template], phase, sad, bound);
+        }
+        return sad;
+    }
+
+    public int getTemplateCount() {
+        return mTemplates.length;
+    }
+
+    public static int getIndex(long result) {
+        return (int) result;
+    }
+
+    public static int getSAD(long result) {
+        return (int) (result >>> 32);
+    }
+
+    private static long pack(int sad, int index) {
+        return ((long) sad << 32) | (index & 0xffffffffL);
+    }
+
+    /**
+     * Add the rows not covered by the coarse pass to the coarse SAD of template t.
+     *
+     * @return the full SAD, or a partial one above bound
+     */
+    private int finish(byte[] input, int t, int bound) {
+        int sad = mSad[t];
+        for (int phase = 1; phase < ROW_STEP && sad <= bound; phase++) {
+            sad = addRows(input, mTemplates[t], phase, sad, bound);
+        }
+        return sad;
+    }
+
+    /**
+     * Add the SAD of rows phase, phase + ROW_STEP, ... to sad, stopping once it is above bound.
+     */
+    private int addRows(byte[] input, byte[] template, int phase, int sad, int bound) {
+        final int width = mWidth;
+        for (int row = phase; row < mHeight && sad <= bound; row += ROW_STEP) {
+            final int end = (row + 1) * width;
+            for (int i = row * width; i < end; i++) {
+                sad += Math.abs((input[i] & 0xff) - (template[i] & 0xff));
+            }
+        }
+        return sad;
+    }
+}
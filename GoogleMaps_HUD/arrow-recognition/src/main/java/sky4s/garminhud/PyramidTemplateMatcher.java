@@ -0,0 +1,105 @@
+package sky4s.garminhud;
+
+/**
+ * Coarse to fine template matching for the ArrowV2 templates.
+ * <ol>
+ * <li>coarse: the 8x8 fingerprint of the input against the fingerprints of all templates,
+ * one popcount each, keeps the closest few</li>
+ * <li>fine: full resolution green SAD ({@link GreenTemplateMatcher}) on those only</li>
+ * </ol>
+ * The fingerprints are computed from the templates with {@link ArrowFingerprint}, the same way
+ * as for the input, so they don't depend on the magic numbers in {@link ArrowV2}. The fine
+ * step is needed: some templates share a fingerprint (e.g. GoTo and Straight).
+ * <p>
+ * Not thread safe, keeps scratch state.
+ */
+public final class PyramidTemplateMatcher {
+    public static final int DEFAULT_SHORTLIST = 4;
+
+    private final long[] mFingerprints;
+    private final GreenTemplateMatcher mFine;
+    private final int[] mCandidates;
+    private final int[] mDistances;
+    private final byte[] mGreen;
+
+    /**
+     * @param templatePixels ARGB of the templates, all width * height, row by row
+     * @param shortlist      how many templates get the full resolution SAD
+     */
+    public PyramidTemplateMatcher(int[][] templatePixels, int width, int height, int shortlist) {
+        final int count = templatePixels.length;
+        mFingerprints = new long[count];
+        final byte[][] greens = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            final int[] pixels = templatePixels[i];
+            mFingerprints[i] = ArrowFingerprint.compute(pixels, 0, width, width, height);
+            greens[i] = new byte[pixels.length];
+            GreenTemplateMatcher.extractGreen(pixels, pixels.length, greens[i]);
+        }
+        mFine = new GreenTemplateMatcher(greens, width, height);
+        mCandidates = new int[Math.min(Math.max(shortlist, 1), Math.max(count, 1))];
+        mDistances = new int[mCandidates.length];
+        mGreen = new byte[width * height];
+    }
+
+    public PyramidTemplateMatcher(int[][] templatePixels, int width, int height) {
+        this(templatePixels, width, height, DEFAULT_SHORTLIST);
+    }
+
+    public int getWidth() {
+        return mFine.getWidth();
+    }
+
+    public int getHeight() {
+        return mFine.getHeight();
+    }
+
+    /**
+     * @param pixels ARGB of the input, scaled to the template size, row by row
+     */
+    public TemplateMatch match(int[] pixels) {
+        final int width = mFine.getWidth();
+        final int height = mFine.getHeight();
+        if (pixels.length < width * height) {
+            return new TemplateMatch(-1, Integer.MAX_VALUE, Integer.MAX_VALUE);
+        }
+
+        // coarse: keep the closest fingerprints, sorted by distance then index
+        final long fingerprint = ArrowFingerprint.compute(pixels, 0, width, width, height);
+        int shortlisted = 0;
+        for (int t = 0; t < mFingerprints.length; t++) {
+            final int distance = ArrowMatcher.getSAD(fingerprint, mFingerprints[t]);
+            if (shortlisted == mCandidates.length && distance >= mDistances[shortlisted - 1]) {
+                continue;
+            }
+            int i = shortlisted == mCandidates.length ? shortlisted - 1 : shortlisted++;
+            for (; i > 0 && mDistances[i - 1] > distance; i--) {
+                mDistances[i] = mDistances[i - 1];
+                mCandidates[i] = mCandidates[i - 1];
+            }
+            mDistances[i] = distance;
+            mCandidates[i] = t;
+        }
+
+        // fine: full SAD on the shortlist, keeping the runner-up exact for the confidence
+        GreenTemplateMatcher.extractGreen(pixels, width * height, mGreen);
+        int minIndex = -1;
+        int minSad = Integer.MAX_VALUE;
+        int secondSad = Integer.MAX_VALUE;
+        for (int i = 0; i < shortlisted; i++) {
+            final int t = mCandidates[i];
+            final int sad = mFine.getSAD(mGreen, t, secondSad);
+            if (-1 == sad || sad > secondSad) {
+                continue;
+            }
+            if (sad < minSad || (sad == minSad && t < minIndex)) {
+                secondSad = minSad;
+                minSad = sad;
+                minIndex = t;
+            } else {
+                secondSad = sad;
+            }
+        }
+        return new TemplateMatch(minIndex, minSad, secondSad);
+    }
+}
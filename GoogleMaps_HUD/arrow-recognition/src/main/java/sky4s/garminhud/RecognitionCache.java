@@ -0,0 +1,82 @@
+package sky4s.garminhud;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Small LRU map from the hash of a navigation icon to what was recognized for it.
+ * <p>
+ * Navigation apps repost the same maneuver icon with every distance update, so most lookups
+ * hit and skip the preprocessing and the SAD scan. Not thread safe.
+ */
+public class RecognitionCache<V> {
+    private final LinkedHashMap<Long, V> mMap;
+    private long mHits = 0;
+    private long mMisses = 0;
+
+    public RecognitionCache(final int capacity) {
+        mMap = new LinkedHashMap<Long, V>(capacity * 4 / 3 + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, V> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Hash of an icon: size and every pixel (FNV-1a, 64 bit). A hash over sampled pixels only
+     * would be cheaper, but two arrows differing between the samples would then share an entry.
+     *
+     * @param pixels ARGB, row by row without padding
+     */
+    public static long hashPixels(int[] pixels, int width, int height) {
+        long hash = 0xcbf29ce484222325L;
+        hash = (hash ^ width) * 0x100000001b3L;
+        hash = (hash ^ height) * 0x100000001b3L;
+        final int length = width * height;
+        for (int i = 0; i < length; i++) {
+            hash = (hash ^ pixels[i]) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * @return null on a miss
+     */
+    public V get(long key) {
+        final V value = mMap.get(key);
+        if (null == value) {
+            mMisses++;
+        } else {
+            mHits++;
+        }
+        return value;
+    }
+
+    public void put(long key, V value) {
+        mMap.put(key, value);
+    }
+
+    /**
+     * Drop all entries, e.g. when the recognition settings change; the counters are kept.
+     */
+    public void clear() {
+        mMap.clear();
+    }
+
+    public long getHitCount() {
+        return mHits;
+    }
+
+    public long getMissCount() {
+        return mMisses;
+    }
+
+    /**
+     * @return hits / lookups, 0 before the first lookup
+     */
+    public float getHitRate() {
+        final long lookups = mHits + mMisses;
+        return 0 == lookups ? 0 : mHits / (float) lookups;
+    }
+}
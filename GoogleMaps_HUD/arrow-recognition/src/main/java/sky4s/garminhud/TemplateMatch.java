@@ -0,0 +1,52 @@
+package sky4s.garminhud;
+
+/**
+ * Result of {@link PyramidTemplateMatcher}, {@link ArrowDescriptorIndex} and
+ * {@link ArrowMatcher#rank(long[], long)}: the best template and how sure we are. Immutable.
+ */
+public final class TemplateMatch {
+    /**
+     * index of the best template, -1 if nothing could be matched
+     */
+    public final int index;
+    public final int sad;
+    /**
+     * SAD, or distance, of the runner-up among the compared templates, Integer.MAX_VALUE if there was none
+     */
+    public final int secondSad;
+
+    public TemplateMatch(int index, int sad, int secondSad) {
+        this.index = index;
+        this.sad = sad;
+        this.secondSad = secondSad;
+    }
+
+    /**
+     * @return secondSad - sad, Integer.MAX_VALUE if there was no runner-up
+     */
+    public int getMargin() {
+        if (-1 == index) {
+            return 0;
+        }
+        return Integer.MAX_VALUE == secondSad ? Integer.MAX_VALUE : secondSad - sad;
+    }
+
+    /**
+     * Margin between the best and the runner-up: 0 when they are equally good, 1 for an exact
+     * match or when there was no runner-up.
+     */
+    public float getConfidence() {
+        if (-1 == index) {
+            return 0;
+        }
+        if (Integer.MAX_VALUE == secondSad || 0 == sad) {
+            return 1;
+        }
+        return 1 - sad / (float) secondSad;
+    }
+
+    @Override
+    public String toString() {
+        return index + " sad:" + sad + " conf:" + Math.round(getConfidence() * 100) + "%";
+    }
+}
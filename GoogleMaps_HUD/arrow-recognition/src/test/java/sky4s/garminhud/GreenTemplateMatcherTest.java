@@ -0,0 +1,145 @@
+package sky4s.garminhud;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class GreenTemplateMatcherTest {
+    private static final int WIDTH = 21;
+    private static final int HEIGHT = 19;
+
+    private static int fullSad(byte[] a, byte[] b) {
+        int sad = 0;
+        for (int i = 0; i < a.length; i++) {
+            sad += Math.abs((a[i] & 0xff) - (b[i] & 0xff));
+        }
+        return sad;
+    }
+
+    private static byte[] randomGreen(Random random) {
+        byte[] green = new byte[WIDTH * HEIGHT];
+        for (int i = 0; i < green.length; i++) {
+            // mostly white and black like the arrows, some antialiasing in between
+            green[i] = (byte) (0 == random.nextInt(4) ? random.nextInt(256) : random.nextBoolean() ? 0xff : 0);
+        }
+        return green;
+    }
+
+    /**
+     * Input near template t: a few pixels changed.
+     */
+    private static byte[] near(byte[] template, Random random) {
+        byte[] input = template.clone();
+        for (int changes = random.nextInt(40); changes > 0; changes--) {
+            input[random.nextInt(input.length)] = (byte) random.nextInt(256);
+        }
+        return input;
+    }
+
+    @Test
+    public void sameAsFullSad() {
+        final Random random = new Random(7);
+        for (int n = 0; n < 300; n++) {
+            final int count = 1 + random.nextInt(30);
+            byte[][] templates = new byte[count][];
+            for (int t = 0; t < count; t++) {
+                templates[t] = 0 == random.nextInt(10) && t > 0 ? templates[random.nextInt(t)].clone()
+                        : randomGreen(random);
+            }
+            final GreenTemplateMatcher matcher = new GreenTemplateMatcher(templates, WIDTH, HEIGHT);
+            for (int m = 0; m < 20; m++) {
+                final byte[] input = random.nextBoolean() ? randomGreen(random)
+                        : near(templates[random.nextInt(count)], random);
+                int minIndex = -1;
+                int minSad = Integer.MAX_VALUE;
+                for (int t = 0; t < count; t++) {
+                    final int sad = fullSad(input, templates[t]);
+                    assertEquals(sad, matcher.getSAD(input, t, Integer.MAX_VALUE));
+                    if (sad < minSad) {
+                        minSad = sad;
+                        minIndex = t;
+                    }
+                }
+                final long result = matcher.match(input);
+                assertEquals(minIndex, GreenTemplateMatcher.getIndex(result));
+                assertEquals(minSad, GreenTemplateMatcher.getSAD(result));
+            }
+        }
+    }
+
+    @Test
+    public void wrongSizesAreNeverMatched() {
+        final Random random = new Random(8);
+        final byte[] good = randomGreen(random);
+        final byte[][] templates = {new byte[WIDTH * HEIGHT - 1], good, new byte[0]};
+        final GreenTemplateMatcher matcher = new GreenTemplateMatcher(templates, WIDTH, HEIGHT);
+        assertEquals(1, GreenTemplateMatcher.getIndex(matcher.match(randomGreen(random))));
+        assertEquals(-1, matcher.getSAD(good, 0, Integer.MAX_VALUE));
+        assertEquals(-1, GreenTemplateMatcher.getIndex(matcher.match(new byte[WIDTH])));
+
+        final GreenTemplateMatcher none = new GreenTemplateMatcher(new byte[][]{new byte[3]}, WIDTH, HEIGHT);
+        assertEquals(-1, GreenTemplateMatcher.getIndex(none.match(good)));
+    }
+
+    @Test
+    public void pyramidWithFullShortlistIsFullSad() {
+        final Random random = new Random(9);
+        for (int n = 0; n < 100; n++) {
+            final int count = 2 + random.nextInt(20);
+            int[][] templatePixels = new int[count][];
+            byte[][] greens = new byte[count][];
+            for (int t = 0; t < count; t++) {
+                greens[t] = randomGreen(random);
+                templatePixels[t] = toArgb(greens[t]);
+            }
+            final PyramidTemplateMatcher pyramid = new PyramidTemplateMatcher(templatePixels, WIDTH, HEIGHT, count);
+            for (int m = 0; m < 20; m++) {
+                final byte[] input = near(greens[random.nextInt(count)], random);
+                int minIndex = -1;
+                int minSad = Integer.MAX_VALUE;
+                int secondSad = Integer.MAX_VALUE;
+                for (int t = 0; t < count; t++) {
+                    final int sad = fullSad(input, greens[t]);
+                    if (sad < minSad) {
+                        secondSad = minSad;
+                        minSad = sad;
+                        minIndex = t;
+                    } else if (sad < secondSad) {
+                        secondSad = sad;
+                    }
+                }
+                final TemplateMatch match = pyramid.match(toArgb(input));
+                assertEquals(minIndex, match.index);
+                assertEquals(minSad, match.sad);
+                assertEquals(secondSad, match.secondSad);
+            }
+        }
+    }
+
+    @Test
+    public void pyramidFindsExactTemplate() {
+        final Random random = new Random(10);
+        int[][] templatePixels = new int[30][];
+        for (int t = 0; t < templatePixels.length; t++) {
+            templatePixels[t] = toArgb(randomGreen(random));
+        }
+        final PyramidTemplateMatcher pyramid = new PyramidTemplateMatcher(templatePixels, WIDTH, HEIGHT);
+        for (int t = 0; t < templatePixels.length; t++) {
+            final TemplateMatch match = pyramid.match(templatePixels[t]);
+            assertEquals(t, match.index);
+            assertEquals(0, match.sad);
+        }
+        assertEquals(-1, pyramid.match(new int[WIDTH]).index);
+    }
+
+    private static int[] toArgb(byte[] green) {
+        int[] argb = new int[green.length];
+        for (int i = 0; i < green.length; i++) {
+            final int g = green[i] & 0xff;
+            argb[i] = 0xff000000 | (g << 16) | (g << 8) | g;
+        }
+        return argb;
+    }
+}
@@ -0,0 +1,394 @@
+package sky4s.garminhud.trainer;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.imageio.ImageIO;
+
+import sky4s.garminhud.ArrowFingerprint;
+import sky4s.garminhud.ArrowMatcher;
+import sky4s.garminhud.ArrowTable;
+
+/**
+ * Regenerates the Arrow / ArrowV2 fingerprint tables from labelled arrow images.
+ * <p>
+ * Input is a directory of PNGs, either named after the arrow (like assets/arrow3, Left.png) or
+ * sorted into one sub directory per arrow (Left/1.png, Left/2.png, e.g. dumps of
+ * ImageUtils.storeBitmap). Fingerprints are computed with {@link ArrowFingerprint}, the code
+ * ArrowImage runs on the device. With several images per arrow the one closest to the others
+ * goes into the table.
+ * <p>
+ * Always prints a report: images per arrow, collisions and the minimum Hamming distance between
+ * two arrows, and images the new table would recognize as another arrow.
+ * <p>
+ * The enum source keeps the constants of the existing enum, names, order and valueRight: labels
+ * are matched to them ignoring case (LeaveRoundaboutAsUturn.png is LeaveRoundaboutAsUTurn), only
+ * valueLeft is replaced, arrows without images keep theirs. A label the enum doesn't have, or two
+ * arrows with the same fingerprint, and nothing is written.
+ */
+public class ArrowTrainer {
+    private static final String USAGE = "usage: ArrowTrainer <image dir> [--enum <Name>] [--out <file>]"
+            + " [--table <file>] [--near <distance>]\n"
+            + "  --enum   print the enum source of the table, an existing enum, Arrow or ArrowV2\n"
+            + "  --out    write the enum source to this file instead of stdout\n"
+            + "  --table  write the binary table (sky4s.garminhud.ArrowTable)\n"
+            + "  --near   also list arrows at most this far apart, default 2";
+
+    private static class Sample {
+        final String label;
+        final File file;
+        final long fingerprint;
+
+        Sample(String label, File file, long fingerprint) {
+            this.label = label;
+            this.file = file;
+            this.fingerprint = fingerprint;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        File dir = null;
+        String enumName = null;
+        File enumFile = null;
+        File tableFile = null;
+        int near = 2;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--enum":
+                        enumName = args[++i];
+                        break;
+                    case "--out":
+                        enumFile = new File(args[++i]);
+                        break;
+                    case "--table":
+                        tableFile = new File(args[++i]);
+                        break;
+                    case "--near":
+                        near = Integer.parseInt(args[++i]);
+                        break;
+                    default:
+                        if (args[i].startsWith("--") || null != dir) {
+                            throw new IllegalArgumentException(args[i]);
+                        }
+                        dir = new File(args[i]);
+                }
+            }
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+            dir = null;
+        }
+        if (null == dir || !dir.isDirectory()) {
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        final Map<String, List<Sample>> samples = readSamples(dir);
+        if (samples.isEmpty()) {
+            System.err.println("no png in " + dir);
+            System.exit(1);
+            return;
+        }
+        final String[] labels = samples.keySet().toArray(new String[0]);
+        final long[] fingerprints = new long[labels.length];
+        for (int i = 0; i < labels.length; i++) {
+            fingerprints[i] = medoid(samples.get(labels[i]));
+        }
+
+        // the enum may go to stdout, keep the report apart
+        final int collisions = report(System.err, samples, labels, fingerprints, near);
+
+        if (null != enumName) {
+            if (0 != collisions) {
+                System.err.println("not writing " + enumName + ": " + collisions + " collisions");
+                System.exit(1);
+                return;
+            }
+            final String source;
+            try {
+                source = toEnumSource(enumName, labels, fingerprints);
+            } catch (IllegalArgumentException e) {
+                System.err.println("not writing " + enumName + ": " + e.getMessage());
+                System.exit(1);
+                return;
+            }
+            if (null == enumFile) {
+                System.out.print(source);
+            } else {
+                try (OutputStream out = new FileOutputStream(enumFile)) {
+                    out.write(source.getBytes("UTF-8"));
+                }
+                System.err.println("wrote " + enumFile);
+            }
+        }
+        if (null != tableFile) {
+            try (OutputStream out = new FileOutputStream(tableFile)) {
+                new ArrowTable(labels, fingerprints).write(out);
+            }
+            System.err.println("wrote " + tableFile + " (" + tableFile.length() + " bytes)");
+        }
+    }
+
+    private static Map<String, List<Sample>> readSamples(File dir) throws IOException {
+        final Map<String, List<Sample>> samples = new TreeMap<>();
+        final File[] files = dir.listFiles();
+        if (null == files) {
+            return samples;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            if (file.isDirectory()) {
+                final File[] children = file.listFiles();
+                if (null == children) {
+                    continue;
+                }
+                Arrays.sort(children);
+                for (File child : children) {
+                    addSample(samples, file.getName(), child);
+                }
+            } else {
+                final String name = file.getName();
+                final int dot = name.lastIndexOf('.');
+                addSample(samples, dot > 0 ? name.substring(0, dot) : name, file);
+            }
+        }
+        return samples;
+    }
+
+    private static void addSample(Map<String, List<Sample>> samples, String label, File file) throws IOException {
+        if (!file.isFile() || !file.getName().toLowerCase().endsWith(".png")) {
+            return;
+        }
+        final BufferedImage image = ImageIO.read(file);
+        if (null == image) {
+            System.err.println("skip " + file + ": not readable");
+            return;
+        }
+        final int width = image.getWidth();
+        final long fingerprint = ArrowFingerprint.compute(toArgb(image), 0, width, width, image.getHeight());
+        List<Sample> list = samples.get(label);
+        if (null == list) {
+            list = new ArrayList<>();
+            samples.put(label, list);
+        }
+        list.add(new Sample(label, file, fingerprint));
+    }
+
+    /**
+     * ARGB as Bitmap.getPixels returns it. BufferedImage.getRGB converts gray images through
+     * the linear gray color space, which shifts the levels the threshold works on, so gray and
+     * gray + alpha images are read from the raster.
+     */
+    private static int[] toArgb(BufferedImage image) {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final Raster raster = image.getRaster();
+        final int bands = raster.getNumBands();
+        if ((1 == bands || 2 == bands) && 8 == raster.getSampleModel().getSampleSize(0)) {
+            int[] argb = new int[width * height];
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    final int gray = raster.getSample(x, y, 0);
+                    final int alpha = 2 == bands ? raster.getSample(x, y, 1) : 0xff;
+                    argb[y * width + x] = (alpha << 24) | (gray << 16) | (gray << 8) | gray;
+                }
+            }
+            return argb;
+        }
+        return image.getRGB(0, 0, width, height, null, 0, width);
+    }
+
+    /**
+     * @return the fingerprint with the smallest total distance to the others of the same arrow
+     */
+    private static long medoid(List<Sample> samples) {
+        long best = samples.get(0).fingerprint;
+        int bestTotal = Integer.MAX_VALUE;
+        for (Sample a : samples) {
+            int total = 0;
+            for (Sample b : samples) {
+                total += ArrowMatcher.getSAD(a.fingerprint, b.fingerprint);
+            }
+            if (total < bestTotal) {
+                bestTotal = total;
+                best = a.fingerprint;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return the number of collisions, arrows with the same fingerprint
+     */
+    private static int report(PrintStream out, Map<String, List<Sample>> samples, String[] labels,
+                              long[] fingerprints, int near) {
+        int sampleCount = 0;
+        for (List<Sample> list : samples.values()) {
+            sampleCount += list.size();
+        }
+        out.println(labels.length + " arrows, " + sampleCount + " images");
+
+        for (int i = 0; i < labels.length; i++) {
+            final List<Sample> list = samples.get(labels[i]);
+            if (list.size() > 1) {
+                int spread = 0;
+                for (Sample sample : list) {
+                    spread = Math.max(spread, ArrowMatcher.getSAD(sample.fingerprint, fingerprints[i]));
+                }
+                out.println("  " + labels[i] + ": " + list.size() + " images, max distance to table " + spread);
+            }
+        }
+
+        int minDistance = Integer.MAX_VALUE;
+        int collisions = 0;
+        for (int i = 0; i < labels.length; i++) {
+            for (int j = i + 1; j < labels.length; j++) {
+                final int distance = ArrowMatcher.getSAD(fingerprints[i], fingerprints[j]);
+                minDistance = Math.min(minDistance, distance);
+                if (0 == distance) {
+                    collisions++;
+                    out.println("  collision: " + labels[i] + " = " + labels[j]);
+                } else if (distance <= near) {
+                    out.println("  near: " + labels[i] + " ~ " + labels[j] + " distance " + distance);
+                }
+            }
+        }
+        if (labels.length > 1) {
+            out.println("min distance between arrows: " + minDistance + ", collisions: " + collisions);
+        }
+
+        // what ArrowMatcher would make of every image with the new table
+        int wrong = 0;
+        for (List<Sample> list : samples.values()) {
+            for (Sample sample : list) {
+                final String found = labels[ArrowMatcher.getIndex(ArrowMatcher.match(fingerprints, sample.fingerprint))];
+                if (!found.equals(sample.label)) {
+                    wrong++;
+                    out.println("  " + sample.file + " recognized as " + found);
+                }
+            }
+        }
+        out.println("recognized as another arrow: " + wrong + "/" + sampleCount);
+        return collisions;
+    }
+
+    /**
+     * Same layout as Arrow.java / ArrowV2.java, None last. The constants are those of the existing
+     * enum sky4s.garminhud.&lt;name&gt;, see the class comment.
+     *
+     * @throws IllegalArgumentException no such enum, or a label it doesn't have
+     */
+    private static String toEnumSource(String name, String[] labels, long[] fingerprints) {
+        final Enum<?>[] constants = existingConstants(name);
+        final long[] valueLeft = new long[constants.length];
+        final long[] valueRight = new long[constants.length];
+        for (int i = 0; i < constants.length; i++) {
+            valueLeft[i] = getValue(constants[i], "valueLeft");
+            valueRight[i] = getValue(constants[i], "valueRight");
+        }
+
+        final List<String> unknown = new ArrayList<>();
+        for (int i = 0; i < labels.length; i++) {
+            int found = -1;
+            for (int c = 0; c < constants.length; c++) {
+                if (constants[c].name().equalsIgnoreCase(labels[i]) && !"None".equals(constants[c].name())) {
+                    found = c;
+                    break;
+                }
+            }
+            if (-1 == found) {
+                unknown.add(labels[i]);
+            } else {
+                valueLeft[found] = fingerprints[i];
+            }
+        }
+        if (!unknown.isEmpty()) {
+            throw new IllegalArgumentException("not in " + name + ": " + unknown);
+        }
+
+        StringBuilder source = new StringBuilder();
+        source.append("package sky4s.garminhud;\n\n");
+        source.append("public enum ").append(name).append(" {\n");
+        for (int i = 0; i < constants.length; i++) {
+            final String constant = constants[i].name();
+            if ("None".equals(constant)) {
+                continue;
+            }
+            source.append("    ").append(constant).append('(').append(valueLeft[i]).append('L');
+            if (0 != valueRight[i]) {
+                source.append(',').append(valueRight[i]).append('L');
+            }
+            source.append("),\n");
+        }
+        source.append("\n\n\n    None(0);\n\n");
+        source.append("    public final long valueLeft;\n");
+        source.append("    public final long valueRight;\n\n");
+        source.append("    /**\n");
+        source.append("     * valueLeft of every constant, in values() order, the table searched by ArrowMatcher\n");
+        source.append("     */\n");
+        source.append("    public static final long[] VALUES_LEFT;\n\n");
+        source.append("    static {\n");
+        source.append("        final ").append(name).append("[] arrows = values();\n");
+        source.append("        VALUES_LEFT = new long[arrows.length];\n");
+        source.append("        for (int i = 0; i < arrows.length; i++) {\n");
+        source.append("            VALUES_LEFT[i] = arrows[i].valueLeft;\n");
+        source.append("        }\n");
+        source.append("    }\n\n");
+        source.append("    ").append(name).append("(long value) {\n");
+        source.append("        this.valueLeft = value;\n");
+        source.append("        this.valueRight = 0;\n");
+        source.append("    }\n");
+        source.append("    ").append(name).append("(long valueLeft, long valueRight) {\n");
+        source.append("        this.valueLeft = valueLeft;\n");
+        source.append("        this.valueRight = valueRight;\n");
+        source.append("    }\n");
+        source.append("}\n");
+        return source.toString();
+    }
+
+    private static Enum<?>[] existingConstants(String name) {
+        if (!isIdentifier(name)) {
+            throw new IllegalArgumentException("not an enum name: " + name);
+        }
+        final Class<?> type;
+        try {
+            type = Class.forName("sky4s.garminhud." + name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException("no enum sky4s.garminhud." + name);
+        }
+        if (!type.isEnum()) {
+            throw new IllegalArgumentException("not an enum: " + type.getName());
+        }
+        return (Enum<?>[]) type.getEnumConstants();
+    }
+
+    private static long getValue(Enum<?> constant, String field) {
+        try {
+            return constant.getDeclaringClass().getField(field).getLong(constant);
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            throw new IllegalArgumentException(constant.getDeclaringClass().getName() + " has no " + field);
+        }
+    }
+
+    private static boolean isIdentifier(String label) {
+        if (label.isEmpty() || !Character.isJavaIdentifierStart(label.charAt(0))) {
+            return false;
+        }
+        for (int i = 1; i < label.length(); i++) {
+            if (!Character.isJavaIdentifierPart(label.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2014 Akexorcist
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package app.akexorcist.bluetotohspp.library;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+// Decides which device auto-connect tries next and how long it waits before that.
+// - the last known good address goes first, then the paired devices matching the keyword
+// - moving on to the next candidate is immediate, only a round where every candidate failed
+//   waits, BASE_DELAY_MS * 2^(failed rounds - 1) capped at MAX_DELAY_MS
+// - the wait is jittered (half fixed, half random) so retries don't run in lockstep with a
+//   HUD that is booting up after an engine restart
+// Only used from the main thread.
+class BluetoothReconnectPolicy {
+    static final long BASE_DELAY_MS = 500;
+    static final long MAX_DELAY_MS = 30000;
+
+    private final ArrayList<String> mAddresses = new ArrayList<String>();
+    private final ArrayList<String> mNames = new ArrayList<String>();
+    private final Random mRandom = new Random();
+    private int mIndex = 0;
+    private int mFailedRounds = 0;
+
+    // preferredAddress : tried first, may be null
+    // keyword : paired devices whose name contains it are candidates too, null for none
+    void setCandidates(String preferredAddress, String[] names, String[] addresses, String keyword) {
+        mAddresses.clear();
+        mNames.clear();
+        if (preferredAddress != null) {
+            String preferredName = preferredAddress;
+            for (int i = 0; i < addresses.length; i++) {
+                if (preferredAddress.equals(addresses[i]) && names[i] != null)
+                    preferredName = names[i];
+            }
+            mAddresses.add(preferredAddress);
+            mNames.add(preferredName);
+        }
+        if (keyword != null) {
+            for (int i = 0; i < addresses.length; i++) {
+                if (names[i] != null && names[i].contains(keyword)
+                        && !mAddresses.contains(addresses[i])) {
+                    mAddresses.add(addresses[i]);
+                    mNames.add(names[i]);
+                }
+            }
+        }
+        reset();
+    }
+
+    boolean isEmpty() {
+        return mAddresses.isEmpty();
+    }
+
+    String getAddress() {
+        return mAddresses.get(mIndex);
+    }
+
+    String getName() {
+        return mNames.get(mIndex);
+    }
+
+    // The current candidate failed, move to the next one
+    // Return the delay before trying it, in milliseconds
+    long next() {
+        if (mAddresses.isEmpty()) return MAX_DELAY_MS;
+        mIndex++;
+        if (mIndex < mAddresses.size()) return 0;
+        mIndex = 0;
+        mFailedRounds++;
+        final long delay = Math.min(MAX_DELAY_MS, BASE_DELAY_MS << Math.min(mFailedRounds - 1, 16));
+        return delay / 2 + (long) (mRandom.nextDouble() * (delay / 2));
+    }
+
+    // Start over from the preferred device without waiting
+    void reset() {
+        mIndex = 0;
+        mFailedRounds = 0;
+    }
+
+    // Make address the first candidate, used after it connected
+    void setPreferred(String address, String name) {
+        final int index = mAddresses.indexOf(address);
+        if (index >= 0) {
+            mAddresses.remove(index);
+            mNames.remove(index);
+        }
+        mAddresses.add(0, address);
+        mNames.add(0, name != null ? name : address);
+        reset();
+    }
+}
@@ -19,8 +19,11 @@ package app.akexorcist.bluetotohspp.library;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import android.annotation.SuppressLint;
 import android.bluetooth.BluetoothAdapter;
@@ -31,6 +34,7 @@ import android.content.Context;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
 import android.util.Log;
 
 @SuppressLint("NewApi")
@@ -53,8 +57,42 @@ public class BluetoothService {
     private AcceptThread mSecureAcceptThread;
     private ConnectThread mConnectThread;
     private ConnectedThread mConnectedThread;
-    private int mState;
+    private volatile int mState;
     private boolean isAndroid = BluetoothState.DEVICE_ANDROID;
+
+    // Incoming frames, see setFraming()
+    private static final int READ_BUFFER_SIZE = 1024;
+    private volatile int mFraming = BluetoothState.FRAMING_LINE;
+    private volatile BluetoothSPP.OnRawDataReceivedListener mRawDataListener = null;
+    private volatile boolean mPostReadMessages = true;
+
+    // Outgoing packets, drained by the WriterThread of the connection
+    private static final int WRITE_QUEUE_CAPACITY = 32;
+    private static final long WRITER_IDLE_NANOS = 100 * 1000 * 1000L;
+    private final BluetoothWriteQueue mWriteQueue = new BluetoothWriteQueue(WRITE_QUEUE_CAPACITY);
+    private volatile WriterThread mWriterThread;
+    // Open batches, see beginBatch()
+    private final AtomicInteger mBatchDepth = new AtomicInteger();
+
+    // Write metrics, only updated by the WriterThread
+    private static final int LATENCY_SAMPLES = 256;
+    private final Object mStatsLock = new Object();
+    private final long[] mLatencySamples = new long[LATENCY_SAMPLES];
+    private int mLatencySampleCount = 0;
+    private final AtomicLong mQueuedPacketCount = new AtomicLong();
+    private long mWrittenPacketCount = 0;
+    private long mFlushCount = 0;
+    private long mFlushedBytes = 0;
+    private long mFailedFlushCount = 0;
+    private long mFailedPacketCount = 0;
+    private long mRateWindowStart = 0;
+    private int mRateWindowFlushes = 0;
+    private float mFlushesPerSecond = 0;
+    // Reconnect timing, see getTimeToFirstFrameMillis()
+    private long mLinkDownTime = 0;
+    private boolean mAwaitFirstFrame = false;
+    private long mReconnectMillis = 0;
+    private long mTimeToFirstFrameMillis = 0;
         
     // Constructor. Prepares a new BluetoothChat session
     // context : The UI Activity Context
@@ -103,6 +141,11 @@ public class BluetoothService {
     // device : The BluetoothDevice to connect
     // secure : Socket Security type - Secure (true) , Insecure (false)
     public synchronized void connect(BluetoothDevice device) {
+        synchronized (mStatsLock) {
+            // First attempt of a connection that was not lost before
+            if (mLinkDownTime == 0) mLinkDownTime = SystemClock.elapsedRealtime();
+        }
+
         // Cancel any thread attempting to make a connection
         if (mState == BluetoothState.STATE_CONNECTING) {
             if (mConnectThread != null) {mConnectThread.cancel(); mConnectThread = null;}
@@ -136,10 +179,21 @@ public class BluetoothService {
             mSecureAcceptThread = null;
         }
 
+        // Drop whatever was queued for a previous connection
+        mWriteQueue.clear();
+        synchronized (mStatsLock) {
+            if (mLinkDownTime != 0) mReconnectMillis = SystemClock.elapsedRealtime() - mLinkDownTime;
+            mAwaitFirstFrame = true;
+        }
+
         // Start the thread to manage the connection and perform transmissions
         mConnectedThread = new ConnectedThread(socket, socketType);
         mConnectedThread.start();
 
+        // Connected before anybody hears about it, so frames sent from onDeviceConnected()
+        // are not dropped by write()
+        setState(BluetoothState.STATE_CONNECTED);
+
         // Send the name of the connected device back to the UI Activity
         Message msg = mHandler.obtainMessage(BluetoothState.MESSAGE_DEVICE_NAME);
         Bundle bundle = new Bundle();
@@ -147,12 +201,16 @@ public class BluetoothService {
         bundle.putString(BluetoothState.DEVICE_ADDRESS, device.getAddress());
         msg.setData(bundle);
         mHandler.sendMessage(msg);
-
-        setState(BluetoothState.STATE_CONNECTED);
     }
 
     // Stop all threads
     public synchronized void stop() {
+        synchronized (mStatsLock) {
+            // Closed on purpose, the next connection is not a reconnect
+            mLinkDownTime = 0;
+            mAwaitFirstFrame = false;
+        }
+
         if (mConnectThread != null) {
             mConnectThread.cancel();
             mConnectThread = null;
@@ -171,18 +229,230 @@ public class BluetoothService {
         setState(BluetoothState.STATE_NONE);
     }
 
-    // Write to the ConnectedThread in an unsynchronized manner
+    // Queue bytes for the WriterThread. Never blocks, the bytes are copied before returning
     // out : The bytes to write
     public void write(byte[] out) {
-        // Create temporary object
+        write(out, 0, out.length, BluetoothWriteQueue.TYPE_NONE);
+    }
+
+    // Queue a slice of a buffer for the WriterThread
+    // out : The buffer holding the bytes to write
+    // offset : The start offset in out
+    // length : The number of bytes to write
+    public void write(byte[] out, int offset, int length) {
+        write(out, offset, length, BluetoothWriteQueue.TYPE_NONE);
+    }
+
+    // Queue a slice of a buffer for the WriterThread
+    // type : 0..255, a queued packet is dropped when a newer packet of the same type arrives
+    //        before it was written, -1 to always write it
+    public void write(byte[] out, int offset, int length, int type) {
+        if (mState != BluetoothState.STATE_CONNECTED) return;
+        mWriteQueue.offer(out, offset, length, type, SystemClock.elapsedRealtime());
+        mQueuedPacketCount.incrementAndGet();
+        if (mBatchDepth.get() == 0) wakeWriter();
+    }
+
+    // Start collecting writes instead of sending them one by one. Everything written until the
+    // matching endBatch() is concatenated and flushed by the writer thread with a single
+    // OutputStream.write. Calls may nest, the outermost endBatch() flushes.
+    public void beginBatch() {
+        mBatchDepth.incrementAndGet();
+    }
+
+    public void endBatch() {
+        int depth;
+        do {
+            depth = mBatchDepth.get();
+            if (depth == 0) return;
+        } while (!mBatchDepth.compareAndSet(depth, depth - 1));
+        if (depth == 1) wakeWriter();
+    }
+
+    // Number of packets waiting for the WriterThread
+    public int getWriteQueueDepth() {
+        return mWriteQueue.getDepth();
+    }
+
+    // Packets dropped because the queue was full
+    public long getOverflowDropCount() {
+        return mWriteQueue.getOverflowDrops();
+    }
+
+    // Packets dropped because a newer packet of the same type was queued
+    public long getSupersededDropCount() {
+        return mWriteQueue.getSupersededDrops();
+    }
+
+    // Time from write() until the packet was written to the socket, in milliseconds,
+    // over the last LATENCY_SAMPLES packets
+    // percentile : 0..100
+    public long getWriteLatencyPercentile(int percentile) {
+        return getWriteLatencyPercentile(percentile, LATENCY_SAMPLES);
+    }
+
+    // Same as above over the newest lastSamples packets only, to follow quick changes of the link
+    public long getWriteLatencyPercentile(int percentile, int lastSamples) {
+        long[] samples;
+        synchronized (mStatsLock) {
+            final int count = Math.min(Math.min(mLatencySampleCount, LATENCY_SAMPLES), lastSamples);
+            if (count <= 0) return 0;
+            samples = new long[count];
+            for (int i = 0; i < count; i++) {
+                samples[i] = mLatencySamples[(mLatencySampleCount - 1 - i) % LATENCY_SAMPLES];
+            }
+        }
+        Arrays.sort(samples);
+        final int index = (int) Math.ceil(percentile / 100.0 * samples.length) - 1;
+        return samples[Math.max(0, Math.min(samples.length - 1, index))];
+    }
+
+    // Count the last LATENCY_SAMPLES write latencies into buckets
+    // boundsMs : ascending upper bounds (inclusive) of the buckets, in milliseconds
+    // counts : boundsMs.length + 1 entries, the last one counts everything above the last bound
+    public void getWriteLatencyHistogram(long[] boundsMs, long[] counts) {
+        Arrays.fill(counts, 0);
+        synchronized (mStatsLock) {
+            final int count = Math.min(mLatencySampleCount, LATENCY_SAMPLES);
+            for (int i = 0; i < count; i++) {
+                final long latency = mLatencySamples[i];
+                int bucket = 0;
+                while (bucket < boundsMs.length && latency > boundsMs[bucket]) bucket++;
+                counts[bucket]++;
+            }
+        }
+    }
+
+    // Packets handed to write() while connected
+    public long getQueuedPacketCount() {
+        return mQueuedPacketCount.get();
+    }
+
+    // Packets written to the socket
+    public long getWrittenPacketCount() {
+        synchronized (mStatsLock) {
+            return mWrittenPacketCount;
+        }
+    }
+
+    // Time from losing the link until the next connection was up, in milliseconds
+    public long getReconnectMillis() {
+        synchronized (mStatsLock) {
+            return mReconnectMillis;
+        }
+    }
+
+    // Time from losing the link, or from the first attempt of a fresh connection, until the
+    // first packet was written over the new connection, in milliseconds
+    public long getTimeToFirstFrameMillis() {
+        synchronized (mStatsLock) {
+            return mTimeToFirstFrameMillis;
+        }
+    }
+
+    // Batches the socket refused, their packets are neither written nor timed
+    public long getFailedFlushCount() {
+        synchronized (mStatsLock) {
+            return mFailedFlushCount;
+        }
+    }
+
+    // Packets of the failed batches
+    public long getFailedPacketCount() {
+        synchronized (mStatsLock) {
+            return mFailedPacketCount;
+        }
+    }
+
+    // Number of batches written to the socket
+    public long getFlushCount() {
+        synchronized (mStatsLock) {
+            return mFlushCount;
+        }
+    }
+
+    // Average size of a batch written to the socket
+    public float getBytesPerFlush() {
+        synchronized (mStatsLock) {
+            return mFlushCount == 0 ? 0 : (float) mFlushedBytes / mFlushCount;
+        }
+    }
+
+    // Batches written to the socket per second, measured over the last second
+    public float getFlushesPerSecond() {
+        synchronized (mStatsLock) {
+            return mFlushesPerSecond;
+        }
+    }
+
+    private void wakeWriter() {
+        WriterThread writer = mWriterThread;
+        if (writer != null) LockSupport.unpark(writer);
+    }
+
+    private void onFlushed(int length, long[] enqueueTimes, int count, long now) {
+        synchronized (mStatsLock) {
+            for (int i = 0; i < count; i++) {
+                mLatencySamples[mLatencySampleCount++ % LATENCY_SAMPLES] = now - enqueueTimes[i];
+            }
+            if (mLatencySampleCount >= 2 * LATENCY_SAMPLES) mLatencySampleCount -= LATENCY_SAMPLES;
+            mWrittenPacketCount += count;
+            if (mAwaitFirstFrame) {
+                mAwaitFirstFrame = false;
+                if (mLinkDownTime != 0) mTimeToFirstFrameMillis = now - mLinkDownTime;
+                mLinkDownTime = 0;
+            }
+            mFlushCount++;
+            mFlushedBytes += length;
+            mRateWindowFlushes++;
+            final long elapsed = now - mRateWindowStart;
+            if (elapsed >= 1000) {
+                mFlushesPerSecond = mRateWindowFlushes * 1000f / elapsed;
+                mRateWindowStart = now;
+                mRateWindowFlushes = 0;
+            }
+        }
+    }
+
+    private void onFlushFailed(int count) {
+        synchronized (mStatsLock) {
+            mFailedFlushCount++;
+            mFailedPacketCount += count;
+        }
+    }
+
+    // Select how received bytes are split into frames, takes effect on the next connection
+    // framing : BluetoothState.FRAMING_LINE or BluetoothState.FRAMING_GARMIN
+    public void setFraming(int framing) {
+        mFraming = framing;
+    }
+
+    // Receive frames on the reader thread, as slices that are only valid during the call
+    public void setRawDataListener(BluetoothSPP.OnRawDataReceivedListener listener) {
+        mRawDataListener = listener;
+    }
+
+    // Also copy every frame into a MESSAGE_READ for the Handler, on by default
+    public void setPostReadMessages(boolean post) {
+        mPostReadMessages = post;
+    }
+
+    // Frames received on the current connection
+    public long getReceivedFrameCount() {
         ConnectedThread r;
-        // Synchronize a copy of the ConnectedThread
         synchronized (this) {
-            if (mState != BluetoothState.STATE_CONNECTED) return;
             r = mConnectedThread;
         }
-        // Perform the write unsynchronized
-        r.write(out);
+        return r != null ? r.mmParser.getFrameCount() : 0;
+    }
+
+    // Garmin frames with a bad checksum on the current connection
+    public long getChecksumErrorCount() {
+        ConnectedThread r;
+        synchronized (this) {
+            r = mConnectedThread;
+        }
+        return r != null ? r.mmParser.getChecksumErrorCount() : 0;
     }
 
     // Indicate that the connection attempt failed and notify the UI Activity
@@ -197,6 +467,14 @@ public class BluetoothService {
         BluetoothService.this.start(BluetoothService.this.isAndroid);
     }
 
+    // Start timing the reconnect, the link broke without anybody closing it
+    private void markLinkDown() {
+        synchronized (mStatsLock) {
+            mLinkDownTime = SystemClock.elapsedRealtime();
+            mAwaitFirstFrame = false;
+        }
+    }
+
     // This thread runs while listening for incoming connections. It behaves
     // like a server-side client. It runs until a connection is accepted
     // (or until cancelled)
@@ -326,12 +604,72 @@ public class BluetoothService {
         }
     }
 
+    // This thread owns all socket writes of a connection. It drains the write queue and sends
+    // everything that is ready with one OutputStream.write, so producers never wait for the
+    // radio. It runs until the owning ConnectedThread is cancelled
+    private class WriterThread extends Thread {
+        private final ConnectedThread mmConnection;
+        private final BluetoothWriteQueue.Packet mmPacket = new BluetoothWriteQueue.Packet();
+        private byte[] mmFlushBuffer = new byte[1024];
+        private long[] mmEnqueueTimes = new long[WRITE_QUEUE_CAPACITY];
+        private volatile boolean mmRunning = true;
+
+        public WriterThread(ConnectedThread connection) {
+            mmConnection = connection;
+        }
+
+        public void run() {
+            setName("WriterThread");
+            mWriterThread = this;
+            while (mmRunning) {
+                if (mBatchDepth.get() > 0 || mWriteQueue.isEmpty()) {
+                    // Woken up by write() and endBatch(), the timeout covers a write that
+                    // raced with the start of this thread
+                    LockSupport.parkNanos(this, WRITER_IDLE_NANOS);
+                    // Keep collecting while a batch is open, unless the queue is about to drop
+                    if (mBatchDepth.get() > 0
+                            && mWriteQueue.getDepth() < mWriteQueue.getCapacity()) continue;
+                }
+                int length = 0;
+                int count = 0;
+                while (mWriteQueue.poll(mmPacket)) {
+                    if (length + mmPacket.length > mmFlushBuffer.length) {
+                        mmFlushBuffer = Arrays.copyOf(mmFlushBuffer,
+                                Math.max(mmFlushBuffer.length * 2, length + mmPacket.length));
+                    }
+                    System.arraycopy(mmPacket.data, 0, mmFlushBuffer, length, mmPacket.length);
+                    length += mmPacket.length;
+                    if (count == mmEnqueueTimes.length) {
+                        mmEnqueueTimes = Arrays.copyOf(mmEnqueueTimes, count * 2);
+                    }
+                    mmEnqueueTimes[count++] = mmPacket.enqueueTime;
+                }
+                if (length == 0) continue;
+                if (mmConnection.write(mmFlushBuffer, 0, length)) {
+                    onFlushed(length, mmEnqueueTimes, count, SystemClock.elapsedRealtime());
+                } else {
+                    // Dead link, the reader thread notices it and reconnects
+                    onFlushFailed(count);
+                }
+            }
+            if (mWriterThread == this) mWriterThread = null;
+        }
+
+        public void cancel() {
+            mmRunning = false;
+            LockSupport.unpark(this);
+        }
+    }
+
     // This thread runs during a connection with a remote device.
     // It handles all incoming and outgoing transmissions.
-    private class ConnectedThread extends Thread {
+    private class ConnectedThread extends Thread implements BluetoothFrameParser.Callback {
         private final BluetoothSocket mmSocket;
         private final InputStream mmInStream;
         private final OutputStream mmOutStream;
+        private final WriterThread mmWriter;
+        private final BluetoothFrameParser mmParser;
+        private volatile boolean mmCancelled = false;
 
         public ConnectedThread(BluetoothSocket socket, String socketType) {
             mmSocket = socket;
@@ -346,30 +684,23 @@ public class BluetoothService {
 
             mmInStream = tmpIn;
             mmOutStream = tmpOut;
+            mmWriter = new WriterThread(this);
+            mmParser = new BluetoothFrameParser(mFraming);
         }
 
         public void run() {
-            byte[] buffer;
-            ArrayList<Integer> arr_byte = new ArrayList<Integer>();
+            mmWriter.start();
+
+            byte[] buffer = new byte[READ_BUFFER_SIZE];
 
             // Keep listening to the InputStream while connected
             while (true) {
                 try {
-                    int data = mmInStream.read();
-                    if(data == 0x0A) { 
-                    } else if(data == 0x0D) {
-                        buffer = new byte[arr_byte.size()];
-                        for(int i = 0 ; i < arr_byte.size() ; i++) {
-                            buffer[i] = arr_byte.get(i).byteValue();
-                        }
-                        // Send the obtained bytes to the UI Activity
-                        mHandler.obtainMessage(BluetoothState.MESSAGE_READ
-                                , buffer.length, -1, buffer).sendToTarget();
-                        arr_byte = new ArrayList<Integer>();
-                    } else {
-                        arr_byte.add(data);
-                    }
+                    int bytes = mmInStream.read(buffer);
+                    if (bytes < 0) throw new IOException("End of stream");
+                    mmParser.parse(buffer, 0, bytes, this);
                 } catch (IOException e) {
+                    if (!mmCancelled) markLinkDown();
                     connectionLost();
                     // Start the service over to restart listening mode
                     BluetoothService.this.start(BluetoothService.this.isAndroid);
@@ -378,6 +709,18 @@ public class BluetoothService {
             }
         }
 
+        // Called by mmParser for every received frame
+        public void onFrame(byte[] frame, int offset, int length) {
+            BluetoothSPP.OnRawDataReceivedListener listener = mRawDataListener;
+            if (listener != null) listener.onRawDataReceived(frame, offset, length);
+            if (mPostReadMessages) {
+                // Send a copy of the obtained bytes to the UI Activity
+                byte[] buffer = Arrays.copyOfRange(frame, offset, offset + length);
+                mHandler.obtainMessage(BluetoothState.MESSAGE_READ
+                        , buffer.length, -1, buffer).sendToTarget();
+            }
+        }
+
         // Write to the connected OutStream.
         // @param buffer  The bytes to write
         public void write(byte[] buffer) {
@@ -394,7 +737,26 @@ public class BluetoothService {
             } catch (IOException e) { }
         }
 
+        // Write a slice of the buffer to the connected OutStream.
+        // @param buffer  The buffer holding the bytes to write
+        // @param offset  The start offset in buffer
+        // @param length  The number of bytes to write
+        // @return false if the stream refused the bytes
+        public boolean write(byte[] buffer, int offset, int length) {
+            try {
+                mmOutStream.write(buffer, offset, length);
+                // Share the sent length back to the UI Activity, buffer may be reused by the caller
+                mHandler.obtainMessage(BluetoothState.MESSAGE_WRITE
+                        , length, -1).sendToTarget();
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
         public void cancel() {
+            mmCancelled = true;
+            mmWriter.cancel();
             try {
                 mmSocket.close();
             } catch (IOException e) { }
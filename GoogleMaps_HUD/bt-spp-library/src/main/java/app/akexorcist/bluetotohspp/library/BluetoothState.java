@@ -41,6 +41,10 @@ public class BluetoothState {
     public static final String DEVICE_ADDRESS = "device_address";
     public static final String TOAST = "toast";
     
+    // How received bytes are split into frames, see BluetoothSPP.setFraming()
+    public static final int FRAMING_LINE = 0;      	// frames end with CR
+    public static final int FRAMING_GARMIN = 1;    	// 0x10 ... 0x10 0x03 frames
+    
     public static final boolean DEVICE_ANDROID = true;
     public static final boolean DEVICE_OTHER = false;
     
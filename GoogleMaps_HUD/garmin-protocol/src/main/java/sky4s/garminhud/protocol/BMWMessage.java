@@ -1,12 +1,10 @@
-package sky4s.garminhud.hud;
-
-import android.util.Log;
-import android.util.Pair;
+package sky4s.garminhud.protocol;
 
+/**
+ * BMW HUD navigation message, a fixed 26 byte buffer updated in place.
+ * Plain Java so it can be benchmarked off device.
+ */
 public class BMWMessage {
-    private static final String TAG = BMWMessage.class.getSimpleName();
-    private static final boolean DEBUG = false;
-
     private static final int MSG_BUFFER_SIZE = 26;
 
     private static final int DATA_BEGIN_OFFSET = 0x02;
@@ -106,14 +104,10 @@ public class BMWMessage {
     }
 
     private void updateChecksum() {
-        Pair<Byte, Byte> ret = calculateChecksum(mBuffer);
-        mBuffer[CHECKSUM_OFFSET] = ret.first;
-        mBuffer[CHECKSUM_OVERFLOW_OFFSET] = ret.second;
+        updateChecksum(mBuffer);
     }
 
     public void setSpeedLimit(int speed, boolean isMetric) {
-        if (DEBUG)
-            Log.d(TAG, "setSpeedLimit: " + speed);
         mBuffer[SPEED_LIMIT_OFFSET] = (byte) (speed & 0xff);
         mBuffer[SPEED_LIMIT_METRIC_OFFSET] = (byte) (isMetric ? 1 : 0);
 
@@ -121,16 +115,12 @@ public class BMWMessage {
     }
 
     public void setSpeedCameraEnabled(boolean enabled) {
-        if (DEBUG)
-            Log.d(TAG, "setSpeedCameraEnabled: " + enabled);
         mBuffer[SPEED_CAMERA_OFFSET] = (byte) (enabled ? 1 : 0);
 
         updateChecksum();
     }
 
     public void setDistanceToTurn(double miles) {
-        if (DEBUG)
-            Log.d(TAG, "setDistanceToTurn: " + miles);
         BMWDistance distance = new BMWDistance(miles);
 
         mBuffer[DIST_TO_TURN_2_OFFSET] = distance.getOffset2();
@@ -141,8 +131,6 @@ public class BMWMessage {
     }
 
     public void setArrow(int direction) {
-        if (DEBUG)
-            Log.d(TAG, "setArrow: " + direction);
         if (direction < ARROW_BEGIN || direction > ARROW_END) {
             return;
         }
@@ -152,8 +140,6 @@ public class BMWMessage {
     }
 
     public void setLaneCount(int numLanes) {
-        if (DEBUG)
-            Log.d(TAG, "setLaneCount: " + numLanes);
         if (numLanes < 0 || numLanes > MAX_LANES) {
             return;
         }
@@ -163,8 +149,6 @@ public class BMWMessage {
     }
 
     public void setLaneIndicator(int index, boolean enable) {
-        if (DEBUG)
-            Log.d(TAG, "setLaneIndicator: idx: " + index + ": " + enable);
         byte laneIndex = (byte) index;
         if (laneIndex > (1 << MAX_LANES) - 1) {
             // max lanes is 6, so 2^6 - 1 possible combos
@@ -182,8 +166,6 @@ public class BMWMessage {
     }
 
     public void setArrivalTime(int hours, int minutes, int suffix) {
-        if (DEBUG)
-            Log.d(TAG, "setArrivalTime: " + hours + ":" + minutes);
         if (hours < 0 || hours > 24 || minutes < 0 || minutes > 59) {
             return;
         }
@@ -195,8 +177,6 @@ public class BMWMessage {
     }
 
     public void setRemainingDistance(double miles) {
-        if (DEBUG)
-            Log.d(TAG, "setRemainingDistance: " + miles);
         BMWDistance distance = new BMWDistance(miles);
 
         mBuffer[REMAINING_DIST_2_OFFSET] = distance.getOffset2();
@@ -230,8 +210,6 @@ public class BMWMessage {
                 // offset2 displays from 5660mi at 139 to 41mi at 1
                 double scaling = (5660.0 - 41.0) / (139 - 1);
                 double distance_component = Math.floor(miles / scaling);
-                if (DEBUG)
-                    Log.d(TAG, "distance_2: " + distance_component);
                 double remainder = (miles / scaling) - Math.floor(miles / scaling);
                 mOffset2 = (byte) distance_component;
                 miles = remainder * scaling;
@@ -241,8 +219,6 @@ public class BMWMessage {
                 // offset1 displays from 41mi at 255 to 300yd at 1
                 double scaling = (41.0 - (300.0 / YARDS_PER_MILE)) / (255 - 1);
                 double distance_component = Math.floor(miles / scaling);
-                if (DEBUG)
-                    Log.d(TAG, "distance_1: " + distance_component);
                 double remainder = (miles / scaling) - Math.floor(miles / scaling);
                 mOffset1 = (byte) distance_component;
                 miles = remainder * scaling;
@@ -251,8 +227,6 @@ public class BMWMessage {
             if (miles > 0) {
                 // offset0 displays from 300yd to 10yd
                 double yards = miles * YARDS_PER_MILE;
-                if (DEBUG)
-                    Log.d(TAG, "distance_0: " + yards);
                 mOffset0 = getRemainingDistanceYards((int) yards);
             }
         }
@@ -314,7 +288,11 @@ public class BMWMessage {
         private byte mOffset0 = 0x00;
     }
 
-    private static Pair<Byte, Byte> calculateChecksum(byte[] msg) {
+    /**
+     * Checksum and overflow byte are written straight into msg, every setter calls this so it
+     * must not allocate.
+     */
+    private static void updateChecksum(byte[] msg) {
         int checksum = 0, overflow;
         for (int i = DATA_BEGIN_OFFSET; i < DATA_END_OFFSET; i++) {
             // Java bytes are unsigned, cast to int and prevent sign extension
@@ -332,6 +310,7 @@ public class BMWMessage {
 
         checksum &= 0xff;
 
-        return new Pair<>((byte) checksum, (byte) overflow);
+        msg[CHECKSUM_OFFSET] = (byte) checksum;
+        msg[CHECKSUM_OVERFLOW_OFFSET] = (byte) overflow;
     }
 }
@@ -0,0 +1,137 @@
+package sky4s.garminhud.protocol;
+
+/**
+ * Builds Garmin HUD frames into reusable buffers, so the hot send path does not allocate.
+ * <p>
+ * Usage: {@link #begin(int)} the command, {@link #put(int)} the payload bytes, then
+ * {@link #encode()}; the encoded frame is {@link #getFrame()}[0, {@link #getFrameLength()}).
+ * The returned frame is only valid until the next {@link #begin(int)}, the caller is
+ * responsible for serializing access.
+ * <p>
+ * Frame layout (same as GarminHUDInterface::SendHud2 in the C++ library):
+ * <pre>
+ * 0x10 0x7b (len+6) [0x10] len 0x00 0x00 0x00 0x55 0x15 payload... crc 0x10 0x03
+ * </pre>
+ * every 0x10 inside the payload is doubled (DLE stuffing), and stuffed bytes are not
+ * part of the checksum.
+ */
+public class GarminFrameEncoder {
+    public static final int MAX_PAYLOAD_LENGTH = 32;
+
+    private static final int DLE = 0x10;
+    private static final int ETX = 0x03;
+    // header(10, with length stuffing) + stuffed payload + crc + trailer(2)
+    private static final int MAX_FRAME_LENGTH = 10 + MAX_PAYLOAD_LENGTH * 2 + 1 + 2;
+
+    private final byte[] mPayload = new byte[MAX_PAYLOAD_LENGTH];
+    private int mPayloadLength = 0;
+    private final byte[] mFrame = new byte[MAX_FRAME_LENGTH];
+    private int mFrameLength = 0;
+
+    public GarminFrameEncoder begin(int command) {
+        mPayloadLength = 0;
+        mFrameLength = 0;
+        return put(command);
+    }
+
+    public GarminFrameEncoder put(int b) {
+        mPayload[mPayloadLength++] = (byte) b;
+        return this;
+    }
+
+    public GarminFrameEncoder put(boolean flag) {
+        return put(flag ? 0xff : 0x00);
+    }
+
+    public byte[] getPayload() {
+        return mPayload;
+    }
+
+    public int getPayloadLength() {
+        return mPayloadLength;
+    }
+
+    public int getCommand() {
+        return mPayloadLength > 0 ? mPayload[0] & 0xff : -1;
+    }
+
+    /**
+     * Wraps the current payload into a frame.
+     *
+     * @return length of the encoded frame
+     */
+    public int encode() {
+        final int nLen = mPayloadLength;
+        int len = 0;
+        int nCrc = 0;
+
+        mFrame[len++] = DLE;
+        len = putByte(len, 0x7b);
+        nCrc += 0x7b;
+        len = putStuffed(len, nLen + 6);
+        nCrc += nLen + 6;
+        len = putStuffed(len, nLen);
+        nCrc += nLen;
+        len = putByte(len, 0x00);
+        len = putByte(len, 0x00);
+        len = putByte(len, 0x00);
+        len = putByte(len, 0x55);
+        len = putByte(len, 0x15);
+        nCrc += 0x55 + 0x15;
+
+        for (int i = 0; i < nLen; i++) {
+            final int c = mPayload[i] & 0xff;
+            len = putStuffed(len, c);
+            nCrc += c;
+        }
+
+        len = putByte(len, (-nCrc) & 0xff);
+        len = putByte(len, DLE);
+        len = putByte(len, ETX);
+        mFrameLength = len;
+        return len;
+    }
+
+    /**
+     * Brightness uses its own short frame: 0x10 0x0f 0x02 level 0x00 crc 0x10 0x03.
+     *
+     * @return length of the encoded frame
+     */
+    public int encodeBrightness(int brightness) {
+        mPayloadLength = 0;
+        int len = 0;
+        mFrame[len++] = DLE;
+        len = putByte(len, 0x0f);
+        len = putByte(len, 0x02);
+        len = putByte(len, brightness);
+        len = putByte(len, 0x00);
+        final int nCrc = 0x0f + 0x02 + (brightness & 0xff);
+        len = putByte(len, (-nCrc) & 0xff);
+        len = putByte(len, DLE);
+        len = putByte(len, ETX);
+        mFrameLength = len;
+        return len;
+    }
+
+    public byte[] getFrame() {
+        return mFrame;
+    }
+
+    public int getFrameLength() {
+        return mFrameLength;
+    }
+
+    private int putByte(int index, int b) {
+        mFrame[index++] = (byte) b;
+        return index;
+    }
+
+    private int putStuffed(int index, int b) {
+        mFrame[index++] = (byte) b;
+        if ((b & 0xff) == DLE) {
+            // Escape DLE
+            mFrame[index++] = DLE;
+        }
+        return index;
+    }
+}
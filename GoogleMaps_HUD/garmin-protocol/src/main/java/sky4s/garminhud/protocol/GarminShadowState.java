@@ -0,0 +1,107 @@
+package sky4s.garminhud.protocol;
+
+/**
+ * Shadow copy of what the HUD currently shows, keyed by Garmin command id.
+ * <p>
+ * A payload identical to the last one sent with the same command id is not sent again, unless
+ * the refresh interval of that command elapsed; the direction arrow needs such a keep-alive
+ * because the Garmin unit erases it when no data arrives for a while.
+ * {@link #invalidate()} must be called whenever the link is (re)established.
+ */
+public class GarminShadowState {
+    public static final int CMD_DIRECTION = 0x01;
+    public static final int CMD_LANES = 0x02;
+    public static final int CMD_DISTANCE = 0x03;
+    public static final int CMD_CAMERA = 0x04;
+    public static final int CMD_TIME = 0x05;
+    public static final int CMD_SPEED = 0x06;
+    public static final int CMD_GPS = 0x07;
+
+    public static final long DEFAULT_ARROW_KEEP_ALIVE_MS = 3000;
+
+    private static final int COMMAND_COUNT = 256;
+
+    private final byte[][] mPayloads = new byte[COMMAND_COUNT][];
+    private final int[] mLengths = new int[COMMAND_COUNT];
+    private final long[] mSentTimes = new long[COMMAND_COUNT];
+    private final long[] mRefreshIntervals = new long[COMMAND_COUNT];
+    private int mSentCount = 0;
+    private int mSkippedCount = 0;
+
+    public GarminShadowState() {
+        invalidate();
+        mRefreshIntervals[CMD_DIRECTION] = DEFAULT_ARROW_KEEP_ALIVE_MS;
+    }
+
+    /**
+     * @param intervalMs resend an unchanged payload after this time, 0 never resends it
+     */
+    public synchronized void setRefreshInterval(int command, long intervalMs) {
+        mRefreshIntervals[command & 0xff] = intervalMs;
+    }
+
+    /**
+     * @return true if payload differs from what the HUD shows for its command id, or its
+     * refresh interval elapsed
+     */
+    public synchronized boolean isChanged(byte[] payload, int length, long now) {
+        if (length <= 0) {
+            return true;
+        }
+        final int command = payload[0] & 0xff;
+        final byte[] shadow = mPayloads[command];
+        boolean changed = null == shadow || mLengths[command] != length;
+        if (!changed) {
+            for (int i = 1; i < length; i++) {
+                if (shadow[i] != payload[i]) {
+                    changed = true;
+                    break;
+                }
+            }
+        }
+        if (!changed) {
+            final long interval = mRefreshIntervals[command];
+            changed = interval > 0 && now - mSentTimes[command] >= interval;
+        }
+        if (!changed) {
+            mSkippedCount++;
+        }
+        return changed;
+    }
+
+    /**
+     * Remember payload as shown on the HUD, call only after the frame was handed to the link.
+     */
+    public synchronized void markSent(byte[] payload, int length, long now) {
+        if (length <= 0) {
+            return;
+        }
+        final int command = payload[0] & 0xff;
+        byte[] shadow = mPayloads[command];
+        if (null == shadow || shadow.length < length) {
+            shadow = new byte[Math.max(length, GarminFrameEncoder.MAX_PAYLOAD_LENGTH)];
+            mPayloads[command] = shadow;
+        }
+        System.arraycopy(payload, 0, shadow, 0, length);
+        mLengths[command] = length;
+        mSentTimes[command] = now;
+        mSentCount++;
+    }
+
+    /**
+     * Forget the HUD content, the next payload of every command is sent.
+     */
+    public synchronized void invalidate() {
+        for (int i = 0; i < COMMAND_COUNT; i++) {
+            mLengths[i] = -1;
+        }
+    }
+
+    public synchronized int getSentCount() {
+        return mSentCount;
+    }
+
+    public synchronized int getSkippedCount() {
+        return mSkippedCount;
+    }
+}
@@ -0,0 +1,16 @@
+package sky4s.garminhud.protocol;
+
+/**
+ * Link that carries encoded frames to the HUD, e.g. a Bluetooth SPP socket.
+ */
+public interface HudTransport {
+    /**
+     * Hand a frame to the link. The frame buffer is reused by the caller as soon as this
+     * returns, implementations must copy what they keep.
+     *
+     * @param type Garmin command id of the frame, a queued older frame of the same command may be
+     *             dropped in favor of this one; -1 to never drop
+     * @return false if the frame was refused, e.g. not connected or throttled
+     */
+    boolean send(byte[] frame, int offset, int length, int type);
+}
@@ -0,0 +1,177 @@
+package sky4s.garminhud.protocol;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The encoder must send exactly what GarminHUD.sendToHud / setBrightness sent before the
+ * protocol was moved into this module; the reference encoders below are those methods.
+ */
+public class GarminFrameEncoderTest {
+
+    // GarminHUD.sendToHud of the baseline, char[] payload to the bytes sendPacket wrote
+    private static byte[] baselineFrame(char[] pBuf) {
+        int nLen = pBuf.length;
+
+        char[] sendBuf = new char[255];
+        char len = 0;
+        int stuffingCount = 0;
+
+        sendBuf[len++] = 0x10;
+        sendBuf[len++] = 0x7b;
+        sendBuf[len++] = (char) (nLen + 6);
+        if (nLen == 0xa) {
+            sendBuf[len++] = 0x10;
+            stuffingCount++;
+        }
+        sendBuf[len++] = (char) nLen;
+        sendBuf[len++] = 0x00;
+        sendBuf[len++] = 0x00;
+        sendBuf[len++] = 0x00;
+        sendBuf[len++] = 0x55;
+        sendBuf[len++] = 0x15;
+
+        for (char c : pBuf) {
+            sendBuf[len++] = c;
+            if (c == 0x10) {
+                sendBuf[len++] = 0x10;
+                stuffingCount++;
+            }
+        }
+
+        int nCrc = 0;
+        for (int i = 1; i < len; i++) {
+            nCrc += sendBuf[i];
+        }
+        nCrc -= stuffingCount * 0x10;
+
+        sendBuf[len++] = (char) ((-nCrc) & 0xff);
+        sendBuf[len++] = 0x10;
+        sendBuf[len++] = 0x03;
+        return toBytes(sendBuf, len);
+    }
+
+    // GarminHUD.setBrightness of the baseline
+    private static byte[] baselineBrightness(int brightness) {
+        char[] sendBuf = new char[8];
+        int len = 0;
+
+        sendBuf[len++] = 0x10;
+        sendBuf[len++] = 0x0f;
+        sendBuf[len++] = 0x02;
+        sendBuf[len++] = (char) brightness;
+        sendBuf[len++] = 0x00;
+
+        int nCrc = 0;
+        for (int i = 1; i < len; i++) {
+            nCrc += sendBuf[i];
+        }
+
+        sendBuf[len++] = (char) ((-nCrc) & 0xff);
+        sendBuf[len++] = 0x10;
+        sendBuf[len++] = 0x03;
+        return toBytes(sendBuf, sendBuf.length);
+    }
+
+    private static byte[] toBytes(char[] buf, int len) {
+        byte[] bytes = new byte[len];
+        for (int i = 0; i < len; i++) {
+            bytes[i] = (byte) buf[i];
+        }
+        return bytes;
+    }
+
+    private static byte[] encode(GarminFrameEncoder encoder, char[] payload) {
+        encoder.begin(payload[0]);
+        for (int i = 1; i < payload.length; i++) {
+            encoder.put(payload[i]);
+        }
+        final int len = encoder.encode();
+        assertEquals(len, encoder.getFrameLength());
+        return Arrays.copyOf(encoder.getFrame(), len);
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+    @Test
+    public void directionFrame() {
+        // setDirection(Left, ArrowOnly, AsDirection)
+        final byte[] frame = encode(new GarminFrameEncoder(), new char[]{0x01, 0x80, 0x00, 0x02});
+        assertArrayEquals(bytes(0x10, 0x7b, 0x0a, 0x04, 0x00, 0x00, 0x00, 0x55, 0x15,
+                0x01, 0x80, 0x00, 0x02, 0x8a, 0x10, 0x03), frame);
+        assertArrayEquals(baselineFrame(new char[]{0x01, 0x80, 0x00, 0x02}), frame);
+    }
+
+    @Test
+    public void payloadDleIsStuffedAndNotInChecksum() {
+        final char[] payload = {0x03, 0x10, 0x01, 0x10, 0x00, 0x05, 0x01};
+        final byte[] frame = encode(new GarminFrameEncoder(), payload);
+        assertArrayEquals(baselineFrame(payload), frame);
+        // 9 header bytes, then 0x03 0x10 0x10 0x01 0x10 0x10 ...
+        assertEquals(0x10, frame[10]);
+        assertEquals(0x10, frame[11]);
+        assertEquals(0x10, frame[13]);
+        assertEquals(0x10, frame[14]);
+        assertEquals(payload.length + 2 + 12, frame.length);
+    }
+
+    @Test
+    public void lengthDleIsStuffed() {
+        // 10 bytes payload: len + 6 is 0x10, the time and speed commands
+        final char[] payload = {0x06, 0x00, 0x00, 0x00, 0x00, 0x01, 0x02, 0x03, 0x00, 0xff};
+        final byte[] frame = encode(new GarminFrameEncoder(), payload);
+        assertArrayEquals(baselineFrame(payload), frame);
+        assertEquals(0x10, frame[2]);
+        assertEquals(0x10, frame[3]);
+        assertEquals(0x0a, frame[4]);
+    }
+
+    @Test
+    public void randomPayloadsMatchBaseline() {
+        final Random random = new Random(1);
+        final GarminFrameEncoder encoder = new GarminFrameEncoder();
+        for (int n = 0; n < 10000; n++) {
+            // the baseline never stuffed the length byte itself, payloads stay below 0x10
+            final char[] payload = new char[1 + random.nextInt(15)];
+            for (int i = 0; i < payload.length; i++) {
+                payload[i] = (char) (random.nextInt(4) == 0 ? 0x10 : random.nextInt(256));
+            }
+            assertArrayEquals(Arrays.toString(payload), baselineFrame(payload), encode(encoder, payload));
+        }
+    }
+
+    @Test
+    public void brightnessFrame() {
+        final GarminFrameEncoder encoder = new GarminFrameEncoder();
+        for (int brightness = 0; brightness < 256; brightness++) {
+            final int len = encoder.encodeBrightness(brightness);
+            assertArrayEquals(baselineBrightness(brightness), Arrays.copyOf(encoder.getFrame(), len));
+        }
+        encoder.encodeBrightness(5);
+        assertArrayEquals(bytes(0x10, 0x0f, 0x02, 0x05, 0x00, 0xea, 0x10, 0x03),
+                Arrays.copyOf(encoder.getFrame(), encoder.getFrameLength()));
+    }
+
+    @Test
+    public void beginStartsOver() {
+        final GarminFrameEncoder encoder = new GarminFrameEncoder();
+        encoder.begin(0x06).put(1).put(2).put(3);
+        encoder.encode();
+        encoder.begin(0x04).put(true);
+        assertEquals(0x04, encoder.getCommand());
+        assertEquals(2, encoder.getPayloadLength());
+        assertArrayEquals(baselineFrame(new char[]{0x04, 0xff}),
+                Arrays.copyOf(encoder.getFrame(), encoder.encode()));
+    }
+}
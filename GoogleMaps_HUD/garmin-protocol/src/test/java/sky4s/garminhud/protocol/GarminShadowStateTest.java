@@ -0,0 +1,130 @@
+package sky4s.garminhud.protocol;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GarminShadowStateTest {
+    private static final byte[] LANES = {GarminShadowState.CMD_LANES, 0x40, 0x20};
+    private static final byte[] OTHER_LANES = {GarminShadowState.CMD_LANES, 0x40, 0x10};
+    private static final byte[] DIRECTION = {GarminShadowState.CMD_DIRECTION, (byte) 0x80, 0x00, 0x02};
+
+    private static boolean sendIfChanged(GarminShadowState state, byte[] payload, long now) {
+        if (!state.isChanged(payload, payload.length, now)) {
+            return false;
+        }
+        state.markSent(payload, payload.length, now);
+        return true;
+    }
+
+    @Test
+    public void unchangedPayloadIsSkipped() {
+        final GarminShadowState state = new GarminShadowState();
+        assertTrue(sendIfChanged(state, LANES, 0));
+        assertFalse(sendIfChanged(state, LANES, 100));
+        assertFalse(sendIfChanged(state, LANES.clone(), 100000));
+        assertTrue(sendIfChanged(state, OTHER_LANES, 100001));
+        assertTrue(sendIfChanged(state, LANES, 100002));
+        assertEquals(3, state.getSentCount());
+        assertEquals(2, state.getSkippedCount());
+    }
+
+    @Test
+    public void commandsAreTrackedApart() {
+        final GarminShadowState state = new GarminShadowState();
+        assertTrue(sendIfChanged(state, LANES, 0));
+        assertTrue(sendIfChanged(state, DIRECTION, 0));
+        assertFalse(sendIfChanged(state, LANES, 1));
+        assertFalse(sendIfChanged(state, DIRECTION, 1));
+    }
+
+    @Test
+    public void lengthChangeIsAChange() {
+        final GarminShadowState state = new GarminShadowState();
+        assertTrue(sendIfChanged(state, LANES, 0));
+        assertTrue(state.isChanged(LANES, 2, 1));
+    }
+
+    @Test
+    public void notMarkedIsNotShown() {
+        // the transport refused the frame: markSent isn't called, the payload is sent again
+        final GarminShadowState state = new GarminShadowState();
+        assertTrue(state.isChanged(LANES, LANES.length, 0));
+        assertTrue(state.isChanged(LANES, LANES.length, 1));
+    }
+
+    @Test
+    public void invalidateResendsEverything() {
+        final GarminShadowState state = new GarminShadowState();
+        assertTrue(sendIfChanged(state, LANES, 0));
+        assertTrue(sendIfChanged(state, DIRECTION, 0));
+        state.invalidate();
+        assertTrue(sendIfChanged(state, LANES, 1));
+        assertTrue(sendIfChanged(state, DIRECTION, 1));
+        assertFalse(sendIfChanged(state, LANES, 2));
+    }
+
+    @Test
+    public void directionIsKeptAlive() {
+        final GarminShadowState state = new GarminShadowState();
+        final long keepAlive = GarminShadowState.DEFAULT_ARROW_KEEP_ALIVE_MS;
+        assertTrue(sendIfChanged(state, DIRECTION, 1000));
+        assertFalse(sendIfChanged(state, DIRECTION, 1000 + keepAlive - 1));
+        assertTrue(sendIfChanged(state, DIRECTION, 1000 + keepAlive));
+        assertFalse(sendIfChanged(state, DIRECTION, 1000 + keepAlive + 1));
+    }
+
+    @Test
+    public void refreshIntervalIsPerCommand() {
+        final GarminShadowState state = new GarminShadowState();
+        state.setRefreshInterval(GarminShadowState.CMD_LANES, 500);
+        state.setRefreshInterval(GarminShadowState.CMD_DIRECTION, 0);
+        assertTrue(sendIfChanged(state, LANES, 0));
+        assertTrue(sendIfChanged(state, DIRECTION, 0));
+        assertTrue(sendIfChanged(state, LANES, 500));
+        assertFalse(sendIfChanged(state, DIRECTION, 100000));
+    }
+
+    @Test
+    public void protocolSkipsWhatTheHudShows() {
+        final List<Integer> sent = new ArrayList<>();
+        final boolean[] accept = {true};
+        final GarminProtocol protocol = new GarminProtocol(new HudTransport() {
+            @Override
+            public boolean send(byte[] frame, int offset, int length, int type) {
+                if (accept[0]) {
+                    sent.add(type);
+                }
+                return accept[0];
+            }
+        });
+        protocol.setLanes((char) 0x20, (char) 0x40);
+        protocol.setLanes((char) 0x20, (char) 0x40);
+        assertEquals(1, sent.size());
+        assertEquals(GarminShadowState.CMD_LANES, (int) sent.get(0));
+        assertTrue(protocol.getSendResult());
+
+        // refused: not remembered, sent again once the link takes it
+        accept[0] = false;
+        protocol.setCameraIcon(true);
+        assertFalse(protocol.getSendResult());
+        accept[0] = true;
+        protocol.setCameraIcon(true);
+        assertEquals(2, sent.size());
+
+        protocol.invalidate();
+        protocol.setLanes((char) 0x20, (char) 0x40);
+        assertEquals(3, sent.size());
+
+        // brightness is never deduplicated
+        protocol.setBrightness(5);
+        protocol.setBrightness(5);
+        assertEquals(5, sent.size());
+        assertEquals(-1, (int) sent.get(4));
+    }
+}
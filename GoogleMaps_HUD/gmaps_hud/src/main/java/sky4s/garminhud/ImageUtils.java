@@ -15,22 +15,20 @@ import java.io.IOException;
 
 public class ImageUtils {
     public static int getGreenAlpha(int pixel) {
-        final int alpha = (pixel >> 24) & 0xff;
-        final int green = ((pixel >> 8) & 0xff);
-        final int green_alpha = (green * alpha) >> 8;
-        return green_alpha;
+        return ArrowFingerprint.getGreenAlpha(pixel);
     }
 
 
     public static void toBinaryImage(Bitmap bitmap, int treatAsWhite) {
-        for (int h = 0; h < bitmap.getHeight(); h++) {
-            for (int w = 0; w < bitmap.getWidth(); w++) {
-                int p = bitmap.getPixel(w, h);
-                final int green_alpha = getGreenAlpha(p);
-                bitmap.setPixel(w, h, green_alpha > treatAsWhite ? 0xffffffff : 0);
-            }
+        // one getPixels/setPixels instead of a JNI call per pixel
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        int[] pixels = new int[width * height];
+        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = getGreenAlpha(pixels[i]) > treatAsWhite ? 0xffffffff : 0;
         }
-
+        bitmap.setPixels(pixels, 0, width, 0, 0, width, height);
     }
 
     public static Bitmap removeAlpha(Bitmap originalBitmap) {
@@ -77,6 +77,7 @@ import sky4s.garminhud.hud.BMWHUD;
 import sky4s.garminhud.hud.DummyHUD;
 import sky4s.garminhud.hud.GarminHUD;
 import sky4s.garminhud.hud.HUDInterface;
+import sky4s.garminhud.hud.HUDUpdateScheduler;
 
 public class MainActivity extends AppCompatActivity {
     // for test with virtual device which no BT device
@@ -300,6 +301,8 @@ public class MainActivity extends AppCompatActivity {
 
         sendBooleanExtraByBroadcast(getString(R.string.broadcast_receiver_notification_monitor),
                 getString(R.string.option_arrow_type), optionArrowType);
+        sendBooleanExtraByBroadcast(getString(R.string.broadcast_receiver_notification_monitor),
+                getString(R.string.option_arrow_debug), optionArrowDebug);
         // ======================================
 
         runOnUiThread(() -> {
@@ -382,7 +385,9 @@ public class MainActivity extends AppCompatActivity {
         if (isBMW()) {
             mHud = new BMWHUD(this);
         } else if (!isIgnoreBtDevice(this)) {
-            mHud = new GarminHUD(this);
+            HUDUpdateScheduler scheduler = new HUDUpdateScheduler(new GarminHUD(this));
+            scheduler.setAdaptiveRate(getResources().getBoolean(R.bool.adaptive_update_rate));
+            mHud = scheduler;
         }
         mHud.registerConnectionCallback(mHudConnectionCallback);
         NotificationMonitor.sHud = mHud;
@@ -726,6 +731,8 @@ public class MainActivity extends AppCompatActivity {
 
                 case R.id.switchArrowDebug:
                     final boolean arrowDebug = view.isChecked();
+                    sendBooleanExtraByBroadcast(getString(R.string.broadcast_receiver_notification_monitor),
+                            getString(R.string.option_arrow_debug), arrowDebug);
                     storeOptions(R.string.option_arrow_debug, arrowDebug);
                     break;
 
@@ -880,6 +887,12 @@ public class MainActivity extends AppCompatActivity {
                 listCurrentNotification();
                 break;
 
+            case R.id.btnLinkStats:
+                if (null != mHud) {
+                    updateTextViewDebug(mHud.getLinkStats().toString());
+                }
+                break;
+
             case R.id.btnScanHUD:
                 if (!isIgnoreBtDevice(this)) {
                     if (mHud != null) {
@@ -1352,9 +1365,14 @@ public class MainActivity extends AppCompatActivity {
         mWidth = dm.widthPixels;
         mHeight = dm.heightPixels;
 
+        // the screen is mirrored into a smaller display, every frame has 1/scale^2 of the pixels
+        final int scale = Math.max(1, getResources().getInteger(R.integer.capture_scale));
+        final int captureWidth = mWidth / scale;
+        final int captureHeight = mHeight / scale;
+
         // start capture reader
-        mImageReader = ImageReader.newInstance(mWidth, mHeight, PixelFormat.RGBA_8888, 2);
-        mVirtualDisplay = sMediaProjection.createVirtualDisplay(SCREENCAP_NAME, mWidth, mHeight, mDensity,
+        mImageReader = ImageReader.newInstance(captureWidth, captureHeight, PixelFormat.RGBA_8888, 2);
+        mVirtualDisplay = sMediaProjection.createVirtualDisplay(SCREENCAP_NAME, captureWidth, captureHeight, mDensity / scale,
                 VIRTUAL_DISPLAY_FLAGS, mImageReader.getSurface(), null, mProjectionHandler);
         mImageReader.setOnImageAvailableListener(mImageDetectListener, mProjectionHandler);
     }
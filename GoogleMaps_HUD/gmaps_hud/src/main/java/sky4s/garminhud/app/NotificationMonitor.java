@@ -40,9 +40,16 @@ import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import sky4s.garminhud.Arrow;
+import sky4s.garminhud.ArrowDescriptorIndex;
+import sky4s.garminhud.ArrowFingerprint;
 import sky4s.garminhud.ArrowImage;
+import sky4s.garminhud.ArrowMatcher;
 import sky4s.garminhud.ArrowV2;
+import sky4s.garminhud.ArrowVote;
 import sky4s.garminhud.ImageUtils;
+import sky4s.garminhud.PyramidTemplateMatcher;
+import sky4s.garminhud.RecognitionCache;
+import sky4s.garminhud.TemplateMatch;
 import sky4s.garminhud.eOutAngle;
 import sky4s.garminhud.eOutType;
 import sky4s.garminhud.eUnits;
@@ -131,6 +138,15 @@ public class NotificationMonitor extends NotificationListenerService {
             mLastArrivalMinutes = -1; // Force to switch to ETA after several toggles
             mBusyTraffic = intent.getBooleanExtra(getString(R.string.busy_traffic), mBusyTraffic);
             mArrowTypeV2 = intent.getBooleanExtra(getString(R.string.option_arrow_type), mArrowTypeV2);
+            final boolean arrowDebug = intent.getBooleanExtra(getString(R.string.option_arrow_debug), mArrowDebug);
+            if (arrowDebug != mArrowDebug) {
+                mArrowDebug = arrowDebug;
+                // cached entries were made with or without the debug image; the cache belongs to
+                // the parsing thread
+                if (null != mExecutor) {
+                    mExecutor.execute(mArrowCache::clear);
+                }
+            }
         }
     }
 
@@ -178,6 +194,10 @@ public class NotificationMonitor extends NotificationListenerService {
     }
 
     private Bitmap[] mArrowBitmaps;
+    // fingerprints and green channel of mArrowBitmaps, only used on mExecutor
+    private PyramidTemplateMatcher mArrowV2Matcher;
+    // size independent shapes of mArrowBitmaps, for icons the templates don't match well
+    private ArrowDescriptorIndex mArrowDescriptors;
     private MainActivityPostman mPostman;
 
     private void loadArrowImagesInAssets() {
@@ -186,13 +206,28 @@ public class NotificationMonitor extends NotificationListenerService {
 
         try {
             String[] filePathList = assetManager.list(dir);
-            mArrowBitmaps = new Bitmap[filePathList.length];
+            Bitmap[] arrowBitmaps = new Bitmap[filePathList.length];
+            int[][] arrowPixels = new int[filePathList.length][];
 
             for (int i = 0; i < filePathList.length; i++) {
                 InputStream is = assetManager.open(dir + "/" + filePathList[i]);
-                mArrowBitmaps[i] = BitmapFactory.decodeStream(is);
+                arrowBitmaps[i] = BitmapFactory.decodeStream(is);
                 is.close();
+                arrowPixels[i] = getPixels(arrowBitmaps[i]);
+            }
+            if (0 != arrowBitmaps.length) {
+                final int width = arrowBitmaps[0].getWidth();
+                final int height = arrowBitmaps[0].getHeight();
+                mArrowV2Matcher = new PyramidTemplateMatcher(arrowPixels, width, height);
+                int[] widths = new int[arrowBitmaps.length];
+                int[] heights = new int[arrowBitmaps.length];
+                for (int i = 0; i < arrowBitmaps.length; i++) {
+                    widths[i] = arrowBitmaps[i].getWidth();
+                    heights[i] = arrowBitmaps[i].getHeight();
+                }
+                mArrowDescriptors = new ArrowDescriptorIndex(arrowPixels, widths, heights);
             }
+            mArrowBitmaps = arrowBitmaps;
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -521,12 +556,7 @@ public class NotificationMonitor extends NotificationListenerService {
                         if (STORE_IMG) {
                             ImageUtils.storeBitmap(bitmapImage, IMAGE_DIR, "arrow0.png");
                         }
-                        bitmapImage = ImageUtils.removeAlpha(bitmapImage);
-                        if (STORE_IMG) {
-                            ImageUtils.storeBitmap(bitmapImage, IMAGE_DIR, "arrow.png");
-                        }
-                        ArrowImage arrowImage = new ArrowImage(bitmapImage);
-                        mFoundArrow = getArrow(arrowImage);
+                        setFoundArrow(recognizeArrow(bitmapImage, false, true), false);
                     }
                 }
                 indexOfActions++;
@@ -635,31 +665,14 @@ public class NotificationMonitor extends NotificationListenerService {
                         if (STORE_IMG) {
                             ImageUtils.storeBitmap(bitmapImage, IMAGE_DIR, "arrow0.png");
                         }
-                        bitmapImage = ImageUtils.removeAlpha(bitmapImage);
-                        if (STORE_IMG) {
-                            ImageUtils.storeBitmap(bitmapImage, IMAGE_DIR, "arrow.png");
-                        }
 
-                        ArrowImage arrowImage = new ArrowImage(bitmapImage);
-
-                        if (mArrowTypeV2) {
-                            final int index = getArrowV2Index(bitmapImage);
-                            mFoundArrowV2 = ArrowV2.values()[index];
-                            mLastFoundArrowV2 = mFoundArrowV2;
-
-                            Bitmap foundArrowBitmap = mArrowBitmaps[index];
-                            mPostman.addParcelableExtra(getString(R.string.arrow_bitmap), foundArrowBitmap);
-                            mPostman.addStringExtra(getString(R.string.gmaps_notify_msg), textOnGmapsNotify);
-                            mPostman.sendIntent2MainActivity();
-                        } else {
-                            mFoundArrow = getArrow(arrowImage);
-                            mLastFoundArrow = mFoundArrow;
-
-                            Bitmap foundArrowBitmap = arrowImage.binaryImage;
-                            mPostman.addParcelableExtra(getString(R.string.arrow_bitmap), foundArrowBitmap);
-                            mPostman.addStringExtra(getString(R.string.gmaps_notify_msg), textOnGmapsNotify);
-                            mPostman.sendIntent2MainActivity();
-                        }
+                        RecognizedArrow recognized = recognizeArrow(bitmapImage, mArrowTypeV2, true);
+                        setFoundArrow(recognized, mArrowTypeV2);
+
+                        Bitmap foundArrowBitmap = recognized.bitmap;
+                        mPostman.addParcelableExtra(getString(R.string.arrow_bitmap), foundArrowBitmap);
+                        mPostman.addStringExtra(getString(R.string.gmaps_notify_msg), textOnGmapsNotify);
+                        mPostman.sendIntent2MainActivity();
 
                         updateCount++;
                     }
@@ -793,25 +806,10 @@ public class NotificationMonitor extends NotificationListenerService {
                                 if (STORE_IMG) {
                                     ImageUtils.storeBitmap(bitmapImage, IMAGE_DIR, "arrow0.png");
                                 }
-                                bitmapImage = ImageUtils.removeAlpha(bitmapImage);
-                                if (STORE_IMG) {
-                                    ImageUtils.storeBitmap(bitmapImage, IMAGE_DIR, "arrow.png");
-                                }
-
-                                Bitmap foundArrowBitmap = null;
-                                if (mArrowTypeV2) {
-                                    final int index = getArrowV2Index(bitmapImage);
-                                    mFoundArrowV2 = ArrowV2.values()[index];
-                                    mLastFoundArrowV2 = mFoundArrowV2;
-
-                                    foundArrowBitmap = mArrowBitmaps[index];
-                                } else {
-                                    ArrowImage arrowImage = new ArrowImage(bitmapImage);
-                                    mFoundArrow = getArrow(arrowImage);
-                                    mLastFoundArrow = mFoundArrow;
 
-                                    foundArrowBitmap = arrowImage.binaryImage;
-                                }
+                                RecognizedArrow recognized = recognizeArrow(bitmapImage, mArrowTypeV2, true);
+                                setFoundArrow(recognized, mArrowTypeV2);
+                                Bitmap foundArrowBitmap = recognized.bitmap;
                                 mPostman.addParcelableExtra(getString(R.string.arrow_bitmap), foundArrowBitmap);
                                 mPostman.addStringExtra(getString(R.string.gmaps_notify_msg),
                                         textOnGmapsNotifyByJavaReflection);
@@ -851,7 +849,7 @@ public class NotificationMonitor extends NotificationListenerService {
     private void logParseMessage() {
         String arrowString = mArrowTypeV2 ? mFoundArrowV2.toString() : mFoundArrow.toString();
         String notifySourceString = mNotifySource == 0 ? "gmaps" : mNotifySource == 1 ? "gmaps go" : "unknow";
-        String notifyMessage = arrowString + "(" + (mArrowTypeV2 ? "v2:" : "v1:") + sArrowMinSad + ") " +
+        String notifyMessage = arrowString + "(" + (mArrowTypeV2 ? "v2:" : "v1:") + (null == mRecognizedArrow ? "-" : mRecognizedArrow.match) + ") " +
                 mDistanceNum + "/" + mDistanceUnit + " " +
                 (null == mRemainingHours ? 0 : mRemainingHours) + ":" + mRemainingMinutes + " " +
                 mRemainingDistance + mRemainingDistanceUnits + " " +
@@ -859,7 +857,9 @@ public class NotificationMonitor extends NotificationListenerService {
                 " busy: " + (mBusyTraffic ? "1" : "0") +
                 " parseMethod: (" + mParseMethod + ")" +
                 " source: (" + notifySourceString + ")" +
-                " (period: " + mNotifyPeriodTime + ")";
+                " (period: " + mNotifyPeriodTime + ")" +
+                " cache: " + mArrowCache.getHitCount() + "/" + (mArrowCache.getHitCount() + mArrowCache.getMissCount()) +
+                " (" + Math.round(mArrowCache.getHitRate() * 100) + "%)";
         logi(notifyMessage);
 
         mPostman.addStringExtra(getString(R.string.notify_msg), notifyMessage);
@@ -978,22 +978,11 @@ public class NotificationMonitor extends NotificationListenerService {
                                 Log.d(TAG, "Store arrow bitmap failed.");
                             }
                         }
-                        Bitmap foundArrowBitmap = null;
                         // CRITICAL FIX: Wrap in try-catch to prevent bitmap processing crashes
                         try {
-                            if (mArrowTypeV2) {
-                                final int index = getArrowV2Index(bitmapImage);
-                                mFoundArrowV2 = ArrowV2.values()[index];
-                                mLastFoundArrowV2 = mFoundArrowV2;
-
-                                foundArrowBitmap = mArrowBitmaps[index];
-                            } else {
-                                ArrowImage arrowImage = new ArrowImage(bitmapImage);
-                                mFoundArrow = getArrow(arrowImage);
-                                mLastFoundArrow = mFoundArrow;
-
-                                foundArrowBitmap = arrowImage.binaryImage;
-                            }
+                            RecognizedArrow recognized = recognizeArrow(bitmapImage, mArrowTypeV2, false);
+                            setFoundArrow(recognized, mArrowTypeV2);
+                            Bitmap foundArrowBitmap = recognized.bitmap;
 
                             if (null != foundArrowBitmap) {
                                 mPostman.addParcelableExtra(getString(R.string.arrow_bitmap), foundArrowBitmap);
@@ -1074,49 +1063,169 @@ public class NotificationMonitor extends NotificationListenerService {
         return eUnits.None;
     }
 
-    private static Arrow getArrow(ArrowImage image) {
-        sArrowMinSad = Integer.MAX_VALUE;
-        Arrow minSadArrow = Arrow.None;
+    // =======================================================================
+    // recognition cache
+    // =======================================================================
+    private static final int ARROW_CACHE_SIZE = 32;
 
-        for (Arrow a : Arrow.values()) {
-            int sad = image.getSAD(a.valueLeft);
-            if (sad < sArrowMinSad) {
-                sArrowMinSad = sad;
-                minSadArrow = a;
-            }
-            if (0 == sad) {
-                String integerString = Long.toString(a.valueLeft);
-                Log.d(TAG, "Recognize " + a.name() + " " + integerString);
-                return a;
+    // votes kept per arrow type, an unsure arrow needs 2 of the last 3
+    private static final int ARROW_VOTE_WINDOW = 3;
+    // TemplateMatch.getConfidence from which an arrow goes to the HUD without waiting for votes
+    private static final float SURE_ARROW_CONFIDENCE = 0.5f;
+    // more differing bits (of 63) than this is no Arrow at all
+    private static final int MAX_ARROW_SAD = 16;
 
+    private static final TemplateMatch NO_MATCH = new TemplateMatch(-1, Integer.MAX_VALUE, Integer.MAX_VALUE);
+
+    /**
+     * What was recognized for one icon, kept in mArrowCache. Immutable, every repost of the
+     * icon gets the same instance.
+     */
+    private static class RecognizedArrow {
+        final Arrow arrow;
+        final ArrowV2 arrowV2;
+        // for the arrow debug view, may be null
+        final Bitmap bitmap;
+        // SAD and margin to the runner-up
+        final TemplateMatch match;
+
+        RecognizedArrow(Arrow arrow, ArrowV2 arrowV2, Bitmap bitmap, TemplateMatch match) {
+            this.arrow = arrow;
+            this.arrowV2 = arrowV2;
+            this.bitmap = bitmap;
+            this.match = match;
+        }
+
+        /**
+         * false if nothing matched, two arrows matched equally well, or the best Arrow is too far
+         */
+        boolean isUsable() {
+            if (-1 == match.index || 0 == match.getMargin()) {
+                return false;
             }
+            return ArrowV2.None != arrowV2 || (Arrow.None != arrow && match.sad <= MAX_ARROW_SAD);
+        }
+
+        boolean isSure() {
+            return match.getConfidence() >= SURE_ARROW_CONFIDENCE;
         }
-        Log.d(TAG, "No Recognize, minSad: " + sArrowMinSad + " arrow:" + minSadArrow);
-        return minSadArrow;
     }
 
-    static int sArrowMinSad = 0;
+    // only used on mExecutor
+    private final RecognitionCache<RecognizedArrow> mArrowCache = new RecognitionCache<>(ARROW_CACHE_SIZE);
+    private int[] mIconPixels = new int[0];
+    // pixels of the icon scaled to the ArrowV2 templates, reused the same way
+    private int[] mScaledPixels = new int[0];
+    private RecognizedArrow mRecognizedArrow;
+    private final ArrowVote<Arrow> mArrowVote = new ArrowVote<>(ARROW_VOTE_WINDOW, Arrow.None);
+    private final ArrowVote<ArrowV2> mArrowV2Vote = new ArrowVote<>(ARROW_VOTE_WINDOW, ArrowV2.None);
 
-    private static int getGreenSAD(Bitmap image1, Bitmap image2) {
-        if (null == image1 || null == image2) {
-            return -1;
-        }
-        if (image1.getWidth() != image2.getWidth() || image1.getHeight() != image2.getHeight()) {
-            return -1;
+    /**
+     * Pass a recognized arrow through the voting window of its type into mFoundArrow(V2), so a
+     * single misrecognized icon never reaches the HUD. An unusable one votes for None, so unknown
+     * icons clear the arrow instead of keeping the previous maneuver.
+     */
+    private void setFoundArrow(RecognizedArrow recognized, boolean arrowTypeV2) {
+        final boolean usable = recognized.isUsable();
+        if (arrowTypeV2) {
+            mFoundArrowV2 = mArrowV2Vote.vote(usable ? recognized.arrowV2 : null, recognized.isSure());
+            mLastFoundArrowV2 = mFoundArrowV2;
+        } else {
+            mFoundArrow = mArrowVote.vote(usable ? recognized.arrow : null, recognized.isSure());
+            mLastFoundArrow = mFoundArrow;
         }
-        final int height = image1.getHeight();
-        final int width = image1.getWidth();
-        int sad = 0;
-        for (int h = 0; h < height; h++) {
-            for (int w = 0; w < width; w++) {
-                int pixel1 = image1.getPixel(w, h);
-                int pixel2 = image2.getPixel(w, h);
-                int green1 = Color.green(pixel1);
-                int green2 = Color.green(pixel2);
-                sad += Math.abs(green1 - green2);
+    }
+
+    private void resetArrowVotes() {
+        mArrowVote.reset();
+        mArrowV2Vote.reset();
+    }
+
+    /**
+     * Recognize the arrow of a notification icon. Google Maps reposts the same icon with every
+     * distance update, those are answered from mArrowCache without touching the icon again.
+     *
+     * @param arrowTypeV2 match against the ArrowV2 bitmaps instead of the Arrow fingerprints
+     * @param removeAlpha draw the icon onto an opaque bitmap first
+     */
+    private RecognizedArrow recognizeArrow(Bitmap bitmapImage, boolean arrowTypeV2, boolean removeAlpha) {
+        final int width = bitmapImage.getWidth();
+        final int height = bitmapImage.getHeight();
+        if (mIconPixels.length < width * height) {
+            mIconPixels = new int[width * height];
+        }
+        bitmapImage.getPixels(mIconPixels, 0, width, 0, 0, width, height);
+        final long key = RecognitionCache.hashPixels(mIconPixels, width, height) * 4
+                + (arrowTypeV2 ? 1 : 0) + (removeAlpha ? 2 : 0);
+
+        RecognizedArrow recognized = mArrowCache.get(key);
+        if (null == recognized) {
+            if (removeAlpha) {
+                bitmapImage = ImageUtils.removeAlpha(bitmapImage);
+                if (STORE_IMG) {
+                    ImageUtils.storeBitmap(bitmapImage, IMAGE_DIR, "arrow.png");
+                }
             }
+            if (arrowTypeV2) {
+                final TemplateMatch match = getArrowV2Match(bitmapImage, removeAlpha);
+                recognized = -1 == match.index
+                        ? new RecognizedArrow(Arrow.None, ArrowV2.None, null, match)
+                        : new RecognizedArrow(Arrow.None, sArrowsV2[match.index], mArrowBitmaps[match.index], match);
+            } else {
+                final long arrowValue;
+                Bitmap binaryImage = null;
+                if (mArrowDebug) {
+                    // the binary image is only built by ArrowImage
+                    ArrowImage arrowImage = new ArrowImage(bitmapImage, true);
+                    arrowValue = arrowImage.getArrowValue();
+                    binaryImage = arrowImage.binaryImage;
+                } else {
+                    if (removeAlpha) {
+                        bitmapImage.getPixels(mIconPixels, 0, width, 0, 0, width, height);
+                    }
+                    arrowValue = ArrowFingerprint.compute(mIconPixels, 0, width, width, height);
+                }
+                final TemplateMatch match = getArrow(arrowValue);
+                recognized = new RecognizedArrow(sArrows[match.index], ArrowV2.None, binaryImage, match);
+            }
+            mArrowCache.put(key, recognized);
         }
-        return sad;
+        mRecognizedArrow = recognized;
+        return recognized;
+    }
+
+    private static final Arrow[] sArrows = Arrow.values();
+    private static final ArrowV2[] sArrowsV2 = ArrowV2.values();
+
+    private static TemplateMatch getArrow(long arrowValue) {
+        final TemplateMatch match = ArrowMatcher.rank(Arrow.VALUES_LEFT, arrowValue);
+        final Arrow minSadArrow = sArrows[match.index];
+        if (0 == match.sad) {
+            Log.d(TAG, "Recognize " + minSadArrow.name() + " " + minSadArrow.valueLeft);
+        } else {
+            Log.d(TAG, "No Recognize, " + match + " arrow:" + minSadArrow);
+        }
+        return match;
+    }
+
+    private static int[] getPixels(Bitmap image) {
+        int[] pixels = new int[image.getWidth() * image.getHeight()];
+        image.getPixels(pixels, 0, image.getWidth(), 0, 0, image.getWidth(), image.getHeight());
+        return pixels;
+    }
+
+    /**
+     * @param buffer reused when large enough
+     * @return buffer or its replacement, holding the pixels of image row by row
+     */
+    private static int[] getPixels(Bitmap image, int[] buffer) {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        if (buffer.length < width * height) {
+            buffer = new int[width * height];
+        }
+        image.getPixels(buffer, 0, width, 0, 0, width, height);
+        return buffer;
     }
 
     private static int getNotWhiteSAD(Bitmap image1, Bitmap image2) {
@@ -1143,44 +1252,53 @@ public class NotificationMonitor extends NotificationListenerService {
         return sad;
     }
 
-    private int getArrowV2Index(Bitmap image) {
+    // below this the template match is ambiguous, see TemplateMatch.getConfidence
+    private static final float DESCRIPTOR_FALLBACK_CONFIDENCE = 0.3f;
+
+    /**
+     * @param opaque image is already drawn without alpha, see ImageUtils.removeAlpha
+     */
+    private TemplateMatch getArrowV2Match(Bitmap image, boolean opaque) {
         if (null == mArrowBitmaps) {
-            return -1;
+            return NO_MATCH;
         }
         final ArrowV2[] arrows = ArrowV2.values();
         if (mArrowBitmaps.length + 1 != arrows.length) {
-            return -1;
+            return NO_MATCH;
         }
 
         final int targetWidth = mArrowBitmaps[0].getWidth();
         final int targetHeight = mArrowBitmaps[0].getHeight();
-        Bitmap noAlphaImage = ImageUtils.removeAlpha(image);
+        Bitmap noAlphaImage = opaque ? image : ImageUtils.removeAlpha(image);
         Bitmap scaleImage = ImageUtils.getScaleBitmap(noAlphaImage, targetWidth, targetHeight);
-        // scaleImage = ImageUtils.removeAlpha(scaleImage);
-        final int length = mArrowBitmaps.length;
 
-        sArrowMinSad = Integer.MAX_VALUE;
-        int minSADIndex = -1;
-        int sadArray[] = new int[mArrowBitmaps.length];
-
-        for (int x = 0; x < length; x++) {
-            // int sad = getNotWhiteSAD(scaleImage, mArrowBitmaps[x]);
-            // getGreenSAD better than getNotWhiteSAD(?)
-            int sad = getGreenSAD(scaleImage, mArrowBitmaps[x]);
-            sadArray[x] = sad;
-            if (-1 != sad && sad < sArrowMinSad) {
-                sArrowMinSad = sad;
-                minSADIndex = x;
+        // fingerprint shortlist, then green SAD, green SAD better than getNotWhiteSAD(?)
+        mScaledPixels = getPixels(scaleImage, mScaledPixels);
+        final TemplateMatch match = mArrowV2Matcher.match(mScaledPixels);
+
+        // another skin or DPI: the templates don't tell the arrows apart, compare shapes
+        if (match.getConfidence() < DESCRIPTOR_FALLBACK_CONFIDENCE && null != mArrowDescriptors) {
+            final int width = noAlphaImage.getWidth();
+            // the cache key is taken, mIconPixels are free
+            mIconPixels = getPixels(noAlphaImage, mIconPixels);
+            final TemplateMatch shape = mArrowDescriptors.nearest(mIconPixels, 0, width,
+                    width, noAlphaImage.getHeight());
+            if (-1 != shape.index && shape.getConfidence() > match.getConfidence()) {
+                Log.d(TAG, "Descriptor " + shape + " instead of template " + match);
+                return shape;
             }
         }
+        if (-1 == match.index) {
+            return match;
+        }
 
-        ArrowV2 arrow = arrows[minSADIndex];
-        if (0 == sArrowMinSad) {
+        ArrowV2 arrow = arrows[match.index];
+        if (0 == match.sad) {
             Log.d(TAG, "Recognize " + arrow.name());
         } else {
-            Log.d(TAG, "No Recognize, minSad: " + sArrowMinSad + " arrow:" + arrow);
+            Log.d(TAG, "No Recognize, " + match + " arrow:" + arrow);
         }
-        return minSADIndex;
+        return match;
     }
 
     private ArrowV2 getArrowV2(Bitmap image) {
@@ -1198,42 +1316,34 @@ public class NotificationMonitor extends NotificationListenerService {
         scaleImage = ImageUtils.removeAlpha(scaleImage);
         final int length = mArrowBitmaps.length;
 
-        sArrowMinSad = Integer.MAX_VALUE;
+        int minSad = Integer.MAX_VALUE;
         int minSADIndex = -1;
         for (int x = 0; x < length; x++) {
             int sad = getNotWhiteSAD(scaleImage, mArrowBitmaps[x]);
-            if (-1 != sad && sad < sArrowMinSad) {
-                sArrowMinSad = sad;
+            if (-1 != sad && sad < minSad) {
+                minSad = sad;
                 minSADIndex = x;
             }
         }
 
         ArrowV2 arrow = arrows[minSADIndex];
-        if (0 == sArrowMinSad) {
+        if (0 == minSad) {
             Log.d(TAG, "Recognize " + arrow.name());
         } else {
-            Log.d(TAG, "No Recognize, minSad: " + sArrowMinSad + " arrow:" + arrow);
+            Log.d(TAG, "No Recognize, minSad: " + minSad + " arrow:" + arrow);
         }
         return arrow;
     }
 
     private static ArrowV2 getArrowV2(ArrowImage image) {
-        sArrowMinSad = Integer.MAX_VALUE;
-        ArrowV2 minSadArrow = ArrowV2.None;
-
-        for (ArrowV2 a : ArrowV2.values()) {
-            int sad = image.getSAD(a.valueLeft);
-            if (sad < sArrowMinSad) {
-                sArrowMinSad = sad;
-                minSadArrow = a;
-            }
-            if (0 == sad) {
-                String integerString = Long.toString(a.valueLeft);
-                Log.d(TAG, "Recognize " + a.name() + " " + integerString);
-                return a;
-            }
+        final int result = ArrowMatcher.match(ArrowV2.VALUES_LEFT, image.getArrowValue());
+        final int minSad = ArrowMatcher.getSAD(result);
+        final ArrowV2 minSadArrow = sArrowsV2[ArrowMatcher.getIndex(result)];
+        if (0 == minSad) {
+            Log.d(TAG, "Recognize " + minSadArrow.name() + " " + minSadArrow.valueLeft);
+        } else {
+            Log.d(TAG, "No Recognize, minSad: " + minSad + " arrow:" + minSadArrow);
         }
-        Log.d(TAG, "No Recognize, minSad: " + sArrowMinSad + " arrow:" + minSadArrow);
         return minSadArrow;
     }
 
@@ -1545,9 +1655,25 @@ public class NotificationMonitor extends NotificationListenerService {
 
     private boolean mBusyTraffic = false;
     private boolean mArrowTypeV2 = false;
+    // arrow bitmap shown in the debug notification, only then ArrowImage creates its binary image
+    private boolean mArrowDebug = false;
 
     private void updateHudInformation() {
         Log.i(TAG, "hud: " + sHud);
+        final HUDInterface hud = sHud;
+        if (null != hud) {
+            hud.beginBatch();
+        }
+        try {
+            updateHudFields();
+        } finally {
+            if (null != hud) {
+                hud.endBatch();
+            }
+        }
+    }
+
+    private void updateHudFields() {
 
         // ===================================================================================
         // distance
@@ -1846,6 +1972,10 @@ public class NotificationMonitor extends NotificationListenerService {
                 mPostman.addBooleanExtra(getString(R.string.gmaps_notify_catched), false);
                 mPostman.addBooleanExtra(getString(R.string.is_in_navigation), mIsNavigating);
                 mPostman.sendIntent2MainActivity();
+                if (null != mExecutor) {
+                    // navigation ended, the next one starts without old votes
+                    mExecutor.execute(this::resetArrowVotes);
+                }
 
                 int hh = null != mRemainingHours ? Integer.parseInt(mRemainingHours) : 0;
                 int mm = null != mRemainingMinutes ? Integer.parseInt(mRemainingMinutes) : -1;
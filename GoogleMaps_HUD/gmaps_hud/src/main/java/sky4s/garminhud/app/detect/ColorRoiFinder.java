@@ -0,0 +1,162 @@
+package sky4s.garminhud.app.detect;
+
+import java.util.Arrays;
+
+/**
+ * Bounding box of several colors from one pass over the pixels.
+ * <p>
+ * Gives the same rects as the old ScreenDetector.findColor scans (top, bottom, left, right, one
+ * getPixels and one full scan each, per color): a run of findWidth pixels of the color, horizontal
+ * for top / bottom and vertical for left / right, within the same scan limits.
+ * <p>
+ * A pixel is compared to all colors at once in packed form: r, g and b are spread into 10 bit
+ * lanes with a guard bit above each, so the per channel range check
+ * (color - {@link #TOLERANCE} .. color + {@link #TOLERANCE}) is two subtractions and a mask.
+ * <p>
+ * Buffers are reused between calls, not thread safe.
+ */
+final class ColorRoiFinder {
+    static final int TOLERANCE = 1;
+
+    // bit 9 of each 10 bit lane, the channels are in bits 0-7
+    private static final int GUARD = (1 << 29) | (1 << 19) | (1 << 9);
+
+    private int[] mLow = new int[0];
+    private int[] mHigh = new int[0];
+    // per color: matching pixels in a row ending at the current pixel
+    private int[] mRowRuns = new int[0];
+    // per color and column: matching pixels in a column ending at the current row
+    private int[] mColumnRuns = new int[0];
+    // per color: the sides found so far
+    private int[] mTop = new int[0];
+    private int[] mBottom = new int[0];
+    private int[] mLeft = new int[0];
+    private int[] mRight = new int[0];
+    private int mCount;
+    // one row of a FrameRegion
+    private int[] mRow = new int[0];
+
+    private static int spread(int rgb) {
+        return ((rgb & 0xff0000) << 4) | ((rgb & 0xff00) << 2) | (rgb & 0xff);
+    }
+
+    private static int clamp(int channel) {
+        return Math.max(0, Math.min(255, channel));
+    }
+
+    private static int spread(int r, int g, int b) {
+        return spread((clamp(r) << 16) | (clamp(g) << 8) | clamp(b));
+    }
+
+    /**
+     * @param pixels    ARGB, pixel (x, y) at offset + y * stride + x, alpha is ignored
+     * @param findWidth how many pixels in a row must have the color
+     * @return one rect per color, x / y / width / height -1 where that side wasn't found
+     */
+    Rect[] find(int[] pixels, int offset, int stride, int width, int height, int findWidth, int... colors) {
+        begin(width, colors);
+        for (int h = 0; h < height; h++) {
+            scanRow(pixels, offset + h * stride, h, width, height, findWidth);
+        }
+        return end();
+    }
+
+    /**
+     * Same on a frame read in place, one row at a time through a reused buffer.
+     */
+    Rect[] find(FrameRegion region, int findWidth, int... colors) {
+        final int width = region.getWidth();
+        final int height = region.getHeight();
+        if (mRow.length < width) {
+            mRow = new int[width];
+        }
+        begin(width, colors);
+        for (int h = 0; h < height; h++) {
+            region.getRow(h, mRow);
+            scanRow(mRow, 0, h, width, height, findWidth);
+        }
+        return end();
+    }
+
+    private void begin(int width, int[] colors) {
+        final int count = colors.length;
+        mCount = count;
+        if (mLow.length < count) {
+            mLow = new int[count];
+            mHigh = new int[count];
+            mRowRuns = new int[count];
+            mTop = new int[count];
+            mBottom = new int[count];
+            mLeft = new int[count];
+            mRight = new int[count];
+        }
+        if (mColumnRuns.length < count * width) {
+            mColumnRuns = new int[count * width];
+        }
+        for (int c = 0; c < count; c++) {
+            final int r = (colors[c] >> 16) & 0xff;
+            final int g = (colors[c] >> 8) & 0xff;
+            final int b = colors[c] & 0xff;
+            mLow[c] = spread(r - TOLERANCE, g - TOLERANCE, b - TOLERANCE);
+            mHigh[c] = spread(r + TOLERANCE, g + TOLERANCE, b + TOLERANCE) | GUARD;
+        }
+        Arrays.fill(mColumnRuns, 0, count * width, 0);
+        Arrays.fill(mTop, 0, count, -1);
+        Arrays.fill(mBottom, 0, count, -1);
+        Arrays.fill(mLeft, 0, count, -1);
+        Arrays.fill(mRight, 0, count, -1);
+    }
+
+    private void scanRow(int[] pixels, int row, int h, int width, int height, int findWidth) {
+        final int count = mCount;
+        // scan limits of findColor: horizontal runs start left of width - findWidth, the top one
+        // above height - findWidth, the bottom one between 1 and height - findWidth; vertical
+        // runs start above height - 1, the right one between findWidth + 1 and width - findWidth
+        final int rowStartEnd = width - findWidth;
+        final int topEnd = height - findWidth;
+        final int columnStartEnd = height - 1;
+        final int leftEnd = width - 1;
+        final int rightStart = findWidth + 1;
+
+        for (int c = 0; c < count; c++) {
+            mRowRuns[c] = 0;
+        }
+        final int columnStart = h - findWidth + 1;
+        for (int w = 0; w < width; w++) {
+            final int x = spread(pixels[row + w]);
+            final int xGuard = x | GUARD;
+            for (int c = 0, column = w; c < count; c++, column += width) {
+                // a lane keeps its guard bit only if low <= channel <= high
+                if (GUARD != (((xGuard - mLow[c]) & (mHigh[c] - x)) & GUARD)) {
+                    mRowRuns[c] = 0;
+                    mColumnRuns[column] = 0;
+                    continue;
+                }
+                if (++mRowRuns[c] >= findWidth && w - findWidth + 1 < rowStartEnd) {
+                    if (-1 == mTop[c] && h < topEnd) {
+                        mTop[c] = h;
+                    }
+                    if (h >= 1 && h <= topEnd) {
+                        mBottom[c] = h;
+                    }
+                }
+                if (++mColumnRuns[column] >= findWidth && columnStart < columnStartEnd) {
+                    if (w < leftEnd && (-1 == mLeft[c] || w < mLeft[c])) {
+                        mLeft[c] = w;
+                    }
+                    if (w >= rightStart && w <= rowStartEnd && w > mRight[c]) {
+                        mRight[c] = w;
+                    }
+                }
+            }
+        }
+    }
+
+    private Rect[] end() {
+        Rect[] rois = new Rect[mCount];
+        for (int c = 0; c < mCount; c++) {
+            rois[c] = new Rect(mLeft[c], mTop[c], mRight[c] - mLeft[c], mBottom[c] - mTop[c]);
+        }
+        return rois;
+    }
+}
@@ -0,0 +1,113 @@
+package sky4s.garminhud.app.detect;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import sky4s.garminhud.ImageUtils;
+
+/**
+ * Debug images of the screen detection (myscreen_now.png, road.png, lane.png, ...), written in
+ * the background so detection never waits for PNG deflate or disk I/O.
+ * <p>
+ * Off unless a sample rate is set (R.integer.debug_capture_sample): 1 stores every detected frame,
+ * N one frame in N. The region is copied into a bitmap on the detection thread, it is only valid
+ * until the image is closed; encoding and writing run on one worker thread, in order. The queue is
+ * bounded, when the worker falls behind the oldest pending image is dropped.
+ */
+final class DebugCapture {
+    private static final String TAG = DebugCapture.class.getSimpleName();
+    // about one detected frame worth of images
+    private static final int QUEUE_SIZE = 8;
+    private static final long IDLE_SECONDS = 5;
+
+    private final int mSample;
+    private final ThreadPoolExecutor mExecutor;
+    private int mFrame = 0;
+    private boolean mCapturing = false;
+
+    /**
+     * @param sample 0 off, otherwise store one frame in sample
+     */
+    DebugCapture(int sample) {
+        mSample = Math.max(0, sample);
+        if (0 == mSample) {
+            mExecutor = null;
+            return;
+        }
+        mExecutor = new ThreadPoolExecutor(1, 1,
+                IDLE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(QUEUE_SIZE),
+                new ThreadPoolExecutor.DiscardOldestPolicy());
+        // no thread left behind once detection stops
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Call once per detected frame, decides whether its images are stored.
+     */
+    void beginFrame() {
+        if (0 == mSample) {
+            return;
+        }
+        mCapturing = 0 == mFrame;
+        mFrame = (mFrame + 1) % mSample;
+    }
+
+    /**
+     * @return images of the current frame are stored, skip preparing them otherwise
+     */
+    boolean isCapturing() {
+        return mCapturing;
+    }
+
+    void store(FrameRegion region, String filename) {
+        if (mCapturing) {
+            submit(region.toBitmap(), filename);
+        }
+    }
+
+    void store(Bitmap bitmap, String filename) {
+        if (mCapturing) {
+            submit(bitmap.copy(Bitmap.Config.ARGB_8888, false), filename);
+        }
+    }
+
+    /**
+     * Copy a stored file, e.g. keep the previous screen, in order with the pending writes.
+     */
+    void copy(final String from, final String to) {
+        if (!mCapturing) {
+            return;
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                File src = new File(from);
+                if (!src.exists()) {
+                    return;
+                }
+                try {
+                    ImageDetectListener.copy(src, new File(to));
+                } catch (IOException e) {
+                    Log.e(TAG, "copy " + from + ": " + e);
+                }
+            }
+        });
+    }
+
+    private void submit(final Bitmap bitmap, final String filename) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ImageUtils.storeBitmap(bitmap, filename);
+                bitmap.recycle();
+            }
+        });
+    }
+}
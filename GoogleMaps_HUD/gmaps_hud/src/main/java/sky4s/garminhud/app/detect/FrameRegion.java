@@ -0,0 +1,124 @@
+package sky4s.garminhud.app.detect;
+
+import android.graphics.Bitmap;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Rectangle of an RGBA_8888 frame, read in place from its ByteBuffer (e.g. the ImageReader plane):
+ * pixel (x, y) is at offset + y * rowStride + x * pixelStride. A crop only moves offset, width
+ * and height, pixels are never copied, so it replaces Bitmap.createBitmap(source, x, y, w, h).
+ * <p>
+ * Mutable, so the detectors keep one per crop and reuse it for every frame. Only valid while the
+ * buffer is, for an Image until it is closed. The buffer position, limit and byte order are not
+ * touched, pixels are read through a big endian view of it.
+ */
+final class FrameRegion {
+    private ByteBuffer mBuffer;
+    private int mOffset;
+    private int mRowStride;
+    private int mPixelStride;
+    private int mWidth;
+    private int mHeight;
+
+    /**
+     * The whole frame.
+     *
+     * @param rowStride   bytes from one row to the next, padding included
+     * @param pixelStride bytes from one pixel to the next, 4 for RGBA_8888
+     */
+    FrameRegion set(ByteBuffer buffer, int rowStride, int pixelStride, int width, int height) {
+        // the Image plane is in native order, little endian on Android: getInt would give ABGR
+        mBuffer = ByteOrder.BIG_ENDIAN == buffer.order() ? buffer : buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+        mOffset = 0;
+        mRowStride = rowStride;
+        mPixelStride = pixelStride;
+        mWidth = width;
+        mHeight = height;
+        return this;
+    }
+
+    /**
+     * Crop of another region, like Bitmap.createBitmap(source, x, y, width, height).
+     *
+     * @throws IllegalArgumentException if the rectangle isn't inside the source
+     */
+    FrameRegion set(FrameRegion source, int x, int y, int width, int height) {
+        if (x < 0 || y < 0 || width <= 0 || height <= 0
+                || x + width > source.mWidth || y + height > source.mHeight) {
+            throw new IllegalArgumentException("crop " + x + "," + y + " " + width + "/" + height
+                    + " outside " + source.mWidth + "/" + source.mHeight);
+        }
+        mBuffer = source.mBuffer;
+        mOffset = source.mOffset + y * source.mRowStride + x * source.mPixelStride;
+        mRowStride = source.mRowStride;
+        mPixelStride = source.mPixelStride;
+        mWidth = width;
+        mHeight = height;
+        return this;
+    }
+
+    /**
+     * A copy of an ARGB_8888 bitmap, for debugging with stored screenshots.
+     */
+    FrameRegion set(Bitmap bitmap) {
+        ByteBuffer buffer = ByteBuffer.allocate(bitmap.getRowBytes() * bitmap.getHeight());
+        bitmap.copyPixelsToBuffer(buffer);
+        return set(buffer, bitmap.getRowBytes(), 4, bitmap.getWidth(), bitmap.getHeight());
+    }
+
+    int getWidth() {
+        return mWidth;
+    }
+
+    int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return ARGB, like Bitmap.getPixel
+     */
+    int getPixel(int x, int y) {
+        // bytes R G B A read big endian, rotated to A R G B
+        return Integer.rotateRight(mBuffer.getInt(mOffset + y * mRowStride + x * mPixelStride), 8);
+    }
+
+    /**
+     * @param out ARGB of row y, at least getWidth() long
+     */
+    void getRow(int y, int[] out) {
+        int index = mOffset + y * mRowStride;
+        for (int x = 0; x < mWidth; x++, index += mPixelStride) {
+            out[x] = Integer.rotateRight(mBuffer.getInt(index), 8);
+        }
+    }
+
+    /**
+     * Hash of every step-th pixel of every step-th row, a cheap test whether the region changed.
+     */
+    int sampleHash(int step) {
+        int hash = 1;
+        final int xStride = step * mPixelStride;
+        for (int y = step >> 1; y < mHeight; y += step) {
+            int index = mOffset + y * mRowStride + (step >> 1) * mPixelStride;
+            for (int x = step >> 1; x < mWidth; x += step, index += xStride) {
+                hash = 31 * hash + mBuffer.getInt(index);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Copy into a new bitmap, only for storing debug images.
+     */
+    Bitmap toBitmap() {
+        Bitmap bitmap = Bitmap.createBitmap(mWidth, mHeight, Bitmap.Config.ARGB_8888);
+        int[] row = new int[mWidth];
+        for (int y = 0; y < mHeight; y++) {
+            getRow(y, row);
+            bitmap.setPixels(row, 0, mWidth, 0, y, mWidth, 1);
+        }
+        return bitmap;
+    }
+}
@@ -1,13 +1,11 @@
 package sky4s.garminhud.app.detect;
 
 import android.content.res.Resources;
-import android.graphics.Bitmap;
 import android.graphics.Color;
 import android.util.Log;
 
 import java.util.ArrayList;
 
-import sky4s.garminhud.ImageUtils;
 import sky4s.garminhud.app.MainActivity;
 import sky4s.garminhud.app.R;
 import sky4s.garminhud.eLane;
@@ -49,16 +47,29 @@ public class GmapsScreenDetector extends ScreenDetector {
     public final static int RedTraffic_V1 = Color.rgb(221, 25, 29);
     public final static int RedTraffic_DayV2 = Color.rgb(221, 25, 29);
     public final static int RedTraffic_NightV2 = Color.rgb(146, 96, 92);
-    private int[] pixelsInFindColor;
+    private static final int ROAD_FIND_WIDTH = 2;
+    // crops of the current frame, reused for every frame
+    private final FrameRegion mHalfScreen = new FrameRegion();
+    private final FrameRegion mBanner = new FrameRegion();
+    private final FrameRegion mGmapScreen = new FrameRegion();
+    private final FrameRegion mGmapScreenHalfDown = new FrameRegion();
+    private final FrameRegion mMapRoi = new FrameRegion();
+    private final FrameRegion mLaneRoi = new FrameRegion();
 
     private int ROAD_ROI_WIDTH_TOL = 118;
     private int LANE_ROI_WIDTH_TOL = 10;
     private int LANE_DETECT_X_OFFSET = 100;
     private int ARROW_SIZE_TOL = 200;
+    private int LANE_DIVIDE_STEP = 3;
+    private int LANE_Y_OFFSET = 2;
     private GmapsTheme theme = GmapsTheme.Unknow;
+    // the navigation banner (road roi) learned from the first detection and its theme, later
+    // frames look for the road only around it; null until the road is found
+    private Rect mBannerRoi = null;
+    private GmapsTheme mBannerTheme = GmapsTheme.Unknow;
 
-    GmapsScreenDetector(MainActivity activity) {
-        super(activity);
+    GmapsScreenDetector(MainActivity activity, DebugCapture debugCapture) {
+        super(activity, debugCapture);
         if (null != activity) {
             Resources resource = activity.getResources();
             if (null != resource) {
@@ -66,10 +77,36 @@ public class GmapsScreenDetector extends ScreenDetector {
                 LANE_ROI_WIDTH_TOL = resource.getInteger(R.integer.lane_roi_width_tol);
                 LANE_DETECT_X_OFFSET = resource.getInteger(R.integer.lane_detect_x_offset);
 //                UPDATE_INTERVAL = resource.getInteger(R.integer.detect_update_interval);
+
+                // the tolerances are in screen pixels, the capture may be smaller
+                final int scale = Math.max(1, resource.getInteger(R.integer.capture_scale));
+                ROAD_ROI_WIDTH_TOL = scaled(ROAD_ROI_WIDTH_TOL, scale);
+                LANE_ROI_WIDTH_TOL = scaled(LANE_ROI_WIDTH_TOL, scale);
+                LANE_DETECT_X_OFFSET = scaled(LANE_DETECT_X_OFFSET, scale);
+                ARROW_SIZE_TOL = scaled(ARROW_SIZE_TOL, scale);
+                LANE_DIVIDE_STEP = scaled(LANE_DIVIDE_STEP, scale);
+                LANE_Y_OFFSET = scaled(LANE_Y_OFFSET, scale);
             }
         }
     }
 
+    /**
+     * @return the navigation banner learned from the road roi, in frame coordinates; null until
+     * the road is found. Don't modify.
+     */
+    Rect getBannerRoi() {
+        return mBannerRoi;
+    }
+
+    private static int scaled(int pixels, int scale) {
+        return Math.max(1, pixels / scale);
+    }
+
+    private static int roadColor(GmapsTheme theme) {
+        return GmapsTheme.DayV1 == theme ? RoadBgGreen_Day :
+                GmapsTheme.NightV1 == theme ? RoadBgGreen_Night : RoadBgGreen_V2;
+    }
+
     /**
      * detect procedure:
      * 1. road
@@ -79,7 +116,7 @@ public class GmapsScreenDetector extends ScreenDetector {
      *
      * @param screen
      */
-    void screenDetection(Bitmap screen) {
+    void screenDetection(FrameRegion screen) {
         boolean road_detect_result = false;
         boolean arrow_detect_result = false;
         boolean lane_detect_result = false;
@@ -99,50 +136,64 @@ public class GmapsScreenDetector extends ScreenDetector {
             //=====================================
             // road
             //=====================================
-            Bitmap half_screen_img = Bitmap.createBitmap(screen, 0, 0, screen.getWidth(), screen_height >> 1);
-            ImageUtils.storeBitmap(half_screen_img, MainActivity.SCREENCAP_STORE_DIRECTORY + "half_up.png");
-
-            Rect road_roi = getRoi(2, half_screen_img, RoadBgGreen_Day);
+            FrameRegion half_screen_img = mHalfScreen.set(screen, 0, 0, screen.getWidth(), screen_height >> 1);
+            debugCapture.store(half_screen_img, MainActivity.SCREENCAP_STORE_DIRECTORY + "half_up.png");
 
-            if (bypassThemeV1) {
-                road_roi = getRoi(2, half_screen_img, RoadBgGreen_V2);
-                theme = GmapsTheme.V2;
-            } else {
-                theme = GmapsTheme.DayV1;
-                boolean is_road_roi_valid = false;
-                if (!(is_road_roi_valid = road_roi.valid()) || Math.abs(road_roi.width - screen_width) > ROAD_ROI_WIDTH_TOL) {
-                    road_roi = getRoi(2, half_screen_img, RoadBgGreen_Night);
-                    theme = GmapsTheme.NightV1;
-                }
+            Rect road_roi = null;
+            if (null != mBannerRoi) {
+                road_roi = findRoadRoiInBanner(half_screen_img, screen_width);
+                theme = mBannerTheme;
+            }
+            if (null == road_roi) {
+                // all themes from one scan: day, night, V2
+                final Rect[] road_rois = getRois(ROAD_FIND_WIDTH, half_screen_img, RoadBgGreen_Day, RoadBgGreen_Night, RoadBgGreen_V2);
+                road_roi = road_rois[0];
 
-                if (!(is_road_roi_valid = road_roi.valid()) || Math.abs(road_roi.width - screen_width) > ROAD_ROI_WIDTH_TOL) {
-                    road_roi = getRoi(2, half_screen_img, RoadBgGreen_V2);
+                if (bypassThemeV1) {
+                    road_roi = road_rois[2];
                     theme = GmapsTheme.V2;
+                } else {
+                    theme = GmapsTheme.DayV1;
+                    boolean is_road_roi_valid = false;
+                    if (!(is_road_roi_valid = road_roi.valid()) || Math.abs(road_roi.width - screen_width) > ROAD_ROI_WIDTH_TOL) {
+                        road_roi = road_rois[1];
+                        theme = GmapsTheme.NightV1;
+                    }
+
+                    if (!(is_road_roi_valid = road_roi.valid()) || Math.abs(road_roi.width - screen_width) > ROAD_ROI_WIDTH_TOL) {
+                        road_roi = road_rois[2];
+                        theme = GmapsTheme.V2;
+                    }
                 }
-            }
 
+                // learn the banner, or forget it until the road is found again
+                mBannerRoi = road_roi.valid() ? new Rect(road_roi.x, road_roi.y, road_roi.width, road_roi.height) : null;
+                mBannerTheme = theme;
+            }
 
             Log.i(TAG, "Road roi: " + road_roi.toString());
             if (!road_roi.valid()) {
                 return;
             }
-            ImageUtils.storeBitmap(Bitmap.createBitmap(half_screen_img, road_roi.x, road_roi.y, road_roi.width, road_roi.height), MainActivity.SCREENCAP_STORE_DIRECTORY + "road.png");
+            if (debugCapture.isCapturing()) {
+                debugCapture.store(new FrameRegion().set(half_screen_img, road_roi.x, road_roi.y, road_roi.width, road_roi.height), MainActivity.SCREENCAP_STORE_DIRECTORY + "road.png");
+            }
 
             final int gmapHeight = screen_height - road_roi.y;
             if (gmapHeight < 0) {
                 return;
             }
-            Bitmap gmapScreen = Bitmap.createBitmap(screen, road_roi.x, road_roi.y, road_roi.width, gmapHeight);
+            FrameRegion gmapScreen = mGmapScreen.set(screen, road_roi.x, road_roi.y, road_roi.width, gmapHeight);
 
             // write bitmap to a file
-            ImageUtils.storeBitmap(gmapScreen, MainActivity.SCREENCAP_STORE_DIRECTORY + GmapImage);
+            debugCapture.store(gmapScreen, MainActivity.SCREENCAP_STORE_DIRECTORY + GmapImage);
 
             road_detect_result = true;
             //=====================================
             // arrow
             //=====================================
-            Bitmap gmapScreenHalfDown = Bitmap.createBitmap(gmapScreen, 0, gmapScreen.getHeight() >> 1, gmapScreen.getWidth(), gmapScreen.getHeight() >> 1);
-            ImageUtils.storeBitmap(gmapScreenHalfDown, MainActivity.SCREENCAP_STORE_DIRECTORY + "gmap_half_dw.png");
+            FrameRegion gmapScreenHalfDown = mGmapScreenHalfDown.set(gmapScreen, 0, gmapScreen.getHeight() >> 1, gmapScreen.getWidth(), gmapScreen.getHeight() >> 1);
+            debugCapture.store(gmapScreenHalfDown, MainActivity.SCREENCAP_STORE_DIRECTORY + "gmap_half_dw.png");
 
             final boolean approveArrowStatic = false;
             Rect arrow_roi = null;
@@ -165,7 +216,7 @@ public class GmapsScreenDetector extends ScreenDetector {
             }
             arrow_detect_result = true;
             //=====================================
-            Bitmap map_roi_image = null;
+            FrameRegion map_roi_image = null;
             if (road_detect_result && arrow_detect_result) {
                 int x = 0;//road_roi.x;
                 int y = road_roi.height;
@@ -173,9 +224,9 @@ public class GmapsScreenDetector extends ScreenDetector {
                 int height = gmapScreen.getHeight() - y - (gmapScreen.getHeight() - arrow_roi.y);
 
                 if (width > 0 && height > 0) {
-                    map_roi_image = Bitmap.createBitmap(gmapScreen, x, y, width, height);
+                    map_roi_image = mMapRoi.set(gmapScreen, x, y, width, height);
                     // write bitmap to a file
-                    ImageUtils.storeBitmap(map_roi_image, MainActivity.SCREENCAP_STORE_DIRECTORY + MapImage);
+                    debugCapture.store(map_roi_image, MainActivity.SCREENCAP_STORE_DIRECTORY + MapImage);
                 }
             }
             //=====================================
@@ -205,8 +256,8 @@ public class GmapsScreenDetector extends ScreenDetector {
 
             final boolean lane_roi_exist = lane_roi.valid() && Math.abs(lane_roi.width - road_roi.width) < LANE_ROI_WIDTH_TOL;
             if (lane_roi_exist) {
-                Bitmap lane_roi_image = Bitmap.createBitmap(map_roi_image, lane_roi.x, lane_roi.y, lane_roi.width, lane_roi.height);
-                ImageUtils.storeBitmap(lane_roi_image, MainActivity.SCREENCAP_STORE_DIRECTORY + LaneImage);
+                FrameRegion lane_roi_image = mLaneRoi.set(map_roi_image, lane_roi.x, lane_roi.y, lane_roi.width, lane_roi.height);
+                debugCapture.store(lane_roi_image, MainActivity.SCREENCAP_STORE_DIRECTORY + LaneImage);
 
                 final int lane_color = theme == GmapsTheme.DayV1 || theme == GmapsTheme.NightV1 ? LaneDivideWhiteV1 :
                         theme == GmapsTheme.V2 ? LaneDivideWhiteV2 : 0;
@@ -216,11 +267,11 @@ public class GmapsScreenDetector extends ScreenDetector {
 
                     } else {
                         hud.setLanes((char) 0, (char) 0);
-                        ImageUtils.storeBitmap(lane_roi_image, MainActivity.SCREENCAP_STORE_DIRECTORY + "NG_lane.png");
+                        debugCapture.store(lane_roi_image, MainActivity.SCREENCAP_STORE_DIRECTORY + "NG_lane.png");
                     }
                 } else {
                     hud.setLanes((char) 0, (char) 0);
-                    ImageUtils.storeBitmap(lane_roi_image, MainActivity.SCREENCAP_STORE_DIRECTORY + "NG_lane.png");
+                    debugCapture.store(lane_roi_image, MainActivity.SCREENCAP_STORE_DIRECTORY + "NG_lane.png");
                 }
             } else {
                 hud.setLanes((char) 0, (char) 0);
@@ -240,11 +291,54 @@ public class GmapsScreenDetector extends ScreenDetector {
         }
     }
 
-    private boolean busyTrafficDetect(Bitmap map, boolean alertYellowTraffic, int alertSpeedExceeds, int gpsSpeed, GmapsTheme theme) {
+    /**
+     * Road roi of the learned theme, searched only in a band around the learned banner: its rows
+     * and half its height above and below, instead of the whole upper half of the screen.
+     *
+     * @return null if the banner isn't there any more, or reaches the band border (moved, grew or
+     * the screen changed); search the whole half screen then
+     */
+    private Rect findRoadRoiInBanner(FrameRegion half_screen, int screen_width) {
+        final int margin = Math.max(mBannerRoi.height >> 1, ROAD_FIND_WIDTH + 1);
+        final int top = Math.max(0, mBannerRoi.y - margin);
+        final int bottom = Math.min(half_screen.getHeight(), mBannerRoi.y + mBannerRoi.height + 1 + margin);
+        if (bottom <= top || mBannerRoi.x + mBannerRoi.width > screen_width) {
+            return null;
+        }
+        FrameRegion band = mBanner.set(half_screen, 0, top, half_screen.getWidth(), bottom - top);
+        Rect road_roi = getRoi(ROAD_FIND_WIDTH, band, roadColor(mBannerTheme));
+        if (!road_roi.valid()) {
+            return null;
+        }
+        // the lowest row the finder reports as bottom is height - findWidth
+        final boolean touchesTop = top > 0 && 0 == road_roi.y;
+        final boolean touchesBottom = bottom < half_screen.getHeight()
+                && road_roi.y + road_roi.height >= band.getHeight() - ROAD_FIND_WIDTH;
+        if (touchesTop || touchesBottom) {
+            return null;
+        }
+        if (GmapsTheme.V2 != mBannerTheme && Math.abs(road_roi.width - screen_width) > ROAD_ROI_WIDTH_TOL) {
+            return null;
+        }
+        road_roi.y += top;
+        return road_roi;
+    }
+
+    private boolean busyTrafficDetect(FrameRegion map, boolean alertYellowTraffic, int alertSpeedExceeds, int gpsSpeed, GmapsTheme theme) {
         final boolean isV1 = GmapsTheme.DayV1 == theme || GmapsTheme.NightV1 == theme;
 
-        Rect orange_roi = isV1 ? getRoi(map, OrangeTraffic_V1) : getRoi(map, OrangeTraffic_DayV2, OrangeTraffic_NightV2);
-        Rect roi_red = isV1 ? getRoi(map, RedTraffic_V1) : getRoi(map, RedTraffic_DayV2, RedTraffic_NightV2);
+        // orange and red from one scan
+        Rect orange_roi;
+        Rect roi_red;
+        if (isV1) {
+            final Rect[] rois = getRois(1, map, OrangeTraffic_V1, RedTraffic_V1);
+            orange_roi = rois[0];
+            roi_red = rois[1];
+        } else {
+            final Rect[] rois = getRois(1, map, OrangeTraffic_DayV2, OrangeTraffic_NightV2, RedTraffic_DayV2, RedTraffic_NightV2);
+            orange_roi = firstFound(rois, 0, 2);
+            roi_red = firstFound(rois, 2, 4);
+        }
         Log.i(TAG, "busyTrafficDetect: " + "Orange" + orange_roi + " Red" + roi_red);
 
         final boolean yellowTraffic = -1 != orange_roi.x;
@@ -257,11 +351,11 @@ public class GmapsScreenDetector extends ScreenDetector {
     }
 
 
-    private ArrayList<Boolean> laneDetect(Bitmap lane, int bgColor, int laneColor) {
+    private ArrayList<Boolean> laneDetect(FrameRegion lane, int bgColor, int laneColor) {
         final int height = lane.getHeight() - 1;
         ArrayList<Integer> laneDivide = findLaneDivide(lane, height, bgColor, laneColor);
         ArrayList<Boolean> result = new ArrayList<Boolean>();
-        final int yOffset = -2;
+        final int yOffset = -LANE_Y_OFFSET;
 
         if (laneDivide.size() >= 1) {
             int halfDivideWidth = -1;
@@ -359,24 +453,25 @@ public class GmapsScreenDetector extends ScreenDetector {
         return hasDrivingLane;
     }
 
-    private ArrayList<Integer> findLaneDivide(Bitmap lane, int y, int bgColor, int divideColor) {
+    private ArrayList<Integer> findLaneDivide(FrameRegion lane, int y, int bgColor, int divideColor) {
         ArrayList<Integer> result = new ArrayList<Integer>();
         final int width = lane.getWidth();
-        for (int x = 0; x < width - 6; x++) {
+        final int step = LANE_DIVIDE_STEP;
+        for (int x = 0; x < width - 2 * step; x++) {
             int pixel0 = lane.getPixel(x, y);
-            int pixel3 = lane.getPixel(x + 3, y);
-            int pixel6 = lane.getPixel(x + 6, y);
+            int pixel3 = lane.getPixel(x + step, y);
+            int pixel6 = lane.getPixel(x + 2 * step, y);
             if (isSameRGB(pixel0, bgColor) &&
                     isSameRGB(pixel3, divideColor) &&
                     isSameRGB(pixel6, bgColor)) {
-                result.add(x + 3);
-                x += 6;
+                result.add(x + step);
+                x += 2 * step;
             }
         }
         return result;
     }
 
-    private int getFirstVertical(Bitmap lane, int x0, int y0, int color,
+    private int getFirstVertical(FrameRegion lane, int x0, int y0, int color,
                                  boolean notLogic, boolean inverse_scan) {
         final int height = lane.getHeight();
         int end = inverse_scan ? y0 : height;
@@ -390,7 +485,7 @@ public class GmapsScreenDetector extends ScreenDetector {
         return -1;
     }
 
-    private int getFirstHorizontal(Bitmap lane, int x0, int x1, int y0, int color,
+    private int getFirstHorizontal(FrameRegion lane, int x0, int x1, int y0, int color,
                                    boolean notLogic, boolean inverse_scan) {
         int end = inverse_scan ? x0 : x1;
         int w_step = inverse_scan ? -1 : 1;
@@ -1,7 +1,6 @@
 package sky4s.garminhud.app.detect;
 
 import android.content.res.Resources;
-import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.media.Image;
 import android.media.ImageReader;
@@ -13,9 +12,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.ByteBuffer;
 
-import sky4s.garminhud.ImageUtils;
 import sky4s.garminhud.app.MainActivity;
 import sky4s.garminhud.app.R;
 
@@ -23,31 +20,50 @@ public class ImageDetectListener implements ImageReader.OnImageAvailableListener
     private MainActivity activity;
     private static final String TAG = ImageDetectListener.class.getSimpleName();
     private GmapsScreenDetector gmapsDetector;
+    // debug pngs, off unless R.integer.debug_capture_sample is set
+    private final DebugCapture debugCapture;
+    // the image plane, read in place
+    private final FrameRegion mFrame = new FrameRegion();
+    // banner and lane strip below it, hashed to see whether they changed since the last frame
+    private final FrameRegion mBanner = new FrameRegion();
+    private int mBannerHash = 0;
+    private int mBannerHashStep = 4;
 //    private WazeScreenDetector wazeDetector;
 
     public ImageDetectListener(MainActivity activity) {
-        gmapsDetector = new GmapsScreenDetector(activity);
-//        wazeDetector = new WazeScreenDetector(activity);
         this.activity = activity;
 
+        int debugCaptureSample = 0;
         if (null != activity) {
             Resources resource = activity.getResources();
             if (null != resource) {
                 UPDATE_INTERVAL = resource.getInteger(R.integer.detect_update_interval);
+                MIN_UPDATE_INTERVAL = resource.getInteger(R.integer.detect_min_interval);
+                IDLE_UPDATE_INTERVAL = resource.getInteger(R.integer.detect_idle_interval);
+                // hash grid in screen pixels, like the detector tolerances
+                final int scale = Math.max(1, resource.getInteger(R.integer.capture_scale));
+                mBannerHashStep = Math.max(1, mBannerHashStep / scale);
+                debugCaptureSample = resource.getInteger(R.integer.debug_capture_sample);
             }
         }
+        debugCapture = new DebugCapture(debugCaptureSample);
+        gmapsDetector = new GmapsScreenDetector(activity, debugCapture);
+//        wazeDetector = new WazeScreenDetector(activity, debugCapture);
     }
 
     public final static String PreImage = "myscreen_pre.png";
     public final static String NowImage = "myscreen_now.png";
     private static long lastUpdateTime = 0;
     private long UPDATE_INTERVAL = 1500;
+    // once the banner is known: detect as soon as it changes, but not more often than
+    // MIN_UPDATE_INTERVAL, and while it doesn't every IDLE_UPDATE_INTERVAL (traffic on the map)
+    private long MIN_UPDATE_INTERVAL = 500;
+    private long IDLE_UPDATE_INTERVAL = 5000;
 
     @Override
     public void onImageAvailable(ImageReader reader) {
         Image image = null;
         FileOutputStream fos = null;
-        Bitmap bitmap = null;
 
 
         try {
@@ -55,48 +71,59 @@ public class ImageDetectListener implements ImageReader.OnImageAvailableListener
             if (image != null) {
                 long currentTime = System.currentTimeMillis();
                 long deltaTime = currentTime - lastUpdateTime;
-                boolean do_detection = deltaTime > UPDATE_INTERVAL;//&& int_speed>40;
+                if (deltaTime <= MIN_UPDATE_INTERVAL) {
+                    return;
+                }
+
+                // no copy: the detectors read the plane through row / pixel strides, so the
+                // row padding is never part of the screen
+                Image.Plane plane = image.getPlanes()[0];
+                FrameRegion frame = mFrame.set(plane.getBuffer(), plane.getRowStride(), plane.getPixelStride(),
+                        image.getWidth(), image.getHeight());
+
+                boolean do_detection;
+                Rect banner = gmapsDetector.getBannerRoi();
+                if (null == banner || banner.width <= 0 || banner.height <= 0
+                        || banner.x + banner.width > frame.getWidth() || banner.y + banner.height >= frame.getHeight()) {
+                    do_detection = deltaTime > UPDATE_INTERVAL;//&& int_speed>40;
+                } else {
+                    // the lane strip is below the banner, about as high
+                    final int height = Math.min(2 * banner.height, frame.getHeight() - banner.y);
+                    final int hash = mBanner.set(frame, banner.x, banner.y, banner.width, height).sampleHash(mBannerHashStep);
+                    final boolean changed = hash != mBannerHash;
+                    mBannerHash = hash;
+                    do_detection = changed || deltaTime > IDLE_UPDATE_INTERVAL;
+                }
 
                 if (do_detection) {
                     lastUpdateTime = currentTime;
-                    Image.Plane[] planes = image.getPlanes();
-                    ByteBuffer buffer = planes[0].getBuffer();
-                    int pixelStride = planes[0].getPixelStride();
-                    int rowStride = planes[0].getRowStride();
-                    int rowPadding = rowStride - pixelStride * activity.mWidth;
-
-                    // create bitmap
-                    bitmap = Bitmap.createBitmap(activity.mWidth + rowPadding / pixelStride, activity.mHeight, Bitmap.Config.ARGB_8888);
-                    bitmap.copyPixelsFromBuffer(buffer);
-
-                    File nowImage = new File(MainActivity.SCREENCAP_STORE_DIRECTORY + NowImage);
-                    if (nowImage.exists()) {
-                        File preImage = new File(MainActivity.SCREENCAP_STORE_DIRECTORY + PreImage);
-                        copy(nowImage, preImage);
-                    }
+
+                    debugCapture.beginFrame();
+                    debugCapture.copy(MainActivity.SCREENCAP_STORE_DIRECTORY + NowImage,
+                            MainActivity.SCREENCAP_STORE_DIRECTORY + PreImage);
 
                     // write bitmap to a file
-                    ImageUtils.storeBitmap(bitmap, MainActivity.SCREENCAP_STORE_DIRECTORY + NowImage);
+                    debugCapture.store(frame, MainActivity.SCREENCAP_STORE_DIRECTORY + NowImage);
 
                     //=================================
                     // for debug use
                     //=================================
                     final boolean loadBitmapFromFile = false;
                     if (loadBitmapFromFile) {
-                        bitmap = BitmapFactory.decodeFile(MainActivity.SCREENCAP_STORE_DIRECTORY + "q.png");
+                        frame = new FrameRegion().set(BitmapFactory.decodeFile(MainActivity.SCREENCAP_STORE_DIRECTORY + "q.png"));
                     }
                     //=================================
 
                     final boolean wazeDetection = false;
                     if (wazeDetection) {
-//                        wazeDetector.screenDetection(bitmap);
+//                        wazeDetector.screenDetection(frame);
                     }
 
                     if (!activity.mIsNavigating) {
                         return;
                     }
-                    gmapsDetector.screenDetection(bitmap);
-//                    screenDetection(bitmap);
+                    gmapsDetector.screenDetection(frame);
+//                    screenDetection(frame);
                 }
             }
 
@@ -111,10 +138,6 @@ public class ImageDetectListener implements ImageReader.OnImageAvailableListener
                 }
             }
 
-            if (bitmap != null) {
-                bitmap.recycle();
-            }
-
             if (image != null) {
                 image.close();
             }
@@ -36,17 +36,22 @@ public abstract class ScreenDetector {
     protected static MainActivity activity;
     protected static MainActivityPostman postman;
     protected static HUDInterface hud;
-    private int[] pixelsInFindColor;
+    private final ColorRoiFinder roiFinder = new ColorRoiFinder();
+    protected final DebugCapture debugCapture;
 
-    ScreenDetector(MainActivity _activity) {
+    ScreenDetector(MainActivity _activity, DebugCapture _debugCapture) {
         activity = _activity;
+        debugCapture = _debugCapture;
         hud = activity.mHud;
         if (null == postman) {
             postman = MainActivityPostman.toMainActivityInstance(activity, activity.getString(R.string.broadcast_sender_image_detect));
         }
     }
 
-    abstract void screenDetection(Bitmap screen);
+    /**
+     * @param screen the captured frame, only valid during the call
+     */
+    abstract void screenDetection(FrameRegion screen);
 
 
     protected boolean isSameRGB(int color1, int color2) {
@@ -69,92 +74,37 @@ public abstract class ScreenDetector {
         return same || similarColor;
     }
 
-    protected int findColor(Bitmap image, int color, boolean vertical, boolean up, boolean left, boolean printDetail, int findWidth) {
-        int width = image.getWidth();
-        int height = image.getHeight();
-        int totalSize = width * height;
-        if (null == pixelsInFindColor || totalSize != pixelsInFindColor.length) {
-            pixelsInFindColor = null;
-            pixelsInFindColor = new int[width * height];
-        }
+    /**
+     * ROI of every color from one scan of the frame in place, see {@link ColorRoiFinder}.
+     *
+     * @return one rect per color, x -1 if the color wasn't found
+     */
+    protected Rect[] getRois(int findWidth, FrameRegion image, int... colors) {
+        return roiFinder.find(image, findWidth, colors);
+    }
 
-        image.getPixels(pixelsInFindColor, 0, width, 0, 0, width, height);
-
-        int inc = 1;
-
-        int h_start = vertical ? (up ? 0 : height - findWidth) : 0;
-        int h_inc = (vertical ? up ? 1 : -1 : 1) * inc;
-        int h_end = vertical ? (up ? height - findWidth : 0) : height - 1;
-
-        int w_start = vertical ? 0 : left ? 0 : width - findWidth;
-        int w_inc = (vertical ? 1 : left ? 1 : -1) * inc;
-        int w_end = vertical ? width - findWidth : left ? width - 1 : 0 + findWidth;
-
-        int w0_end = vertical ? w_start + w_inc : w_end;
-        int w1_end = vertical ? w_end : w_start + w_inc;
-
-        /**
-         *  w0
-         *     h
-         *        w1
-         */
-
-        for (int w0 = w_start; w0 != w0_end; w0 += w_inc) {
-            for (int h = h_start; h != h_end; h += h_inc) {
-                for (int w1 = w_start; w1 != w1_end; w1 += w_inc) {
-                    int w = vertical ? w1 : w0;
-
-                    boolean allSameColor = true;
-                    for (int x = 0; x < findWidth; x++) {
-                        int hh = vertical ? h : h + x;
-                        int ww = vertical ? w + x : w;
-                        int pixel = pixelsInFindColor[ww + hh * width];
-                        final int tolerance = 1;
-                        allSameColor = allSameColor && isSameRGB(pixel, color, tolerance);
-                    }
-
-                    boolean sameColor = allSameColor;
-
-                    if (sameColor) {
-                        if (vertical) {
-                            if (printDetail) {
-//                                Log.i(TAG, "vertical: " + h + "," + w);
-                            }
-                            return h;
-                        } else {
-                            if (printDetail) {
-//                                Log.i(TAG, "horizontal: " + h + "," + w);
-                            }
-                            return w;
-                        }
-                    }
-                }
+    /**
+     * @return the first of rois[from, to) whose color was found, like getRoi over those colors
+     */
+    protected static Rect firstFound(Rect[] rois, int from, int to) {
+        for (int x = from; x < to; x++) {
+            if (-1 != rois[x].x) {
+                return rois[x];
             }
         }
-        return -1;
+        return new Rect(-1, -1, 0, 0);
     }
 
-    protected Rect getRoi(Bitmap image, int... colors) {
+    protected Rect getRoi(FrameRegion image, int... colors) {
         return getRoi(1, image, colors);
     }
 
-    protected Rect getRoi(int findWidth, Bitmap image, int... colors) {
-        for (int x = 0; x < colors.length; x++) {
-            int color = colors[x];
-            Rect rect = getRoi(findWidth, image, color, false);
-            if (-1 != rect.x) {
-                return rect;
-            }
-        }
-        return new Rect(-1, -1, 0, 0);
+    protected Rect getRoi(int findWidth, FrameRegion image, int... colors) {
+        return firstFound(getRois(findWidth, image, colors), 0, colors.length);
     }
 
 
-    protected Rect getRoi(int findWidth, Bitmap image, int color, boolean printDetail) {
-        int top = findColor(image, color, true, true, false, printDetail, findWidth);
-        int bottom = findColor(image, color, true, false, false, printDetail, findWidth);
-        int left = findColor(image, color, false, true, true, printDetail, findWidth);
-        int right = findColor(image, color, false, true, false, printDetail, findWidth);
-        return new Rect(left, top, right - left, bottom - top);
+    protected Rect getRoi(int findWidth, FrameRegion image, int color, boolean printDetail) {
+        return getRois(findWidth, image, color)[0];
     }
 }
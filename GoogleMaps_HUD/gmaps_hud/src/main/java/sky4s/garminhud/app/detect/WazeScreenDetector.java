@@ -10,8 +10,8 @@ import sky4s.garminhud.app.MainActivity;
 
 public class WazeScreenDetector extends ScreenDetector {
 
-    WazeScreenDetector(MainActivity activity) {
-        super(activity);
+    WazeScreenDetector(MainActivity activity, DebugCapture debugCapture) {
+        super(activity, debugCapture);
     }
 
     private int getStatusBarHeight() {
@@ -88,19 +88,20 @@ public class WazeScreenDetector extends ScreenDetector {
         return bitmap;
     }
 
-    void screenDetection(Bitmap screen) {
+    void screenDetection(FrameRegion region) {
 
         try {
-            if (null == screen) {
+            if (null == region) {
                 return;
             }
+            Bitmap screen = region.toBitmap();
             int screen_width = screen.getWidth();
             int screen_height = screen.getHeight();
             int status_bar_height = getStatusBarHeight();
             int app_height = screen_height - status_bar_height;
 
             Bitmap eighth_screen_img = Bitmap.createBitmap(screen, 0, status_bar_height, screen.getWidth(), app_height >> 3);
-            ImageUtils.storeBitmap(eighth_screen_img, MainActivity.SCREENCAP_STORE_DIRECTORY + "8_up.png");
+            debugCapture.store(eighth_screen_img, MainActivity.SCREENCAP_STORE_DIRECTORY + "8_up.png");
 
             Bitmap[] road_images = divideRoadBar(eighth_screen_img);
             Bitmap distance_image = preProcessImage(road_images[1]);
@@ -110,7 +111,7 @@ public class WazeScreenDetector extends ScreenDetector {
             String roadName = ocrWithChinese(roadname_image);
 
             Bitmap eighth_dw_screen_img = Bitmap.createBitmap(screen, 0, screen_height - (app_height / 10), screen.getWidth(), app_height / 10);
-            ImageUtils.storeBitmap(eighth_dw_screen_img, MainActivity.SCREENCAP_STORE_DIRECTORY + "8_dw.png");
+            debugCapture.store(eighth_dw_screen_img, MainActivity.SCREENCAP_STORE_DIRECTORY + "8_dw.png");
 
             Bitmap[] time_images = divideTimeBar(eighth_dw_screen_img);
             Bitmap eta_image = preProcessImage(time_images[0]);
@@ -119,10 +120,10 @@ public class WazeScreenDetector extends ScreenDetector {
             String eta = ocr(eta_image, DEFAULT_LANGUAGE);
             String time = ocrWithChinese(time_image);
 
-            ImageUtils.storeBitmap(distance_image, MainActivity.SCREENCAP_STORE_DIRECTORY + "distance.png");
-            ImageUtils.storeBitmap(roadname_image, MainActivity.SCREENCAP_STORE_DIRECTORY + "road.png");
-            ImageUtils.storeBitmap(eta_image, MainActivity.SCREENCAP_STORE_DIRECTORY + "eta.png");
-            ImageUtils.storeBitmap(time_image, MainActivity.SCREENCAP_STORE_DIRECTORY + "time.png");
+            debugCapture.store(distance_image, MainActivity.SCREENCAP_STORE_DIRECTORY + "distance.png");
+            debugCapture.store(roadname_image, MainActivity.SCREENCAP_STORE_DIRECTORY + "road.png");
+            debugCapture.store(eta_image, MainActivity.SCREENCAP_STORE_DIRECTORY + "eta.png");
+            debugCapture.store(time_image, MainActivity.SCREENCAP_STORE_DIRECTORY + "time.png");
 
             int a = 1;
 
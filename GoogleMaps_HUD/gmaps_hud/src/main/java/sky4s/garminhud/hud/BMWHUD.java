@@ -20,6 +20,7 @@ import sky4s.garminhud.eLane;
 import sky4s.garminhud.eOutAngle;
 import sky4s.garminhud.eOutType;
 import sky4s.garminhud.eUnits;
+import sky4s.garminhud.protocol.BMWMessage;
 
 public class BMWHUD extends HUDAdapter {
     private static final String TAG = BMWHUD.class.getSimpleName();
@@ -16,6 +16,9 @@ import sky4s.garminhud.app.R;
 import sky4s.garminhud.eOutAngle;
 import sky4s.garminhud.eOutType;
 import sky4s.garminhud.eUnits;
+import sky4s.garminhud.protocol.GarminProtocol;
+import sky4s.garminhud.protocol.GarminShadowState;
+import sky4s.garminhud.protocol.HudTransport;
 
 /**
  * Created by skyforce on 2018/8/13.
@@ -29,20 +32,31 @@ public class GarminHUD extends HUDAdapter {
     private static final boolean DEBUG = false;
 
     private static final int MAX_UPDATES_PER_SECOND = 6;
+    // about two seconds of writes at the nominal rate
+    private static final int RECENT_LATENCY_SAMPLES = 2 * MAX_UPDATES_PER_SECOND;
     private Context mContext;
-    private int mUpdateCount = 0;
-    private long mLastUpdateClearTime = System.currentTimeMillis();
     private BluetoothSPP mBt;
     private ConnectionCallback mConnectionCallback;
     private boolean mConnected = false;
-    private boolean mSendResult = false;
+    private int mConnectCount = 0;
+    private final GarminProtocol mProtocol = new GarminProtocol(new HudTransport() {
+        @Override
+        public boolean send(byte[] frame, int offset, int length, int type) {
+            return sendPacket(frame, offset, length, type);
+        }
+    });
+    private final GarminShadowState mShadowState = mProtocol.getShadowState();
     // ===========================================================================================
 
     public GarminHUD(Context context) {
         if (DEBUG)
             Log.d(TAG, "Creating GarmingHUD instance");
         mContext = context;
+        mShadowState.setRefreshInterval(GarminShadowState.CMD_DIRECTION,
+                mContext.getResources().getInteger(R.integer.arrow_keep_alive_interval));
         mBt = new BluetoothSPP(mContext);
+        // HUD replies with DLE framed ACK/status frames, not text lines
+        mBt.setFraming(BluetoothState.FRAMING_GARMIN);
         mBt.setBluetoothConnectionListener(mBluetoothConnectionListener);
         mBt.setAutoConnectionListener(mAutoConnectionListener);
         if (!mBt.isBluetoothAvailable()) {
@@ -63,16 +77,17 @@ public class GarminHUD extends HUDAdapter {
             mBt.startService(BluetoothState.DEVICE_OTHER);
         }
 
+        // both modes keep reconnecting with backoff, the last connected address goes first
         final boolean isBindAddress = isBindAddress();
+        final String bindAddress = getBindAddress();
         if (isBindAddress) {
-            String bindAddress = getBindAddress();
             if (bindAddress != null) {
-                mBt.connect(bindAddress);
+                mBt.autoConnect(null, bindAddress);
             }
         } else {
             String bindName = getBindName();
             if (bindName != null) {
-                mBt.autoConnect(bindName);
+                mBt.autoConnect(bindName, bindAddress);
             }
         }
     }
@@ -130,42 +145,26 @@ public class GarminHUD extends HUDAdapter {
         return MAX_UPDATES_PER_SECOND;
     }
 
+    /**
+     * Rate limiting is done by {@link HUDUpdateScheduler} in front of this HUD, which keeps the
+     * newest value of each field instead of dropping frames.
+     */
     @Override
     public boolean isUpdatable() {
-        final long now = System.currentTimeMillis();
-        final long interval = now - mLastUpdateClearTime;
-        if (interval > 1000) {
-            mLastUpdateClearTime = now;
-            mUpdateCount = 0;
-        }
-
-        final boolean updatable = mUpdateCount < MAX_UPDATES_PER_SECOND;
-        if (!updatable) {
-            mSendResult = false;
-        }
-        return updatable;
-    }
-
-    private char toDigit(int n) {
-        n = n % 10;
-        if (n == 0)
-            return (char) 10;
-        else
-            return (char) n;
+        return null != mBt;
     }
 
-    private boolean sendPacket(char[] pBuf, int length) {
-        if (!isUpdatable() || null == mBt) {
+    /**
+     * @param type Garmin command id of the packet, a queued older packet of the same command is
+     *             dropped in favor of this one; -1 to never drop
+     */
+    private boolean sendPacket(byte[] packet, int offset, int length, int type) {
+        if (!isUpdatable()) {
             return false;
         }
-        mUpdateCount++;
         if (MainActivity.isIgnoreBtDevice(mContext)) {
             return true;
         }
-        byte[] packet = new byte[length];
-        for (int x = 0; x < length; x++) {
-            packet[x] = (byte) pBuf[x];
-        }
 
         if (mBt.isServiceAvailable()) {
             // judge service exist to avoid =>
@@ -173,57 +172,53 @@ public class GarminHUD extends HUDAdapter {
             // object reference
             if (DEBUG)
                 Log.d(TAG, "sendPacket: sending packet over BT");
-            mBt.send(packet, false);
+            // BluetoothSPP copies the frame into its write queue, so the pooled frame buffer
+            // can be reused as soon as send() returns.
+            mBt.send(packet, offset, length, type);
         }
         return true;
     }
 
     @Override
     public boolean getSendResult() {
-        return mSendResult;
+        return mProtocol.getSendResult();
     }
 
-    private void sendToHud(char[] pBuf) {
-        int nLen = pBuf.length;
-
-        char[] sendBuf = new char[255];
-        char len = 0;
-        int stuffingCount = 0;
-
-        sendBuf[len++] = 0x10;
-        sendBuf[len++] = 0x7b;
-        sendBuf[len++] = (char) (nLen + 6);
-        if (nLen == 0xa) {
-            sendBuf[len++] = 0x10;
-            stuffingCount++;
-        }
-        sendBuf[len++] = (char) nLen;
-        sendBuf[len++] = 0x00;
-        sendBuf[len++] = 0x00;
-        sendBuf[len++] = 0x00;
-        sendBuf[len++] = 0x55;
-        sendBuf[len++] = 0x15;
-
-        for (char c : pBuf) {
-            sendBuf[len++] = c;
-            if (c == 0x10) {
-                // Escape LF
-                sendBuf[len++] = 0x10;
-                stuffingCount++;
-            }
+    @Override
+    public HUDLinkStats getLinkStats() {
+        HUDLinkStats stats = super.getLinkStats();
+        stats.updatesPerSecond = MAX_UPDATES_PER_SECOND;
+        stats.reconnects = Math.max(0, mConnectCount - 1);
+        stats.framesUnchanged = mShadowState.getSkippedCount();
+        final BluetoothSPP bt = mBt;
+        if (null != bt) {
+            stats.framesQueued = bt.getQueuedWriteCount();
+            stats.framesWritten = bt.getWrittenWriteCount();
+            stats.framesDropped = bt.getDroppedWriteCount();
+            stats.framesFailed = bt.getFailedWriteCount();
+            stats.queueDepth = bt.getWriteQueueDepth();
+            stats.latencyP50Ms = bt.getWriteLatencyPercentile(50);
+            stats.latencyP95Ms = bt.getWriteLatencyPercentile(95);
+            stats.recentLatencyP95Ms = bt.getWriteLatencyPercentile(95, RECENT_LATENCY_SAMPLES);
+            stats.reconnectMs = bt.getReconnectMillis();
+            stats.timeToFirstFrameMs = bt.getTimeToFirstFrameMillis();
+            bt.getWriteLatencyHistogram(HUDLinkStats.LATENCY_BUCKETS_MS, stats.latencyHistogram);
         }
+        return stats;
+    }
 
-        int nCrc = 0;
-        for (int i = 1; i < len; i++) {
-            nCrc += sendBuf[i];
+    @Override
+    public void beginBatch() {
+        if (null != mBt) {
+            mBt.beginBatch();
         }
-        nCrc -= stuffingCount * 0x10;
-
-        sendBuf[len++] = (char) ((-nCrc) & 0xff);
-        sendBuf[len++] = 0x10;
-        sendBuf[len++] = 0x03;
+    }
 
-        mSendResult = sendPacket(sendBuf, len);
+    @Override
+    public void endBatch() {
+        if (null != mBt) {
+            mBt.endBatch();
+        }
     }
 
     @Override
@@ -235,79 +230,27 @@ public class GarminHUD extends HUDAdapter {
                     ", bTraffic: " + bTraffic +
                     ", bColon: " + bColon +
                     ", bH: " + bH);
-        char[] arr = { (char) 0x05,
-                bTraffic ? (char) 0xff : (char) 0x00,
-                toDigit(nH / 10), toDigit(nH), // hour
-                bColon ? (char) 0xff : (char) 0x00, // :
-                toDigit(nM / 10), toDigit(nM), // minute
-                bH ? (char) 0xff : (char) 0x00, // post-fix 'h'
-                bFlag ? (char) 0xff : (char) 0x00 };
-        sendToHud(arr);
+        mProtocol.setTime(nH, nM, bFlag, bTraffic, bColon, bH);
     }
 
     @Override
     public void setRemainTime(int nH, int nM, boolean bTraffic) {
-        final boolean bH = false;
-        final boolean bFlag = true;
-
-        boolean noHour = 0 == nH;
-        boolean minLessThen10 = noHour && nM < 10;
-        char[] arr = { (char) 0x05,
-                bTraffic ? (char) 0xff : (char) 0x00,
-                noHour ? (char) 0 : toDigit(nH / 10), // hour n_
-                noHour ? (char) 0 : toDigit(nH), // hour _n
-                noHour ? (char) 0 : (char) 0xff, // :
-                minLessThen10 ? (char) 0 : toDigit(nM / 10), // minute n_
-                toDigit(nM), // minute _n
-                bH ? (char) 0xff : (char) 0x00, // post-fix 'h'
-                bFlag ? (char) 0xff : (char) 0x00 };
-        sendToHud(arr);
+        mProtocol.setRemainTime(nH, nM, bTraffic);
     }
 
     @Override
     public void clearTime() {
-        char[] arr = { (char) 0x05,
-                0x00,
-                0, 0,
-                0x00,
-                0, 0,
-                0x00,
-        };
-        sendToHud(arr);
+        mProtocol.clearTime();
     }
 
     @Override
     public void setDistance(float nDist, eUnits unit) {
-        int distance = (int) nDist;
-        boolean hasDecimal = ((eUnits.Kilometres == unit) || (eUnits.Miles == unit)) && nDist < 10;
-        if (hasDecimal) {
-            distance = (int) (nDist * 10.0);
-        }
-        char[] arr = { (char) 0x03,
-                toDigit(distance / 1000), toDigit(distance / 100), toDigit(distance / 10),
-                hasDecimal ? (char) 0xff : (char) 0x00, toDigit(distance), (char) unit.value };
-
-        if (arr[1] == 0xa) {
-            arr[1] = 0;
-            if (arr[2] == 0xa) {
-                arr[2] = 0;
-                if (arr[3] == 0xa) {
-                    arr[3] = 0;
-                }
-            }
-        }
-        if (hasDecimal && (distance / 10) == 0) {
-            // Show leding zero for decimals
-            arr[3] = 0xa;
-        }
-
-        sendToHud(arr);
+        mProtocol.setDistance(nDist, unit.value);
     }
 
     @Override
     public void clearDistance() {
-        char[] arr = { (char) 0x03, 0x0, 0x0, 0x0, 0x00, 0, 0 };
-        sendToHud(arr);
+        mProtocol.clearDistance();
     }
 
     @Override
@@ -322,66 +265,8 @@ public class GarminHUD extends HUDAdapter {
 
     @Override
     public void setAlphabet(char a, char b, char c, char d) {
-        eUnits unit = eUnits.None;
-        final boolean bDecimal = false;
-        final boolean bLeadingZero = false;
-
-        char[] arr = { (char) 0x03, a, b, c,
-                bDecimal ? (char) 0xff : (char) 0x00, d, (char) unit.value };
-        if (!bLeadingZero) {
-            if (arr[1] == 0xa) {
-                arr[1] = 0;
-                if (arr[2] == 0xa) {
-                    arr[2] = 0;
-                    if (arr[3] == 0xa) {
-                        arr[3] = 0;
-                    }
-                }
-            }
-        }
-        sendToHud(arr);
-    }
-
-    /*
-     * eOutType:
-     * Off(0x00),
-     * Lane(0x01),
-     * LongerLane(0x02),
-     * LeftRoundabout(0x04),
-     * RightRoundabout(0x08),
-     * ArrowOnly(0x80);
-     * 
-     * eOutAngle:
-     * SharpRight(0x02),
-     * Right(0x04),
-     * EasyRight(0x08),
-     * Straight(0x10),
-     * EasyLeft(0x20),
-     * Left(0x40),
-     * SharpLeft(0x80),
-     * LeftDown(0x81),
-     * RightDown(0x82),
-     * AsDirection(0x00);
-     */
-
-    /*
-     * byte0: header 0x01
-     * 
-     * byte1: Line 箭頭長度, eOutAngle
-     * 0x00 Off
-     * 0x01 Lane
-     * 0x02 LongerLane
-     * 0x04 LeftRoundabout
-     * 0x08 RightRoundabout
-     * 0x10 LeftDown*
-     * 0x20 RightDown*
-     * 0x40 RightFlag
-     * 0x80 ArrowOnly
-     * 
-     * byte2: When Roundabout, eOutAngle:nRoundaboutOut or eOutType:nType
-     * 
-     * byte3: When not LeftDown/RightDown, 箭頭方向: eOutAngle
-     */
+        mProtocol.setAlphabet(a, b, c, d);
+    }
 
     /**
      * @param nDir           箭頭
@@ -394,108 +279,47 @@ public class GarminHUD extends HUDAdapter {
             Log.d(TAG, "setDirection: nDir: " + nDir +
                     ", nType: " + nType +
                     ", nRoundaboutOut: " + nRoundaboutOut);
-        char[] arr = { (char) 0x01,
-                (nDir == eOutAngle.LeftDown) ? (char) 0x10
-                        : ((nDir == eOutAngle.RightDown) ? (char) 0x20 : (char) nType.value),
-                (nType == eOutType.RightRoundabout || nType == eOutType.LeftRoundabout)
-                        ? ((char) ((nRoundaboutOut == eOutAngle.AsDirection) ? nDir.value : nRoundaboutOut.value))
-                        : (char) 0x00,
-                (nDir == eOutAngle.LeftDown || nDir == eOutAngle.RightDown) ? (char) 0x00 : (char) nDir.value };
-        sendToHud(arr);
+        mProtocol.setDirection(nDir.value, nType.value, nRoundaboutOut.value);
     }
 
     @Override
     public void setLanes(char nArrow, char nOutline) {
-        char[] arr = { 0x02, nOutline, nArrow };
-        sendToHud(arr);
+        mProtocol.setLanes(nArrow, nOutline);
     }
 
     @Override
     public void setSpeed(int nSpeed, boolean bIcon) {
-        final boolean bSlash = false;
-        final boolean bSpeeding = false;
-
-        char hundredsDigit, tensDigit, onesDigit;
-        if (nSpeed < 10) {
-            // Delete leading zeros
-            hundredsDigit = (char) 0x00;
-            tensDigit = (char) 0x00;
-        } else {
-            hundredsDigit = (char) ((nSpeed / 100) % 10);
-            tensDigit = toDigit(nSpeed / 10);
-        }
-        onesDigit = toDigit(nSpeed);
-
-        char[] arr = { (char) 0x06,
-                (char) 0x00, (char) 0x00, (char) 0x00, bSlash ? (char) 0xff : (char) 0x00,
-                hundredsDigit, tensDigit, onesDigit, bSpeeding ? (char) 0xff : (char) 0x00,
-                bIcon ? (char) 0xff : (char) 0x00 };
-
-        sendToHud(arr);
+        mProtocol.setSpeed(nSpeed, bIcon);
     }
 
     @Override
     public void setSpeedWarning(int nSpeed, int nLimit, boolean bSpeeding, boolean bIcon, boolean bSlash) {
-        char[] arr = { (char) 0x06,
-                (char) ((nSpeed / 100) % 10), toDigit(nSpeed / 10), toDigit(nSpeed), bSlash ? (char) 0xff : (char) 0x00,
-                (char) ((nLimit / 100) % 10), toDigit(nLimit / 10), toDigit(nLimit),
-                bSpeeding ? (char) 0xff : (char) 0x00,
-                bIcon ? (char) 0xff : (char) 0x00 };
-
-        sendToHud(arr);
+        mProtocol.setSpeedWarning(nSpeed, nLimit, bSpeeding, bIcon, bSlash);
     }
 
     @Override
     public void clearSpeedAndWarning() {
-        char[] arr = { (char) 0x06,
-                (char) 0x00, (char) 0x00, (char) 0x00, (char) 0x00,
-                (char) 0x00, (char) 0x00, (char) 0x00, (char) 0x00,
-                (char) 0x00 };
-        sendToHud(arr);
+        mProtocol.clearSpeedAndWarning();
     }
 
     @Override
     public void setCameraIcon(boolean visible) {
-        char[] arr = { 0x04, (char) (visible ? 1 : 0) };
-        sendToHud(arr);
+        mProtocol.setCameraIcon(visible);
     }
 
     @Override
     public void setGpsLabel(boolean visible) {
-        char[] arr = { 0x07, (char) (visible ? 1 : 0) };
-        sendToHud(arr);
+        mProtocol.setGpsLabel(visible);
     }
 
     @Override
     public void setAutoBrightness() {
-        char[] autoBrightnessCommand = { 0x10, 0x7B, 0x0E, 0x08, 0x00, 0x00, 0x00, 0x56, 0x15, 0x02, 0x00, 0x00, 0x00,
-                0x00, 0x00, 0x00, 0x00, 0x02, 0x10, 0x03 };
-        mSendResult = sendPacket(autoBrightnessCommand, autoBrightnessCommand.length);
+        mProtocol.setAutoBrightness();
     }
 
     @Override
     public void setBrightness(int brightness) {
-        char[] sendBuf = new char[8];
-        int len = 0;
-        int stuffing_count = 0;
-
-        sendBuf[len++] = 0x10;
-        sendBuf[len++] = 0x0f;
-        sendBuf[len++] = 0x02;
-        sendBuf[len++] = (char) brightness;
-        sendBuf[len++] = 0x00;
-
-        int nCrc = 0;
-        for (int i = 1; i < len; i++) {
-            nCrc += sendBuf[i];
-        }
-        nCrc -= stuffing_count * 0x10;
-
-        sendBuf[len++] = (char) ((-(int) nCrc) & 0xff);
-        sendBuf[len++] = 0x10;
-        sendBuf[len++] = 0x03;
-
-        mSendResult = sendPacket(sendBuf, sendBuf.length);
+        mProtocol.setBrightness(brightness);
     }
 
     @Override
@@ -568,6 +392,9 @@ public class GarminHUD extends HUDAdapter {
             if (DEBUG)
                 Log.d(TAG, "onDeviceConnected: name: " + name + ", address: " + address);
             saveConnectedDevice();
+            // the HUD comes up blank, everything has to be sent again
+            mShadowState.invalidate();
+            mConnectCount++;
             if (mConnectionCallback != null) {
                 mConnectionCallback.onConnectionStateChange(ConnectionCallback.ConnectionState.CONNECTED);
             }
@@ -592,7 +419,11 @@ public class GarminHUD extends HUDAdapter {
             if (mConnectionCallback != null) {
                 mConnectionCallback.onConnectionStateChange(state);
             }
-            resetBluetooth();
+            if (!mBt.isAutoConnecting()) {
+                // restarting the service would cancel the pending reconnect
+                resetBluetooth();
+            }
+            mShadowState.invalidate();
             mConnected = false;
         }
     };
@@ -14,4 +14,19 @@ public abstract class HUDAdapter implements HUDInterface {
         setDirection(nDir, eOutType.Lane, eOutAngle.AsDirection);
     }
 
+    @Override
+    public void beginBatch() {
+        // every frame is sent on its own by default
+    }
+
+    @Override
+    public void endBatch() {
+    }
+
+    @Override
+    public HUDLinkStats getLinkStats() {
+        // nothing tracked by default
+        return new HUDLinkStats();
+    }
+
 }
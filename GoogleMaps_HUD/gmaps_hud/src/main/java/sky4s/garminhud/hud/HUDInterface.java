@@ -29,6 +29,19 @@ public interface HUDInterface {
 
     boolean getSendResult();
 
+    /**
+     * @return a new snapshot of the link counters, for diagnostics
+     */
+    HUDLinkStats getLinkStats();
+
+    /**
+     * Frames produced until the matching {@link #endBatch()} may be sent together with a single
+     * write, call both once per refresh cycle.
+     */
+    void beginBatch();
+
+    void endBatch();
+
     void setTime(int nH, int nM, boolean bFlag, boolean bTraffic, boolean bColon, boolean bH);
 
     void setCurrentTime(int nH, int nM);
@@ -0,0 +1,94 @@
+package sky4s.garminhud.hud;
+
+import java.util.Locale;
+
+/**
+ * Snapshot of the link health between the app and the HUD, see
+ * {@link HUDInterface#getLinkStats()}.
+ * <p>
+ * Every layer fills in what it knows: the scheduler the throttling and the effective update
+ * rate, the HUD implementation the transport counters. Counters a HUD does not track stay 0.
+ */
+public class HUDLinkStats {
+    /**
+     * Upper bounds (inclusive) of the write latency histogram buckets, in milliseconds; the
+     * last bucket of {@link #latencyHistogram} holds everything slower.
+     */
+    public static final long[] LATENCY_BUCKETS_MS = {10, 20, 50, 100, 200, 500};
+
+    private static final String[] FIELD_NAMES = {"direction", "lanes", "distance", "speed",
+            "camera", "time", "gps"};
+
+    // ===========================================================================================
+    // transport
+    // ===========================================================================================
+    public long framesQueued;
+    public long framesWritten;
+    public long framesDropped;
+    /**
+     * Frames the link refused, e.g. written while it broke; not in {@link #framesWritten}.
+     */
+    public long framesFailed;
+    public long framesUnchanged;
+    public int queueDepth;
+    public long latencyP50Ms;
+    public long latencyP95Ms;
+    /**
+     * p95 of the newest few writes, used to adapt the update rate.
+     */
+    public long recentLatencyP95Ms;
+    public final long[] latencyHistogram = new long[LATENCY_BUCKETS_MS.length + 1];
+    public int reconnects;
+    /**
+     * Link lost until connected again, of the last reconnect.
+     */
+    public long reconnectMs;
+    /**
+     * Link lost (or first connection attempt) until the first frame was written on the new link.
+     */
+    public long timeToFirstFrameMs;
+
+    // ===========================================================================================
+    // scheduler
+    // ===========================================================================================
+    /**
+     * Updates overwritten by a newer value of the same field before they could be sent,
+     * indexed like the fields of {@link HUDUpdateScheduler}.
+     */
+    public final long[] throttledFrames = new long[HUDUpdateScheduler.FIELD_COUNT];
+    public float updatesPerSecond;
+    public boolean adaptive;
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.US, "rate: %.1f/s%s\n", updatesPerSecond, adaptive ? " (adaptive)" : ""));
+        sb.append("queued: ").append(framesQueued)
+                .append(", written: ").append(framesWritten)
+                .append(", dropped: ").append(framesDropped)
+                .append(", failed: ").append(framesFailed)
+                .append(", unchanged: ").append(framesUnchanged)
+                .append(", queue: ").append(queueDepth).append('\n');
+        sb.append("latency p50/p95: ").append(latencyP50Ms).append('/').append(latencyP95Ms)
+                .append(" ms, recent p95: ").append(recentLatencyP95Ms).append(" ms\n");
+        sb.append("latency ms:");
+        for (int i = 0; i < latencyHistogram.length; i++) {
+            sb.append(' ');
+            if (i < LATENCY_BUCKETS_MS.length) {
+                sb.append("<=").append(LATENCY_BUCKETS_MS[i]);
+            } else {
+                sb.append('>').append(LATENCY_BUCKETS_MS[LATENCY_BUCKETS_MS.length - 1]);
+            }
+            sb.append(':').append(latencyHistogram[i]);
+        }
+        sb.append('\n');
+        sb.append("reconnects: ").append(reconnects)
+                .append(", last reconnect: ").append(reconnectMs)
+                .append(" ms, time to first frame: ").append(timeToFirstFrameMs).append(" ms\n");
+        sb.append("throttled:");
+        for (int i = 0; i < throttledFrames.length; i++) {
+            sb.append(' ').append(FIELD_NAMES[i]).append(':').append(throttledFrames[i]);
+        }
+        return sb.toString();
+    }
+}
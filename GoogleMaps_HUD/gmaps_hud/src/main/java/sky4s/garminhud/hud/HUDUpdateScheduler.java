@@ -0,0 +1,654 @@
+package sky4s.garminhud.hud;
+
+import android.content.Intent;
+import android.util.Log;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import sky4s.garminhud.eOutAngle;
+import sky4s.garminhud.eOutType;
+import sky4s.garminhud.eUnits;
+
+/**
+ * Coalescing front-end of a {@link HUDInterface}.
+ * <p>
+ * Every HUD field (distance, time, direction, lanes, speed, camera, GPS) has one slot holding
+ * only the newest value, so repeated writes of a field between two sends collapse into one
+ * frame. Slots are drained by a token bucket refilled at {@link #getMaxUpdatesPerSecond()};
+ * when several slots are dirty the one with the highest staleness + importance goes first, so
+ * a burst never drops the arrow in favor of an unchanged time.
+ * <p>
+ * With {@link #setAdaptiveRate(boolean)} the refill rate follows the link: it is cut when
+ * writes get slow or dropped, and raised step by step while the link keeps up and the bucket
+ * runs dry.
+ * <p>
+ * On reconnect the last value of every field is sent again right away (warm resume), the HUD
+ * comes up blank and the navigation source may not produce new values for a while. While the
+ * link is down nothing is drained, the slots just keep the newest values; a send refused while
+ * the link is up is retried with an exponential backoff.
+ */
+public class HUDUpdateScheduler extends HUDAdapter {
+    private static final String TAG = HUDUpdateScheduler.class.getSimpleName();
+    private static final boolean DEBUG = false;
+
+    // ===========================================================================================
+    // fields, ordered by importance
+    // ===========================================================================================
+    static final int FIELD_DIRECTION = 0;
+    static final int FIELD_LANES = 1;
+    static final int FIELD_DISTANCE = 2;
+    static final int FIELD_SPEED = 3;
+    static final int FIELD_CAMERA = 4;
+    static final int FIELD_TIME = 5;
+    static final int FIELD_GPS = 6;
+    static final int FIELD_COUNT = 7;
+
+    /**
+     * Importance expressed as a head start in milliseconds of staleness.
+     */
+    private static final long[] IMPORTANCE_MS = {1000, 800, 600, 400, 400, 200, 0};
+
+    // ===========================================================================================
+    // adaptive rate
+    // ===========================================================================================
+    private static final long ADAPT_INTERVAL_MS = 1000;
+    /**
+     * Recent write latency above which the link counts as congested.
+     */
+    private static final long LATENCY_HIGH_MS = 150;
+    /**
+     * Recent write latency below which the link has room for more updates.
+     */
+    private static final long LATENCY_LOW_MS = 50;
+    private static final double RATE_DECREASE_FACTOR = 0.7;
+    private static final double RATE_INCREASE_STEP = 0.5;
+
+    // ===========================================================================================
+    // failed sends
+    // ===========================================================================================
+    /**
+     * The first retry waits for one token, every further failure in a row doubles that up to
+     * this.
+     */
+    private static final long MAX_RETRY_DELAY_MS = 5000;
+    // ===========================================================================================
+
+    private final HUDInterface mHud;
+    private final ScheduledExecutorService mExecutor = Executors.newSingleThreadScheduledExecutor();
+    private final Slot[] mPending = new Slot[FIELD_COUNT];
+    private final Slot[] mOutgoing = new Slot[FIELD_COUNT];
+
+    private int mCapacity;
+    private double mTokensPerMs;
+    private double mTokens;
+    private long mLastRefillTime;
+    private boolean mDrainScheduled = false;
+    private boolean mShutdown = false;
+    private boolean mLinkDown = false;
+    // sends failed in a row, counted on mExecutor, reset by replay() too
+    private volatile int mFailedSends = 0;
+    private int mBatchDepth = 0;
+    private final long[] mThrottled = new long[FIELD_COUNT];
+    private final boolean[] mSent = new boolean[FIELD_COUNT];
+
+    private final double mNominalRate;
+    private final double mMinRate;
+    private final double mMaxRate;
+    private double mRate;
+    private boolean mAdaptive = false;
+    private boolean mStarved = false;
+    private long mLastAdaptTime;
+    private long mLastWritten;
+    private long mLastDropped;
+    private long mLastFailed;
+
+    public HUDUpdateScheduler(HUDInterface hud) {
+        mHud = hud;
+        mNominalRate = Math.max(1, hud.getMaxUpdatesPerSecond());
+        mMinRate = Math.max(1, mNominalRate / 3);
+        mMaxRate = mNominalRate * 2;
+        setRate(mNominalRate);
+        mTokens = mCapacity;
+        mLastRefillTime = System.currentTimeMillis();
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            mPending[i] = new Slot();
+            mOutgoing[i] = new Slot();
+        }
+    }
+
+    // ===========================================================================================
+    // slot
+    // ===========================================================================================
+    private static final int OP_SET = 0;
+    private static final int OP_CLEAR = 1;
+    private static final int OP_ALT = 2;
+
+    /**
+     * Latest requested value of one field. Holds the raw setter arguments, the meaning of
+     * i0..i2/b0..b3 depends on field and op.
+     */
+    private static final class Slot {
+        boolean dirty;
+        long dirtySince;
+        int op;
+        int i0, i1, i2, i3;
+        float f0;
+        boolean b0, b1, b2, b3;
+        eUnits unit;
+        eOutAngle angle0, angle1;
+        eOutType type;
+
+        void copyFrom(Slot s) {
+            op = s.op;
+            i0 = s.i0;
+            i1 = s.i1;
+            i2 = s.i2;
+            i3 = s.i3;
+            f0 = s.f0;
+            b0 = s.b0;
+            b1 = s.b1;
+            b2 = s.b2;
+            b3 = s.b3;
+            unit = s.unit;
+            angle0 = s.angle0;
+            angle1 = s.angle1;
+            type = s.type;
+        }
+    }
+
+    private Slot begin(int field, int op) {
+        Slot slot = mPending[field];
+        if (!slot.dirty) {
+            slot.dirty = true;
+            slot.dirtySince = System.currentTimeMillis();
+        } else {
+            // the previous value never reached the HUD
+            mThrottled[field]++;
+        }
+        slot.op = op;
+        return slot;
+    }
+
+    /**
+     * Called with the lock held after a slot was updated.
+     */
+    private void requestDrain(long delayMs) {
+        // while the link is down replay() starts the next drain once it is back
+        if (mDrainScheduled || mShutdown || mLinkDown || mBatchDepth > 0) {
+            return;
+        }
+        mDrainScheduled = true;
+        try {
+            mExecutor.schedule(mDrainRunnable, delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            mDrainScheduled = false;
+        }
+    }
+
+    private final Runnable mDrainRunnable = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    private void drain() {
+        adaptRate();
+        // everything sent in one drain goes out with a single write
+        mHud.beginBatch();
+        try {
+            drainSlots();
+        } finally {
+            mHud.endBatch();
+        }
+    }
+
+    private void drainSlots() {
+        while (true) {
+            final int field;
+            synchronized (this) {
+                mDrainScheduled = false;
+                final long now = System.currentTimeMillis();
+                refill(now);
+                field = pickField(now);
+                if (-1 == field) {
+                    return;
+                }
+                if (mTokens < 1) {
+                    mStarved = true;
+                    requestDrain((long) Math.ceil((1 - mTokens) / mTokensPerMs));
+                    return;
+                }
+                mTokens -= 1;
+                Slot pending = mPending[field];
+                pending.dirty = false;
+                mOutgoing[field].copyFrom(pending);
+                mSent[field] = true;
+                // hold the drain until this send is done
+                mDrainScheduled = true;
+            }
+
+            final boolean sent;
+            try {
+                send(field, mOutgoing[field]);
+                sent = mHud.getSendResult();
+            } catch (RuntimeException e) {
+                // the executor would swallow it with the drain still held, and the HUD would
+                // never be updated again; drop this value, a newer one is sent as usual
+                Log.e(TAG, "drain: send threw, field " + field, e);
+                mFailedSends++;
+                synchronized (this) {
+                    mDrainScheduled = false;
+                    requestDrain(getRetryDelay());
+                }
+                return;
+            }
+            if (!sent) {
+                if (DEBUG)
+                    Log.d(TAG, "drain: send failed, field " + field);
+                mFailedSends++;
+                synchronized (this) {
+                    Slot pending = mPending[field];
+                    if (!pending.dirty) {
+                        // nothing newer arrived, retry the same value on the next token
+                        pending.dirty = true;
+                        pending.dirtySince = System.currentTimeMillis();
+                    }
+                    mDrainScheduled = false;
+                    requestDrain(getRetryDelay());
+                }
+                return;
+            }
+            mFailedSends = 0;
+        }
+    }
+
+    /**
+     * Called with the lock held, after mFailedSends was counted up.
+     */
+    private long getRetryDelay() {
+        final long tokenMs = (long) Math.ceil(1 / mTokensPerMs);
+        final int doublings = Math.min(mFailedSends - 1, 16);
+        return Math.min(MAX_RETRY_DELAY_MS, Math.max(tokenMs, tokenMs << doublings));
+    }
+
+    private void refill(long now) {
+        final long elapsed = now - mLastRefillTime;
+        if (elapsed > 0) {
+            mTokens = Math.min(mCapacity, mTokens + elapsed * mTokensPerMs);
+            mLastRefillTime = now;
+        }
+    }
+
+    /**
+     * Called with the lock held.
+     */
+    private void setRate(double rate) {
+        mRate = rate;
+        mCapacity = Math.max(1, (int) Math.ceil(rate));
+        mTokensPerMs = rate / 1000.0;
+        mTokens = Math.min(mTokens, mCapacity);
+    }
+
+    /**
+     * AIMD on the update rate, driven by the write latency, drops and failed writes the HUD reports.
+     */
+    private void adaptRate() {
+        final long now = System.currentTimeMillis();
+        synchronized (this) {
+            if (!mAdaptive || now - mLastAdaptTime < ADAPT_INTERVAL_MS) {
+                return;
+            }
+            mLastAdaptTime = now;
+        }
+        // the HUD takes its own locks, don't hold ours
+        final HUDLinkStats stats = mHud.getLinkStats();
+        synchronized (this) {
+            // nothing written since the last check: latency is stale, a backlog means stalled
+            final boolean idle = stats.framesWritten == mLastWritten;
+            final boolean dropped = stats.framesDropped > mLastDropped;
+            // failed writes leave no latency sample, the link isn't healthy either way
+            final boolean failed = stats.framesFailed > mLastFailed;
+            mLastWritten = stats.framesWritten;
+            mLastDropped = stats.framesDropped;
+            mLastFailed = stats.framesFailed;
+            final boolean congested = dropped || failed
+                    || (idle ? stats.queueDepth > 0 : stats.recentLatencyP95Ms > LATENCY_HIGH_MS);
+            if (congested) {
+                setRate(Math.max(mMinRate, mRate * RATE_DECREASE_FACTOR));
+            } else if (!idle && mStarved && stats.recentLatencyP95Ms < LATENCY_LOW_MS) {
+                setRate(Math.min(mMaxRate, mRate + RATE_INCREASE_STEP));
+            }
+            mStarved = false;
+            if (DEBUG)
+                Log.d(TAG, "adaptRate: " + mRate + "/s, recent p95 " + stats.recentLatencyP95Ms + " ms");
+        }
+    }
+
+    private int pickField(long now) {
+        int best = -1;
+        long bestScore = Long.MIN_VALUE;
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            Slot slot = mPending[i];
+            if (!slot.dirty) {
+                continue;
+            }
+            final long score = now - slot.dirtySince + IMPORTANCE_MS[i];
+            if (score > bestScore) {
+                bestScore = score;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private void send(int field, Slot s) {
+        switch (field) {
+            case FIELD_DIRECTION:
+                mHud.setDirection(s.angle0, s.type, s.angle1);
+                break;
+            case FIELD_LANES:
+                mHud.setLanes((char) s.i0, (char) s.i1);
+                break;
+            case FIELD_DISTANCE:
+                if (OP_SET == s.op) {
+                    mHud.setDistance(s.f0, s.unit);
+                } else if (OP_ALT == s.op) {
+                    mHud.setAlphabet((char) s.i0, (char) s.i1, (char) s.i2, (char) s.i3);
+                } else {
+                    mHud.clearDistance();
+                }
+                break;
+            case FIELD_SPEED:
+                if (OP_SET == s.op) {
+                    mHud.setSpeed(s.i0, s.b0);
+                } else if (OP_ALT == s.op) {
+                    mHud.setSpeedWarning(s.i0, s.i1, s.b0, s.b1, s.b2);
+                } else {
+                    mHud.clearSpeedAndWarning();
+                }
+                break;
+            case FIELD_CAMERA:
+                mHud.setCameraIcon(s.b0);
+                break;
+            case FIELD_TIME:
+                if (OP_SET == s.op) {
+                    mHud.setTime(s.i0, s.i1, s.b0, s.b1, s.b2, s.b3);
+                } else if (OP_ALT == s.op) {
+                    mHud.setRemainTime(s.i0, s.i1, s.b0);
+                } else {
+                    mHud.clearTime();
+                }
+                break;
+            case FIELD_GPS:
+                mHud.setGpsLabel(s.b0);
+                break;
+        }
+    }
+
+    // ===========================================================================================
+    // HUDInterface
+    // ===========================================================================================
+    @Override
+    public void registerConnectionCallback(final ConnectionCallback callback) {
+        mHud.registerConnectionCallback(new ConnectionCallback() {
+            @Override
+            public void onConnectionStateChange(ConnectionState state) {
+                if (ConnectionState.CONNECTED == state) {
+                    replay();
+                } else {
+                    linkDown();
+                }
+                if (null != callback) {
+                    callback.onConnectionStateChange(state);
+                }
+            }
+        });
+    }
+
+    /**
+     * Stop draining until {@link #replay()}, sends would only fail and be retried.
+     */
+    private synchronized void linkDown() {
+        mLinkDown = true;
+    }
+
+    /**
+     * Warm resume: mark every field sent before as dirty again, with a full bucket.
+     */
+    private synchronized void replay() {
+        final long now = System.currentTimeMillis();
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            Slot pending = mPending[i];
+            if (!mSent[i] || pending.dirty) {
+                continue;
+            }
+            pending.copyFrom(mOutgoing[i]);
+            pending.dirty = true;
+            pending.dirtySince = now;
+        }
+        mTokens = mCapacity;
+        mLastRefillTime = now;
+        mLinkDown = false;
+        mFailedSends = 0;
+        if (DEBUG)
+            Log.d(TAG, "replay: warm resume");
+        requestDrain(0);
+    }
+
+    @Override
+    public boolean handleActivityResult(int requestCode, int resultCode, Intent data) {
+        return mHud.handleActivityResult(requestCode, resultCode, data);
+    }
+
+    @Override
+    public void scanForHud() {
+        mHud.scanForHud();
+    }
+
+    @Override
+    public int getMaxUpdatesPerSecond() {
+        return mHud.getMaxUpdatesPerSecond();
+    }
+
+    /**
+     * @param adaptive true to follow the observed link latency, false to send at
+     *                 {@link #getMaxUpdatesPerSecond()} of the wrapped HUD
+     */
+    public synchronized void setAdaptiveRate(boolean adaptive) {
+        mAdaptive = adaptive;
+        mStarved = false;
+        mLastAdaptTime = System.currentTimeMillis();
+        if (!adaptive) {
+            setRate(mNominalRate);
+        }
+    }
+
+    @Override
+    public HUDLinkStats getLinkStats() {
+        HUDLinkStats stats = mHud.getLinkStats();
+        synchronized (this) {
+            System.arraycopy(mThrottled, 0, stats.throttledFrames, 0, FIELD_COUNT);
+            stats.updatesPerSecond = (float) mRate;
+            stats.adaptive = mAdaptive;
+        }
+        return stats;
+    }
+
+    /**
+     * Writes are never refused, they are coalesced instead.
+     */
+    @Override
+    public boolean isUpdatable() {
+        return true;
+    }
+
+    /**
+     * @return true, the last write is held in its slot until the link budget allows to send it.
+     */
+    @Override
+    public boolean getSendResult() {
+        return true;
+    }
+
+    /**
+     * Hold the drain until {@link #endBatch()}, so all fields set in one refresh cycle are
+     * drained together.
+     */
+    @Override
+    public synchronized void beginBatch() {
+        mBatchDepth++;
+    }
+
+    @Override
+    public synchronized void endBatch() {
+        if (mBatchDepth > 0 && --mBatchDepth == 0) {
+            requestDrain(0);
+        }
+    }
+
+    @Override
+    public synchronized void setTime(int nH, int nM, boolean bFlag, boolean bTraffic, boolean bColon, boolean bH) {
+        Slot s = begin(FIELD_TIME, OP_SET);
+        s.i0 = nH;
+        s.i1 = nM;
+        s.b0 = bFlag;
+        s.b1 = bTraffic;
+        s.b2 = bColon;
+        s.b3 = bH;
+        requestDrain(0);
+    }
+
+    @Override
+    public synchronized void setRemainTime(int nH, int nM, boolean bTraffic) {
+        Slot s = begin(FIELD_TIME, OP_ALT);
+        s.i0 = nH;
+        s.i1 = nM;
+        s.b0 = bTraffic;
+        requestDrain(0);
+    }
+
+    @Override
+    public synchronized void clearTime() {
+        begin(FIELD_TIME, OP_CLEAR);
+        requestDrain(0);
+    }
+
+    @Override
+    public synchronized void setDistance(float nDist, eUnits unit) {
+        Slot s = begin(FIELD_DISTANCE, OP_SET);
+        s.f0 = nDist;
+        s.unit = unit;
+        requestDrain(0);
+    }
+
+    @Override
+    public synchronized void clearDistance() {
+        begin(FIELD_DISTANCE, OP_CLEAR);
+        requestDrain(0);
+    }
+
+    @Override
+    public void setRemainingDistance(float nDist, eUnits unit) {
+        // no frame on Garmin, let the HUD decide
+        mHud.setRemainingDistance(nDist, unit);
+    }
+
+    @Override
+    public void clearRemainingDistance() {
+        mHud.clearRemainingDistance();
+    }
+
+    @Override
+    public synchronized void setAlphabet(char a, char b, char c, char d) {
+        Slot s = begin(FIELD_DISTANCE, OP_ALT);
+        s.i0 = a;
+        s.i1 = b;
+        s.i2 = c;
+        s.i3 = d;
+        requestDrain(0);
+    }
+
+    @Override
+    public synchronized void setDirection(eOutAngle nDir, eOutType nType, eOutAngle nRoundaboutOut) {
+        Slot s = begin(FIELD_DIRECTION, OP_SET);
+        s.angle0 = nDir;
+        s.type = nType;
+        s.angle1 = nRoundaboutOut;
+        requestDrain(0);
+    }
+
+    @Override
+    public synchronized void setLanes(char nArrow, char nOutline) {
+        Slot s = begin(FIELD_LANES, OP_SET);
+        s.i0 = nArrow;
+        s.i1 = nOutline;
+        requestDrain(0);
+    }
+
+    @Override
+    public synchronized void setSpeed(int nSpeed, boolean bIcon) {
+        Slot s = begin(FIELD_SPEED, OP_SET);
+        s.i0 = nSpeed;
+        s.b0 = bIcon;
+        requestDrain(0);
+    }
+
+    @Override
+    public synchronized void setSpeedWarning(int nSpeed, int nLimit, boolean bSpeeding, boolean bIcon, boolean bSlash) {
+        Slot s = begin(FIELD_SPEED, OP_ALT);
+        s.i0 = nSpeed;
+        s.i1 = nLimit;
+        s.b0 = bSpeeding;
+        s.b1 = bIcon;
+        s.b2 = bSlash;
+        requestDrain(0);
+    }
+
+    @Override
+    public synchronized void clearSpeedAndWarning() {
+        begin(FIELD_SPEED, OP_CLEAR);
+        requestDrain(0);
+    }
+
+    @Override
+    public synchronized void setCameraIcon(boolean visible) {
+        Slot s = begin(FIELD_CAMERA, OP_SET);
+        s.b0 = visible;
+        requestDrain(0);
+    }
+
+    @Override
+    public synchronized void setGpsLabel(boolean visible) {
+        Slot s = begin(FIELD_GPS, OP_SET);
+        s.b0 = visible;
+        requestDrain(0);
+    }
+
+    @Override
+    public void setAutoBrightness() {
+        mHud.setAutoBrightness();
+    }
+
+    @Override
+    public void setBrightness(int brightness) {
+        mHud.setBrightness(brightness);
+    }
+
+    @Override
+    public void sendRawByte(int b) {
+        mHud.sendRawByte(b);
+    }
+
+    @Override
+    public void disconnect() {
+        synchronized (this) {
+            mShutdown = true;
+        }
+        mExecutor.shutdownNow();
+        mHud.disconnect();
+    }
+}
@@ -0,0 +1,210 @@
+package sky4s.garminhud.app.detect;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * ColorRoiFinder must give the rects of the four findColor scans per color it replaced (top,
+ * bottom, left, right); findColor below is the baseline ScreenDetector.findColor on an int[].
+ */
+public class ColorRoiFinderTest {
+    // GmapsScreenDetector.RoadBgGreen_Day / _Night / _V2, Color.rgb is not there on the jvm
+    private static final int[] ROAD_COLORS = {0x0f9d58, 0x0d904f, 0x0b8043};
+
+    private static boolean isSameRGB(int color1, int color2, int tolerance) {
+        return Math.abs(((color1 >> 16) & 0xff) - ((color2 >> 16) & 0xff)) <= tolerance
+                && Math.abs(((color1 >> 8) & 0xff) - ((color2 >> 8) & 0xff)) <= tolerance
+                && Math.abs((color1 & 0xff) - (color2 & 0xff)) <= tolerance;
+    }
+
+    private static int findColor(int[] pixels, int width, int height, int color, boolean vertical, boolean up,
+                                 boolean left, int findWidth) {
+        int h_start = vertical ? (up ? 0 : height - findWidth) : 0;
+        int h_inc = vertical ? up ? 1 : -1 : 1;
+        int h_end = vertical ? (up ? height - findWidth : 0) : height - 1;
+
+        int w_start = vertical ? 0 : left ? 0 : width - findWidth;
+        int w_inc = vertical ? 1 : left ? 1 : -1;
+        int w_end = vertical ? width - findWidth : left ? width - 1 : 0 + findWidth;
+
+        int w0_end = vertical ? w_start + w_inc : w_end;
+        int w1_end = vertical ? w_end : w_start + w_inc;
+
+        for (int w0 = w_start; w0 != w0_end; w0 += w_inc) {
+            for (int h = h_start; h != h_end; h += h_inc) {
+                for (int w1 = w_start; w1 != w1_end; w1 += w_inc) {
+                    int w = vertical ? w1 : w0;
+                    boolean allSameColor = true;
+                    for (int x = 0; x < findWidth; x++) {
+                        int hh = vertical ? h : h + x;
+                        int ww = vertical ? w + x : w;
+                        allSameColor = allSameColor
+                                && isSameRGB(pixels[ww + hh * width], color, ColorRoiFinder.TOLERANCE);
+                    }
+                    if (allSameColor) {
+                        return vertical ? h : w;
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static String oldRois(int[] pixels, int width, int height, int findWidth, int... colors) {
+        StringBuilder rois = new StringBuilder("[");
+        for (int c = 0; c < colors.length; c++) {
+            final int top = findColor(pixels, width, height, colors[c], true, true, false, findWidth);
+            final int bottom = findColor(pixels, width, height, colors[c], true, false, false, findWidth);
+            final int left = findColor(pixels, width, height, colors[c], false, true, true, findWidth);
+            final int right = findColor(pixels, width, height, colors[c], false, true, false, findWidth);
+            rois.append(c > 0 ? ", " : "").append(new Rect(left, top, right - left, bottom - top));
+        }
+        return rois.append(']').toString();
+    }
+
+    private static String toString(Rect[] rois) {
+        StringBuilder s = new StringBuilder("[");
+        for (int i = 0; i < rois.length; i++) {
+            s.append(i > 0 ? ", " : "").append(rois[i]);
+        }
+        return s.append(']').toString();
+    }
+
+    /**
+     * Mostly the colors, off by up to one per channel or by two (out of tolerance), some noise.
+     */
+    private static int[] randomImage(Random random, int width, int height) {
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            int color = ROAD_COLORS[random.nextInt(ROAD_COLORS.length)];
+            if (0 == random.nextInt(4)) {
+                color = random.nextInt(0x1000000);
+            } else {
+                color += (random.nextInt(3) - 1) * (random.nextBoolean() ? 1 : 0x10000)
+                        + (0 == random.nextInt(5) ? 2 : 0);
+            }
+            pixels[i] = (random.nextInt(256) << 24) | color;
+        }
+        if (random.nextBoolean()) {
+            // sparse blobs, so the scans have to search
+            for (int i = 0; i < pixels.length; i++) {
+                if (0 != random.nextInt(10)) {
+                    pixels[i] = 0xffffffff;
+                }
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * The frame as the ImageReader plane holds it: RGBA bytes, padded rows, native order.
+     */
+    private static ByteBuffer toPlane(int[] pixels, int width, int height, int rowStride, ByteOrder order) {
+        ByteBuffer plane = ByteBuffer.allocateDirect(rowStride * height).order(order);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                final int argb = pixels[y * width + x];
+                final int index = y * rowStride + x * 4;
+                plane.put(index, (byte) (argb >> 16));
+                plane.put(index + 1, (byte) (argb >> 8));
+                plane.put(index + 2, (byte) argb);
+                plane.put(index + 3, (byte) (argb >>> 24));
+            }
+        }
+        return plane;
+    }
+
+    @Test
+    public void sameAsFindColor() {
+        final Random random = new Random(3);
+        final ColorRoiFinder finder = new ColorRoiFinder();
+        for (int n = 0; n < 2000; n++) {
+            // findColor needs width and height above 2 * findWidth + 1, and runs off the bottom for findWidth > 2
+            final int width = 8 + random.nextInt(40);
+            final int height = 8 + random.nextInt(40);
+            final int[] pixels = randomImage(random, width, height);
+            for (int findWidth = 1; findWidth <= 2; findWidth++) {
+                assertEquals(width + "x" + height + " findWidth " + findWidth,
+                        oldRois(pixels, width, height, findWidth, ROAD_COLORS),
+                        toString(finder.find(pixels, 0, width, width, height, findWidth, ROAD_COLORS)));
+            }
+        }
+    }
+
+    @Test
+    public void croppedStride() {
+        final Random random = new Random(4);
+        final ColorRoiFinder finder = new ColorRoiFinder();
+        for (int n = 0; n < 1000; n++) {
+            final int width = 12 + random.nextInt(40);
+            final int height = 12 + random.nextInt(40);
+            final int[] pixels = randomImage(random, width, height);
+            final int x = random.nextInt(4);
+            final int y = random.nextInt(4);
+            final int cropWidth = width - x - random.nextInt(4);
+            final int cropHeight = height - y - random.nextInt(4);
+            int[] crop = new int[cropWidth * cropHeight];
+            for (int row = 0; row < cropHeight; row++) {
+                System.arraycopy(pixels, (y + row) * width + x, crop, row * cropWidth, cropWidth);
+            }
+            for (int findWidth = 1; findWidth <= 2; findWidth++) {
+                assertEquals(oldRois(crop, cropWidth, cropHeight, findWidth, ROAD_COLORS),
+                        toString(finder.find(pixels, y * width + x, width, cropWidth, cropHeight, findWidth, ROAD_COLORS)));
+            }
+        }
+    }
+
+    @Test
+    public void frameRegionOfPaddedPlane() {
+        final Random random = new Random(5);
+        final ColorRoiFinder finder = new ColorRoiFinder();
+        final FrameRegion frame = new FrameRegion();
+        final FrameRegion crop = new FrameRegion();
+        final ByteOrder[] orders = {ByteOrder.nativeOrder(), ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN};
+        for (int n = 0; n < 1000; n++) {
+            final int width = 12 + random.nextInt(40);
+            final int height = 12 + random.nextInt(40);
+            final int rowStride = width * 4 + random.nextInt(3) * 16;
+            final int[] pixels = randomImage(random, width, height);
+            frame.set(toPlane(pixels, width, height, rowStride, orders[n % orders.length]), rowStride, 4, width, height);
+
+            final int x = random.nextInt(4);
+            final int y = random.nextInt(4);
+            final int cropWidth = width - x - random.nextInt(4);
+            final int cropHeight = height - y - random.nextInt(4);
+            crop.set(frame, x, y, cropWidth, cropHeight);
+            int[] expected = new int[cropWidth * cropHeight];
+            for (int row = 0; row < cropHeight; row++) {
+                System.arraycopy(pixels, (y + row) * width + x, expected, row * cropWidth, cropWidth);
+            }
+            assertEquals(expected[cropWidth + 1], crop.getPixel(1, 1));
+            for (int findWidth = 1; findWidth <= 2; findWidth++) {
+                assertEquals(oldRois(expected, cropWidth, cropHeight, findWidth, ROAD_COLORS),
+                        toString(finder.find(crop, findWidth, ROAD_COLORS)));
+            }
+        }
+    }
+
+    @Test
+    public void banner() {
+        final int width = 360;
+        final int height = 390;
+        int[] pixels = new int[width * height];
+        java.util.Arrays.fill(pixels, 0xffe0e0e0);
+        for (int y = 30; y < 130; y++) {
+            for (int x = 6; x < 354; x++) {
+                pixels[y * width + x] = 0xff000000 | ROAD_COLORS[2];
+            }
+        }
+        final Rect[] rois = new ColorRoiFinder().find(pixels, 0, width, width, height, 2, ROAD_COLORS);
+        assertEquals(oldRois(pixels, width, height, 2, ROAD_COLORS), toString(rois));
+        assertEquals(-1, rois[0].x);
+        assertEquals(-1, rois[1].x);
+        assertEquals("6,30 347/99", rois[2].toString());
+    }
+}
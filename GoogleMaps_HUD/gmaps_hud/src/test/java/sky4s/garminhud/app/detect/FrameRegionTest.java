@@ -0,0 +1,78 @@
+package sky4s.garminhud.app.detect;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class FrameRegionTest {
+
+    /**
+     * 3x2 RGBA_8888 frame, 4 bytes row padding; pixel (x, y) is ARGB 0x80 (x) (y) (x + y).
+     */
+    private static ByteBuffer plane(ByteOrder order) {
+        ByteBuffer plane = ByteBuffer.allocateDirect(16 * 2).order(order);
+        for (int y = 0; y < 2; y++) {
+            for (int x = 0; x < 3; x++) {
+                final int index = y * 16 + x * 4;
+                plane.put(index, (byte) x);
+                plane.put(index + 1, (byte) y);
+                plane.put(index + 2, (byte) (x + y));
+                plane.put(index + 3, (byte) 0x80);
+            }
+        }
+        return plane;
+    }
+
+    private static int argb(int x, int y) {
+        return 0x80000000 | (x << 16) | (y << 8) | (x + y);
+    }
+
+    @Test
+    public void pixelsAreArgbInAnyByteOrder() {
+        for (ByteOrder order : new ByteOrder[]{ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN}) {
+            final ByteBuffer buffer = plane(order);
+            final FrameRegion frame = new FrameRegion().set(buffer, 16, 4, 3, 2);
+            int[] row = new int[3];
+            for (int y = 0; y < 2; y++) {
+                frame.getRow(y, row);
+                for (int x = 0; x < 3; x++) {
+                    assertEquals(order + " " + x + "," + y, argb(x, y), frame.getPixel(x, y));
+                    assertEquals(argb(x, y), row[x]);
+                }
+            }
+            // the caller's buffer is left as it was
+            assertSame(order, buffer.order());
+            assertEquals(0, buffer.position());
+        }
+    }
+
+    @Test
+    public void cropMovesTheOrigin() {
+        final FrameRegion frame = new FrameRegion().set(plane(ByteOrder.nativeOrder()), 16, 4, 3, 2);
+        final FrameRegion crop = new FrameRegion().set(frame, 1, 1, 2, 1);
+        assertEquals(2, crop.getWidth());
+        assertEquals(1, crop.getHeight());
+        assertEquals(argb(1, 1), crop.getPixel(0, 0));
+        assertEquals(argb(2, 1), crop.getPixel(1, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cropOutsideThrows() {
+        final FrameRegion frame = new FrameRegion().set(plane(ByteOrder.nativeOrder()), 16, 4, 3, 2);
+        new FrameRegion().set(frame, 2, 0, 2, 1);
+    }
+
+    @Test
+    public void sampleHashSeesChanges() {
+        final ByteBuffer buffer = plane(ByteOrder.nativeOrder());
+        final FrameRegion frame = new FrameRegion().set(buffer, 16, 4, 3, 2);
+        final int hash = frame.sampleHash(1);
+        assertEquals(hash, frame.sampleHash(1));
+        buffer.put(16 + 4, (byte) 0x7f);
+        assertEquals(false, hash == frame.sampleHash(1));
+    }
+}
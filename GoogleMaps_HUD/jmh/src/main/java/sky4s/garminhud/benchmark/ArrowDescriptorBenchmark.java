@@ -0,0 +1,93 @@
+package sky4s.garminhud.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import sky4s.garminhud.ArrowDescriptorIndex;
+import sky4s.garminhud.TemplateMatch;
+
+/**
+ * Descriptor lookup of an icon rendered at another size than the arrow3 templates, as on a
+ * device with another DPI. Setup checks that every template is still found at 48 and 144 px.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ArrowDescriptorBenchmark {
+    // relative to the jmh module, where gradle runs it
+    @Param({"../gmaps_hud/src/main/assets/arrow3"})
+    public String assetDir;
+
+    @Param({"48", "144"})
+    public int size;
+
+    private ArrowDescriptorIndex mIndex;
+    private int[] mInputPixels;
+
+    @Setup
+    public void setup() throws IOException {
+        final File[] files = new File(assetDir).listFiles();
+        if (null == files || 0 == files.length) {
+            throw new IOException("no templates in " + new File(assetDir).getAbsolutePath());
+        }
+        Arrays.sort(files);
+        final BufferedImage[] images = new BufferedImage[files.length];
+        final int[][] pixels = new int[files.length][];
+        final int[] widths = new int[files.length];
+        final int[] heights = new int[files.length];
+        for (int i = 0; i < files.length; i++) {
+            images[i] = ImageIO.read(files[i]);
+            widths[i] = images[i].getWidth();
+            heights[i] = images[i].getHeight();
+            pixels[i] = images[i].getRGB(0, 0, widths[i], heights[i], null, 0, widths[i]);
+        }
+        mIndex = new ArrowDescriptorIndex(pixels, widths, heights);
+
+        for (int checkSize : new int[]{48, 144}) {
+            for (int i = 0; i < files.length; i++) {
+                final TemplateMatch match = mIndex.nearest(scale(images[i], checkSize), 0, checkSize,
+                        checkSize, checkSize);
+                if (match.index != i) {
+                    throw new IllegalStateException(files[i] + " at " + checkSize + " px not recognized");
+                }
+            }
+        }
+        mInputPixels = scale(images[0], size);
+    }
+
+    private static int[] scale(BufferedImage image, int size) {
+        final BufferedImage scaled = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        final Graphics2D g = scaled.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(image, 0, 0, size, size, null);
+        g.dispose();
+        return scaled.getRGB(0, 0, size, size, null, 0, size);
+    }
+
+    @Benchmark
+    public TemplateMatch nearest() {
+        return mIndex.nearest(mInputPixels, 0, size, size, size);
+    }
+}
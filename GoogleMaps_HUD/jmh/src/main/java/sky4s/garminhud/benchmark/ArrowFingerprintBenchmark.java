@@ -0,0 +1,100 @@
+package sky4s.garminhud.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import sky4s.garminhud.ArrowFingerprint;
+
+/**
+ * Arrow fingerprint from the pixels of a notification icon: the old pipeline (threshold every
+ * pixel, nearest neighbour resize into a new 132x132 image, sample 8x8) against
+ * ArrowFingerprint reading the 64 sampled pixels only.
+ * <p>
+ * Both work on int[] here. On the device the old pipeline also paid a JNI call for every
+ * getPixel/setPixel and allocated a Bitmap, so the gap there is larger than measured here.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ArrowFingerprintBenchmark {
+    private static final int IMAGE_LEN = ArrowFingerprint.IMAGE_LEN;
+    private static final int STANDARD_IMG_SIZE = ArrowFingerprint.STANDARD_IMG_SIZE;
+
+    // Google Maps icon sizes seen on xhdpi / xxhdpi devices
+    @Param({"96", "144"})
+    public int size;
+
+    private int[] mPixels;
+    private int[] mWork;
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(42);
+        mPixels = new int[size * size];
+        for (int i = 0; i < mPixels.length; i++) {
+            mPixels[i] = random.nextBoolean() ? 0xffffffff : 0x40000000;
+        }
+        mWork = new int[size * size];
+        if (threePass() != ArrowFingerprint.compute(mPixels, 0, size, size, size)) {
+            throw new IllegalStateException("fingerprint differs from the three pass pipeline");
+        }
+    }
+
+    // ImageUtils.toBinaryImage + ArrowImage.resizeImage + sampling, as they were
+    private long threePass() {
+        System.arraycopy(mPixels, 0, mWork, 0, mPixels.length);
+        for (int i = 0; i < mWork.length; i++) {
+            mWork[i] = ArrowFingerprint.getGreenAlpha(mWork[i]) > ArrowFingerprint.TREAT_AS_WHITE ? 0xffffffff : 0;
+        }
+
+        int[] resized = new int[STANDARD_IMG_SIZE * STANDARD_IMG_SIZE];
+        float ratio = size / (STANDARD_IMG_SIZE * 1.0f);
+        for (int h = 0; h < STANDARD_IMG_SIZE; h++) {
+            int h0 = Math.round(h * ratio);
+            h0 = (h0 >= size) ? size - 1 : h0;
+            for (int w = 0; w < STANDARD_IMG_SIZE; w++) {
+                int w0 = Math.round(w * ratio);
+                w0 = (w0 >= size) ? size - 1 : w0;
+                resized[h * STANDARD_IMG_SIZE + w] = mWork[h0 * size + w0];
+            }
+        }
+
+        final int interval = STANDARD_IMG_SIZE / IMAGE_LEN;
+        long value = 0;
+        int index = 0;
+        for (int h0 = 0; h0 < IMAGE_LEN; h0++) {
+            for (int w0 = 0; w0 < IMAGE_LEN; w0++) {
+                int p = resized[h0 * interval * STANDARD_IMG_SIZE + w0 * interval];
+                boolean bit = ArrowFingerprint.getGreenAlpha(p) >= 254;
+                value |= ((bit ? 1L : 0L) << index);
+                index++;
+            }
+        }
+        return value;
+    }
+
+    @Benchmark
+    public long threePassPipeline() {
+        return threePass();
+    }
+
+    @Benchmark
+    public long direct() {
+        return ArrowFingerprint.compute(mPixels, 0, size, size, size);
+    }
+}
@@ -0,0 +1,109 @@
+package sky4s.garminhud.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import sky4s.garminhud.Arrow;
+import sky4s.garminhud.ArrowIndex;
+import sky4s.garminhud.ArrowMatcher;
+
+/**
+ * Matching one 8x8 fingerprint against the whole Arrow table: the popcount matcher against
+ * the per-bit SAD loop it replaced (boolean[64] content compared bit by bit to every entry),
+ * and {@link ArrowIndex}, a binary search for exact hits before the popcount scan.
+ * <p>
+ * exact: the fingerprint of Straight, the last arrow, so the early exit comes as late as it can;
+ * noisy: a few bits flipped, nothing matches exactly and the whole table is searched.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ArrowMatcherBenchmark {
+    private static final int CONTENT_LEN = 64;
+
+    @Param({"exact", "noisy"})
+    public String input;
+
+    private long mFingerprint;
+    private final boolean[] mContent = new boolean[CONTENT_LEN];
+    private final Arrow[] mArrows = Arrow.values();
+    private final ArrowIndex mIndex = new ArrowIndex(Arrow.VALUES_LEFT);
+
+    @Setup
+    public void setup() {
+        mFingerprint = Arrow.Straight.valueLeft;
+        if ("noisy".equals(input)) {
+            final Random random = new Random(42);
+            for (int i = 0; i < 3; i++) {
+                mFingerprint ^= 1L << random.nextInt(CONTENT_LEN - 1);
+            }
+        }
+        for (int x = 0; x < CONTENT_LEN; x++) {
+            mContent[x] = 1 == ((mFingerprint >> x) & 1);
+        }
+        if (loop() != ArrowMatcher.match(Arrow.VALUES_LEFT, mFingerprint)) {
+            throw new IllegalStateException("popcount matcher differs from the per-bit loop");
+        }
+        if (mIndex.match(mFingerprint) != ArrowMatcher.match(Arrow.VALUES_LEFT, mFingerprint)) {
+            throw new IllegalStateException("index differs from the popcount matcher");
+        }
+    }
+
+    // the old ArrowImage.getSAD
+    private int getSAD(final long magicNumber) {
+        int sad = 0;
+        int length = CONTENT_LEN - 1;
+        for (int x = 0; x < length; x++) {
+            final boolean bit = 1 == ((magicNumber >> x) & 1);
+            sad += mContent[x] != bit ? 1 : 0;
+        }
+        return sad;
+    }
+
+    // the old NotificationMonitor.getArrow, returning the same packed result as ArrowMatcher
+    private int loop() {
+        int minSad = Integer.MAX_VALUE;
+        int minIndex = 0;
+        for (int i = 0; i < mArrows.length; i++) {
+            int sad = getSAD(mArrows[i].valueLeft);
+            if (sad < minSad) {
+                minSad = sad;
+                minIndex = i;
+            }
+            if (0 == sad) {
+                break;
+            }
+        }
+        return (minSad << 16) | minIndex;
+    }
+
+    @Benchmark
+    public int perBitLoop() {
+        return loop();
+    }
+
+    @Benchmark
+    public int popcount() {
+        return ArrowMatcher.match(Arrow.VALUES_LEFT, mFingerprint);
+    }
+
+    @Benchmark
+    public int indexed() {
+        return mIndex.match(mFingerprint);
+    }
+}
@@ -0,0 +1,67 @@
+package sky4s.garminhud.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import sky4s.garminhud.protocol.BMWMessage;
+
+/**
+ * BMWMessage setters, each one packs its field and recomputes the checksum over the whole
+ * message. The distance setters also convert miles into the three BMW distance bytes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BMWMessageBenchmark {
+    private static final double[] MILES = {0.05, 0.15, 0.9, 12.3, 45.0, 700.0};
+
+    private final BMWMessage mMsg = new BMWMessage();
+    private int mIndex;
+
+    private int next() {
+        return mIndex = (mIndex + 1) & 0x3f;
+    }
+
+    @Benchmark
+    public byte[] setSpeedLimit() {
+        mMsg.setSpeedLimit(30 + next(), true);
+        return mMsg.getBytes();
+    }
+
+    @Benchmark
+    public byte[] setArrow() {
+        mMsg.setArrow(next() & 0x1f);
+        return mMsg.getBytes();
+    }
+
+    @Benchmark
+    public byte[] setArrivalTime() {
+        final int i = next();
+        mMsg.setArrivalTime(i % 24, i % 60, BMWMessage.TIME_SUFFIX_HOURS);
+        return mMsg.getBytes();
+    }
+
+    @Benchmark
+    public byte[] setDistanceToTurn() {
+        mMsg.setDistanceToTurn(MILES[next() % MILES.length]);
+        return mMsg.getBytes();
+    }
+
+    @Benchmark
+    public byte[] setRemainingDistance() {
+        mMsg.setRemainingDistance(MILES[next() % MILES.length]);
+        return mMsg.getBytes();
+    }
+}
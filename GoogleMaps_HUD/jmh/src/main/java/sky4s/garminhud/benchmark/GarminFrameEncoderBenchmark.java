@@ -0,0 +1,72 @@
+package sky4s.garminhud.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import sky4s.garminhud.protocol.GarminFrameEncoder;
+
+/**
+ * Raw frame encoding without the shadow state, typical payloads against the DLE stuffing worst
+ * case where every payload byte (and the length byte) is 0x10 and has to be doubled.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GarminFrameEncoderBenchmark {
+    private static final int DLE = 0x10;
+
+    private final GarminFrameEncoder mEncoder = new GarminFrameEncoder();
+
+    @Benchmark
+    public int encodeDistance() {
+        // 12.5 km, no byte to stuff
+        return mEncoder.begin(0x03)
+                .put(0).put(1).put(2).put(true).put(5).put(3)
+                .encode();
+    }
+
+    @Benchmark
+    public int encodeSpeedWarning() {
+        return mEncoder.begin(0x06)
+                .put(0).put(6).put(10).put(true)
+                .put(0).put(5).put(10).put(true).put(true)
+                .encode();
+    }
+
+    @Benchmark
+    public int encodeAllDle() {
+        // 16 bytes: the length byte is 0x10 as well
+        mEncoder.begin(DLE);
+        for (int i = 1; i < 16; i++) {
+            mEncoder.put(DLE);
+        }
+        return mEncoder.encode();
+    }
+
+    @Benchmark
+    public int encodeMaxPayloadAllDle() {
+        mEncoder.begin(DLE);
+        for (int i = 1; i < GarminFrameEncoder.MAX_PAYLOAD_LENGTH; i++) {
+            mEncoder.put(DLE);
+        }
+        return mEncoder.encode();
+    }
+
+    @Benchmark
+    public int encodeBrightness() {
+        // brightness frame with a stuffed level byte
+        return mEncoder.encodeBrightness(DLE);
+    }
+}
@@ -0,0 +1,95 @@
+package sky4s.garminhud.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import sky4s.garminhud.protocol.GarminProtocol;
+import sky4s.garminhud.protocol.HudTransport;
+
+/**
+ * Garmin commands from the setter down to the transport: payload, shadow state check, frame
+ * encoding and DLE stuffing.
+ * <p>
+ * The values cycle so that every call changes the payload and a frame is really encoded and
+ * sent; the *Unchanged benchmarks repeat one value to measure the shadow state short cut.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GarminProtocolBenchmark {
+    // power of two lengths, no two neighbours equal, also across the wrap around
+    private static final float[] DISTANCES = {0.3f, 1.2f, 9.9f, 12f, 150f, 800f, 1000f, 2.5f};
+    private static final int[] ANGLES = {0x10, 0x20, 0x40, 0x80, 0x08, 0x04, 0x02, 0x01};
+    private static final int MASK = 0x3f;
+
+    private GarminProtocol mProtocol;
+    private int mSink;
+    private int mIndex;
+
+    @Setup
+    public void setup() {
+        mProtocol = new GarminProtocol(new HudTransport() {
+            @Override
+            public boolean send(byte[] frame, int offset, int length, int type) {
+                // read the crc so the encoding can't be optimized away
+                mSink += frame[offset + length - 3];
+                return true;
+            }
+        });
+    }
+
+    private int next() {
+        return mIndex = (mIndex + 1) & MASK;
+    }
+
+    @Benchmark
+    public int setDistance() {
+        mProtocol.setDistance(DISTANCES[next() & (DISTANCES.length - 1)], GarminProtocol.UNIT_KILOMETRES);
+        return mSink;
+    }
+
+    @Benchmark
+    public int setDistanceUnchanged() {
+        mProtocol.setDistance(1.2f, GarminProtocol.UNIT_KILOMETRES);
+        return mSink;
+    }
+
+    @Benchmark
+    public int setRemainTime() {
+        final int i = next();
+        mProtocol.setRemainTime(i / 60, i % 60, false);
+        return mSink;
+    }
+
+    @Benchmark
+    public int setDirection() {
+        mProtocol.setDirection(ANGLES[next() & (ANGLES.length - 1)], GarminProtocol.TYPE_ARROW_ONLY,
+                GarminProtocol.ANGLE_AS_DIRECTION);
+        return mSink;
+    }
+
+    @Benchmark
+    public int setSpeedWarning() {
+        mProtocol.setSpeedWarning(40 + next(), 50, false, true, true);
+        return mSink;
+    }
+
+    @Benchmark
+    public int setSpeedWarningUnchanged() {
+        mProtocol.setSpeedWarning(60, 50, true, true, true);
+        return mSink;
+    }
+}
@@ -0,0 +1,139 @@
+package sky4s.garminhud.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import sky4s.garminhud.GreenTemplateMatcher;
+import sky4s.garminhud.PyramidTemplateMatcher;
+import sky4s.garminhud.TemplateMatch;
+
+/**
+ * ArrowV2 matching against the real arrow3 templates: the old full green SAD over every
+ * template (on int[] pixels, the device also paid two getPixel calls per pixel) against
+ * GreenTemplateMatcher on packed bytes with a coarse pass and early termination, and
+ * PyramidTemplateMatcher that runs the full SAD on a fingerprint shortlist only.
+ * <p>
+ * The input is one of the templates with some noise, so no template matches exactly.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GreenTemplateMatcherBenchmark {
+    // relative to the jmh module, where gradle runs it
+    @Param({"../gmaps_hud/src/main/assets/arrow3"})
+    public String assetDir;
+
+    @Param({"Straight.png", "LeaveRoundaboutSharpRightCC.png"})
+    public String input;
+
+    private int[][] mTemplatePixels;
+    private GreenTemplateMatcher mMatcher;
+    private PyramidTemplateMatcher mPyramid;
+    private int[] mInputPixels;
+    private byte[] mInputGreen;
+
+    @Setup
+    public void setup() throws IOException {
+        final File[] files = new File(assetDir).listFiles();
+        if (null == files || 0 == files.length) {
+            throw new IOException("no templates in " + new File(assetDir).getAbsolutePath());
+        }
+        Arrays.sort(files);
+        mTemplatePixels = new int[files.length][];
+        final byte[][] templateGreens = new byte[files.length][];
+        int width = 0;
+        int height = 0;
+        for (int i = 0; i < files.length; i++) {
+            final BufferedImage image = ImageIO.read(files[i]);
+            width = image.getWidth();
+            height = image.getHeight();
+            mTemplatePixels[i] = image.getRGB(0, 0, width, height, null, 0, width);
+            templateGreens[i] = new byte[mTemplatePixels[i].length];
+            GreenTemplateMatcher.extractGreen(mTemplatePixels[i], mTemplatePixels[i].length, templateGreens[i]);
+        }
+        mMatcher = new GreenTemplateMatcher(templateGreens, width, height);
+        mPyramid = new PyramidTemplateMatcher(mTemplatePixels, width, height);
+
+        final Random random = new Random(42);
+        // every template as input must give the same result as the full scan
+        for (int i = 0; i < files.length; i++) {
+            setInput(mTemplatePixels[i], random);
+            if (fullSad() != packed()) {
+                throw new IllegalStateException("early termination changed the result for " + files[i]);
+            }
+            if (GreenTemplateMatcher.getIndex(fullSad()) != mPyramid.match(mInputPixels).index) {
+                throw new IllegalStateException("the shortlist missed " + files[i]);
+            }
+        }
+        final BufferedImage image = ImageIO.read(new File(assetDir, input));
+        setInput(image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth()), random);
+    }
+
+    private void setInput(int[] pixels, Random random) {
+        mInputPixels = pixels.clone();
+        for (int i = 0; i < mInputPixels.length; i++) {
+            final int green = Math.max(0, Math.min(255, ((mInputPixels[i] >> 8) & 0xff) + random.nextInt(9) - 4));
+            mInputPixels[i] = (mInputPixels[i] & 0xffff00ff) | (green << 8);
+        }
+        mInputGreen = new byte[mInputPixels.length];
+    }
+
+    // NotificationMonitor.getGreenSAD over every template, as it was
+    private long fullSad() {
+        int minSad = Integer.MAX_VALUE;
+        int minIndex = -1;
+        for (int x = 0; x < mTemplatePixels.length; x++) {
+            final int[] template = mTemplatePixels[x];
+            int sad = 0;
+            for (int i = 0; i < template.length; i++) {
+                sad += Math.abs(((mInputPixels[i] >> 8) & 0xff) - ((template[i] >> 8) & 0xff));
+            }
+            if (sad < minSad) {
+                minSad = sad;
+                minIndex = x;
+            }
+        }
+        return ((long) minSad << 32) | minIndex;
+    }
+
+    private long packed() {
+        GreenTemplateMatcher.extractGreen(mInputPixels, mInputPixels.length, mInputGreen);
+        return mMatcher.match(mInputGreen);
+    }
+
+    @Benchmark
+    public long fullGreenSad() {
+        return fullSad();
+    }
+
+    @Benchmark
+    public long packedEarlyExit() {
+        return packed();
+    }
+
+    @Benchmark
+    public TemplateMatch pyramid() {
+        return mPyramid.match(mInputPixels);
+    }
+}